@@ -35,7 +35,10 @@ import be.groept.emedialab.animal_farm.util.AniFarmPacket;
 import be.groept.emedialab.animations.confetti.ConfettiFallView;
 import be.groept.emedialab.communications.DataHandler;
 import be.groept.emedialab.communications.DataPacket;
+import be.groept.emedialab.communications.OutgoingQueue;
 import be.groept.emedialab.image_manipulation.RunPatternDetector;
+import be.groept.emedialab.math.ArrangementEngine;
+import be.groept.emedialab.math.ArrangementSpec;
 import be.groept.emedialab.math.DistanceCalculation;
 import be.groept.emedialab.server.data.Device;
 import be.groept.emedialab.server.data.Position;
@@ -62,6 +65,8 @@ public class GameActivity extends AppCompatActivity {
     private int soundId;
     private int imageId;
     private String macDevice = "";
+    private ArrangementSpec pairSpec;
+    private ArrangementSpec aloneSpec;
     private MediaPlayer mediaPlayer = new MediaPlayer();
 
     private int level = 1;
@@ -88,9 +93,9 @@ public class GameActivity extends AppCompatActivity {
                 Serializable data;
                 if((data = GlobalResources.getInstance().readData()) != null)
                     handleData((DataPacket) data);
-            } else if(msg.what == DataHandler.DATA_TYPE_COORDINATES){
+            } else if(msg.what == DataHandler.DATA_TYPE_ARRANGEMENT_CHANGED){
                 if(!levelingUp && !won)
-                    checkDistance();
+                    checkPair((ArrangementEngine.Event) msg.obj);
             } else if(msg.what == DataHandler.DATA_TYPE_DEVICE_DISCONNECTED){
                 BluetoothDevice device = (BluetoothDevice) msg.obj;
                 Log.e(TAG, "Device " + device.getAddress() + " disconnected!");
@@ -315,6 +320,19 @@ public class GameActivity extends AppCompatActivity {
             }
             i++;
         }
+        watchPairs();
+    }
+
+    /**
+     * Watch for the device with the image being paired with another device, or being alone again.
+     * Adding the specs evaluates them at once, so a pair that already exists is reported as well.
+     */
+    private void watchPairs(){
+        ArrangementEngine arrangements = GlobalResources.getInstance().getArrangements();
+        pairSpec = ArrangementSpec.cluster("pair", 2, macAddressImage);
+        aloneSpec = ArrangementSpec.cluster("alone", 1, macAddressImage);
+        arrangements.addSpec(pairSpec);
+        arrangements.addSpec(aloneSpec);
     }
 
     private ArrayList<Integer> populateList(ArrayList<Integer> numbers, int numberOfDevices){
@@ -431,39 +449,31 @@ public class GameActivity extends AppCompatActivity {
         }
     }
 
-    private void checkDistance(){
-        Map<String, Position> connectedDevices = GlobalResources.getInstance().getDevices();
-        HashMap<String, Position> allDevices = new HashMap<>();
-        for(String key: connectedDevices.keySet())
-            allDevices.put(key, connectedDevices.get(key));
-        allDevices.put(GlobalResources.getInstance().getDevice().getMac(), GlobalResources.getInstance().getDevice().getPosition());
-        ArrayList<HashMap<String, Position>> groupedDevices = DistanceCalculation.getGroups(allDevices);
-        for (HashMap<String, Position> group : groupedDevices) {
-            if (group.size() == 2) {
-                if (group.keySet().contains(macAddressImage)) {
-                    if (group.keySet().contains(macAddressCorrectSound)) {
-                        if (macAddressImage.equals(serverMac))
-                            displaySound(1);
-                        else
-                            GlobalResources.getInstance().sendData(macAddressImage, new DataPacket(TYPE_SOUND, 1));
-                        levelingUp = true;
-                        serverSetup(true);
-                    } else {
-                        String currentMac = null;
-                        for (String mac : group.keySet())
-                            if (!mac.equals(macAddressImage))
-                                currentMac = mac;
-                        if (!macDevice.equals(currentMac)) {
-                            if (macAddressImage.equals(serverMac))
-                                displaySound(2);
-                            else
-                                GlobalResources.getInstance().sendData(macAddressImage, new DataPacket(TYPE_SOUND, 2));
-                            macDevice = currentMac;
-                        }
-                    }
+    private void checkPair(ArrangementEngine.Event event){
+        //Events of the specs of a previous level can still be queued
+        if(event.getSpec() == aloneSpec && event.isSatisfied()){
+            macDevice = "";
+        } else if(event.getSpec() == pairSpec && event.isSatisfied()){
+            if(event.getDevices().contains(macAddressCorrectSound)){
+                if(macAddressImage.equals(serverMac))
+                    displaySound(1);
+                else
+                    GlobalResources.getInstance().sendData(macAddressImage, new DataPacket(TYPE_SOUND, 1));
+                levelingUp = true;
+                serverSetup(true);
+            } else{
+                String currentMac = null;
+                for(String mac : event.getDevices())
+                    if(!mac.equals(macAddressImage))
+                        currentMac = mac;
+                if(!macDevice.equals(currentMac)){
+                    if(macAddressImage.equals(serverMac))
+                        displaySound(2);
+                    else
+                        GlobalResources.getInstance().sendData(macAddressImage, new DataPacket(TYPE_SOUND, 2));
+                    macDevice = currentMac;
                 }
-            } else if (group.size() == 1 && group.keySet().contains(macAddressImage))
-                macDevice = "";
+            }
         }
     }
 
@@ -499,7 +509,7 @@ public class GameActivity extends AppCompatActivity {
                         @Override
                         public void run() {
                             startSwipeOut();
-                            HashMap<String, ArrayList<DataPacket>> connectedDevices = GlobalResources.getInstance().getConnectedDevices();
+                            Map<String, OutgoingQueue> connectedDevices = GlobalResources.getInstance().getConnectedDevices();
                             for(String key: connectedDevices.keySet())
                                 GlobalResources.getInstance().sendData(key, new DataPacket(TYPE_NEW_LEVEL));
                         }
@@ -547,6 +557,9 @@ public class GameActivity extends AppCompatActivity {
             public void onAnimationEnd(Animation animation) {
                 levelingUp = false;
                 imageTouch = true;
+                //Pairs made during the animation were ignored, look at them again
+                if(!GlobalResources.getInstance().getClient())
+                    watchPairs();
                 if(level <= TOTAL_LEVELS){
                     newLevel = true;
                     displayImage();
@@ -10,6 +10,7 @@ import android.support.v7.app.AppCompatActivity;
 import android.view.View;
 import android.widget.Button;
 
+import be.groept.emedialab.animal_farm.util.AniFarmPacket;
 import be.groept.emedialab.util.GlobalResources;
 
 /**
@@ -26,6 +27,7 @@ public class SetupActivity extends AppCompatActivity {
 
         setContentView(R.layout.activity_setup);
         GlobalResources.getInstance().getDevice().setMac(BluetoothAdapter.getDefaultAdapter().getAddress());
+        AniFarmPacket.registerCodec();
         mContentView = findViewById(R.id.fullscreen_content);
         Button createButton = (Button) findViewById(R.id.createGame);
         createButton.setOnClickListener(new View.OnClickListener() {
@@ -1,12 +1,22 @@
 package be.groept.emedialab.animal_farm.util;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 
+import be.groept.emedialab.communications.CodecRegistry;
+
 /**
  * Created by Yoika on 24/11/2015.
  */
 public class AniFarmPacket implements Serializable{
 
+    /**
+     * Type id of the codec, see {@link #registerCodec()}.
+     */
+    public static final int CODEC_ID = CodecRegistry.FIRST_GAME_ID;
+
     private int soundId;
     private int imageId;
 
@@ -22,4 +32,23 @@ public class AniFarmPacket implements Serializable{
     public int getImageId(){
         return imageId;
     }
+
+    /**
+     * Send packets as two ints instead of a serialized object. Needs to be called on every device before connecting.
+     */
+    public static void registerCodec(){
+        CodecRegistry.getInstance().register(CODEC_ID, AniFarmPacket.class, new CodecRegistry.Codec<AniFarmPacket>() {
+            @Override
+            public void write(DataOutput output, AniFarmPacket value) throws IOException {
+                output.writeInt(value.soundId);
+                output.writeInt(value.imageId);
+            }
+
+            @Override
+            public AniFarmPacket read(DataInput input) throws IOException {
+                int soundId = input.readInt();
+                return new AniFarmPacket(soundId, input.readInt());
+            }
+        });
+    }
 }
@@ -41,6 +41,8 @@ public class ArrowGame extends AppCompatActivity {
     private TextView ownPositionTextView;
     private TextView otherPositionTextView;
     private Position otherPosition = null;
+    //Filled in from the position store when the other device moved
+    private final Position storedPosition = new Position();
 
     Handler handler = new Handler(Looper.getMainLooper()){
         @Override
@@ -51,7 +53,10 @@ public class ArrowGame extends AppCompatActivity {
                 if((data = GlobalResources.getInstance().readData()) != null)
                     handleData((DataPacket) data);
             }else if(msg.what == DataHandler.DATA_TYPE_COORDINATES){
-                otherPosition = (Position) msg.obj;
+                //The message holds the address of the device that moved
+                if(!GlobalResources.getInstance().getPositionStore().getPosition((String) msg.obj, storedPosition))
+                    return;
+                otherPosition = storedPosition;
                 updateRotation();
                 updatePosition(otherPosition, otherPositionTextView, "Other");
             }else if(msg.what == DataHandler.DATA_TYPE_DEVICE_DISCONNECTED){
@@ -60,10 +65,13 @@ public class ArrowGame extends AppCompatActivity {
             }else if(msg.what == DataHandler.DATA_TYPE_OWN_POS_UPDATED){
                 if(!GlobalResources.getInstance().getClient()){
                     //The server his position is updated, send this to the client!
-                    GlobalResources.getInstance().sendData(new DataPacket(TYPE_CO, (Position) msg.obj));
+                    GlobalResources.getInstance().sendData(new DataPacket(TYPE_CO, (Position) msg.obj, DataPacket.PRIORITY_BULK));
                 }
                 updateRotation();
                 updatePosition((Position) msg.obj, ownPositionTextView, "Self");
+            }else if(msg.what == DataHandler.DATA_TYPE_OWN_POS_PREDICTED){
+                //Only shown here, the other device keeps getting the camera positions
+                updatePosition((Position) msg.obj, ownPositionTextView, "Self");
             }
         }
     };
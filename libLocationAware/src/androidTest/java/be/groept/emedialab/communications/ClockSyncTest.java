@@ -0,0 +1,96 @@
+package be.groept.emedialab.communications;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class ClockSyncTest extends TestCase {
+
+    /**
+     * Server clock that is ahead by an offset and runs faster by a skew, both in us of the client clock.
+     */
+    private static long serverTime(long clientTime, long offset, double skew){
+        return clientTime + offset + Math.round(clientTime * skew);
+    }
+
+    /**
+     * One exchange, the request takes the given time to arrive and the answer the other.
+     */
+    private static void exchange(ClockSync clockSync, long t0, long there, long back, long offset, double skew){
+        long t1 = serverTime(t0 + there, offset, skew);
+        long t2 = t1 + 100;
+        long t3 = t0 + there + 100 + back;
+        assertTrue(clockSync.addSample(t0, t1, t2, t3));
+    }
+
+    @Test
+    public void testSymmetricDelay() {
+        ClockSync clockSync = new ClockSync();
+        assertFalse(clockSync.isSynchronized());
+        assertEquals(1000, clockSync.toServerTime(1000));
+
+        exchange(clockSync, 1000000, 20000, 20000, 5000000, 0);
+        assertTrue(clockSync.isSynchronized());
+        assertEquals(40100, clockSync.getRoundTripDelay() + 100);
+        assertEquals(7000000, clockSync.toServerTime(2000000));
+    }
+
+    @Test
+    public void testShortestDelayWins() {
+        ClockSync clockSync = new ClockSync();
+        //Asymmetric delays put the offset off by half the difference
+        exchange(clockSync, 1000000, 80000, 10000, -3000000, 0);
+        exchange(clockSync, 2000000, 5000, 5000, -3000000, 0);
+        exchange(clockSync, 3000000, 10000, 90000, -3000000, 0);
+        assertEquals(10000, clockSync.getRoundTripDelay());
+        assertEquals(1000000, clockSync.toServerTime(4000000));
+        assertEquals(3, clockSync.getSampleCount());
+    }
+
+    @Test
+    public void testSkew() {
+        ClockSync clockSync = new ClockSync();
+        Random random = new Random(3);
+        double skew = 40e-6;
+        long offset = 250000;
+        //One exchange every 10 s, with up to 20 ms of jitter in both directions
+        for(int i = 0; i < ClockSync.WINDOW_SIZE; i++){
+            long there = 5000 + (long) (random.nextDouble() * 20000);
+            long back = 5000 + (long) (random.nextDouble() * 20000);
+            exchange(clockSync, 1000000 + i * 10000000L, there, back, offset, skew);
+        }
+        //The jitter allows no better than some ppm over a window of 5 minutes
+        assertEquals(skew, clockSync.getSkew(), 30e-6);
+        //A minute after the last exchange the estimate is still within a few ms
+        long later = 1000000 + (ClockSync.WINDOW_SIZE + 6) * 10000000L;
+        assertEquals(serverTime(later, offset, skew), clockSync.toServerTime(later), 10000);
+    }
+
+    @Test
+    public void testImpossibleSample() {
+        ClockSync clockSync = new ClockSync();
+        //The answer took less time than the server needed for it
+        assertFalse(clockSync.addSample(1000, 5000, 9000, 3000));
+        assertFalse(clockSync.isSynchronized());
+    }
+
+    @Test
+    public void testSchedule() {
+        ClockSync clockSync = new ClockSync();
+        assertTrue(clockSync.isDue());
+        clockSync.requestSent();
+        assertFalse(clockSync.isDue());
+        assertTrue(clockSync.getTimeUntilDue() <= ClockSync.INITIAL_INTERVAL);
+
+        for(int i = 0; i < ClockSync.INITIAL_SAMPLES; i++)
+            exchange(clockSync, i * 1000000L, 1000, 1000, 0, 0);
+        clockSync.setInterval(60000);
+        assertTrue(clockSync.getTimeUntilDue() > ClockSync.INITIAL_INTERVAL);
+
+        clockSync.reset();
+        assertTrue(clockSync.isDue());
+        assertFalse(clockSync.isSynchronized());
+    }
+}
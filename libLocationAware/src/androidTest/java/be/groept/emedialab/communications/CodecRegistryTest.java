@@ -0,0 +1,159 @@
+package be.groept.emedialab.communications;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+
+import be.groept.emedialab.server.data.Position;
+
+public class CodecRegistryTest extends TestCase {
+
+    /**
+     * Payload of a game, like the packets of animal_farm.
+     */
+    private static class GamePacket implements Serializable {
+        final int soundId;
+        final int imageId;
+
+        GamePacket(int soundId, int imageId){
+            this.soundId = soundId;
+            this.imageId = imageId;
+        }
+    }
+
+    private static final CodecRegistry.Codec<GamePacket> GAME_CODEC = new CodecRegistry.Codec<GamePacket>() {
+        @Override
+        public void write(DataOutput output, GamePacket value) throws IOException {
+            output.writeInt(value.soundId);
+            output.writeInt(value.imageId);
+        }
+
+        @Override
+        public GamePacket read(DataInput input) throws IOException {
+            int soundId = input.readInt();
+            return new GamePacket(soundId, input.readInt());
+        }
+    };
+
+    private static byte[] encode(CodecRegistry registry, Serializable value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        registry.write(new DataOutputStream(bytes), value);
+        return bytes.toByteArray();
+    }
+
+    private static Serializable decode(CodecRegistry registry, byte[] bytes) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+        Serializable value = registry.read(input);
+        assertEquals(0, input.available());
+        return value;
+    }
+
+    @Test
+    public void testBuiltInTypes() throws IOException {
+        CodecRegistry registry = new CodecRegistry();
+        Serializable[] values = {null, 42, 1234567890123L, 2.5, true, "rank_em"};
+        for(Serializable value : values)
+            assertEquals(value, decode(registry, encode(registry, value)));
+
+        Position position = (Position) decode(registry, encode(registry, new Position(1.5, -2, 30, 90, true)));
+        assertEquals(new Position(1.5, -2, 30, 90, true), position);
+        assertTrue(position.getFoundPattern());
+    }
+
+    @Test
+    public void testPositionTimestamp() throws IOException {
+        CodecRegistry registry = new CodecRegistry();
+        Position stamped = new Position(1.5, -2, 30, 90, true);
+        stamped.setTimestamp(1445241600123L);
+        DataPacket packet = (DataPacket) decode(registry, encode(registry, new DataPacket(7, stamped)));
+        Position position = (Position) packet.getOptionalData();
+        assertEquals(stamped, position);
+        assertEquals(1445241600123L, position.getTimestamp());
+
+        //Without a clock the timestamp stays 0
+        position = (Position) decode(registry, encode(registry, new Position(1.5, -2, 30, 90, false)));
+        assertEquals(0, position.getTimestamp());
+    }
+
+    @Test
+    public void testNestedDataPacket() throws IOException {
+        CodecRegistry registry = new CodecRegistry();
+        DataPacket packet = (DataPacket) decode(registry, encode(registry, new DataPacket(7, 12)));
+        assertEquals(7, packet.getDataType());
+        assertEquals(12, packet.getOptionalData());
+
+        packet = (DataPacket) decode(registry, encode(registry, new DataPacket(8)));
+        assertEquals(8, packet.getDataType());
+        assertNull(packet.getOptionalData());
+    }
+
+    @Test
+    public void testGameCodec() throws IOException {
+        CodecRegistry registry = new CodecRegistry();
+        DataPacket sent = new DataPacket(3, new GamePacket(2, 5));
+        int serializedLength = encode(registry, sent).length;
+
+        registry.register(CodecRegistry.FIRST_GAME_ID, GamePacket.class, GAME_CODEC);
+        assertTrue(registry.hasCodec(GamePacket.class));
+        byte[] bytes = encode(registry, sent);
+        //Type ids, data type and two ints
+        assertEquals(1 + 4 + 1 + 8, bytes.length);
+        assertTrue(bytes.length < serializedLength);
+
+        GamePacket received = (GamePacket) ((DataPacket) decode(registry, bytes)).getOptionalData();
+        assertEquals(2, received.soundId);
+        assertEquals(5, received.imageId);
+
+        //Registering again under the same id replaces the codec
+        registry.register(CodecRegistry.FIRST_GAME_ID, GamePacket.class, GAME_CODEC);
+    }
+
+    @Test
+    public void testSerializationFallback() throws IOException {
+        CodecRegistry registry = new CodecRegistry();
+        ArrayList<Integer> list = new ArrayList<>();
+        list.add(3);
+        list.add(1);
+        assertFalse(registry.hasCodec(ArrayList.class));
+        byte[] bytes = encode(registry, list);
+        assertEquals(CodecRegistry.ID_SERIALIZED, bytes[0]);
+        assertEquals(list, decode(registry, bytes));
+
+        //Larger than the 64 KB writeUTF allows
+        StringBuilder builder = new StringBuilder();
+        for(int i = 0; i < 100000; i++)
+            builder.append('a');
+        ArrayList<String> large = new ArrayList<>();
+        large.add(builder.toString());
+        assertEquals(large, decode(registry, encode(registry, large)));
+    }
+
+    @Test
+    public void testInvalidIds() throws IOException {
+        CodecRegistry registry = new CodecRegistry();
+        try{
+            registry.register(CodecRegistry.ID_STRING, GamePacket.class, GAME_CODEC);
+            fail();
+        }catch(IllegalArgumentException e){
+            //Reserved for the library
+        }
+
+        registry.register(CodecRegistry.FIRST_GAME_ID + 1, GamePacket.class, GAME_CODEC);
+        try{
+            decode(new CodecRegistry(), encode(registry, new GamePacket(1, 1)));
+            fail();
+        }catch(IOException e){
+            //The other side does not know the id
+        }
+    }
+}
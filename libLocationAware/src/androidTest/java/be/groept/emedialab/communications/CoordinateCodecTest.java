@@ -0,0 +1,148 @@
+package be.groept.emedialab.communications;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import be.groept.emedialab.server.data.Position;
+
+public class CoordinateCodecTest extends TestCase {
+
+    private static byte[] encode(Position position) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CoordinateCodec.write(new DataOutputStream(bytes), position);
+        return bytes.toByteArray();
+    }
+
+    private static Position decode(byte[] bytes) throws IOException {
+        return CoordinateCodec.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Position position = new Position(23.4567, -12.3451, 41.2, 359.994, true);
+        Position decoded = decode(encode(position));
+        assertEquals(23.46, decoded.getX(), 1e-9);
+        assertEquals(-12.35, decoded.getY(), 1e-9);
+        assertEquals(41.2, decoded.getZ(), 1e-9);
+        assertEquals(359.99, decoded.getRotation(), 1e-9);
+        assertTrue(decoded.getFoundPattern());
+
+        decoded = decode(encode(new Position(0, 0, 0, 0, false)));
+        assertEquals(0.0, decoded.getX());
+        assertFalse(decoded.getFoundPattern());
+    }
+
+    @Test
+    public void testSize() throws IOException {
+        //Legacy payload: four doubles and a boolean
+        int legacy = 4 * 8 + 1;
+        byte[] compact = encode(new Position(45.67, 30.12, 35.5, 270.25, true));
+        assertTrue(compact.length <= 11);
+        assertTrue(compact.length < legacy / 2);
+    }
+
+    @Test
+    public void testTimestamp() throws IOException {
+        Position position = new Position(1, 2, 3, 4, true);
+        int withoutTimestamp = encode(position).length;
+        position.setTimestamp(1500000000123L);
+        byte[] bytes = encode(position);
+        assertEquals(1500000000123L, decode(bytes).getTimestamp());
+        assertTrue(decode(bytes).getFoundPattern());
+
+        //A reader that stops after the rotation sees the same position
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+        input.readUnsignedByte();
+        CoordinateCodec.readVarint(input);
+        for(int i = 0; i < 4; i++)
+            CoordinateCodec.readSignedVarint(input);
+        assertEquals(bytes.length - withoutTimestamp, input.available());
+    }
+
+    @Test
+    public void testVarintLimits() throws IOException {
+        long[] values = {0, 1, -1, 63, -64, 64, 1 << 20, Long.MAX_VALUE, Long.MIN_VALUE};
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        for(long value : values)
+            CoordinateCodec.writeSignedVarint(output, value);
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        for(long value : values)
+            assertEquals(value, CoordinateCodec.readSignedVarint(input));
+        assertEquals(0, input.available());
+    }
+
+    @Test
+    public void testUnknownVersion() throws IOException {
+        byte[] bytes = encode(new Position(1, 2, 3, 4, true));
+        bytes[0] = (byte) (CoordinateCodec.FORMAT_VERSION + 1);
+        try{
+            decode(bytes);
+            fail();
+        }catch(IOException e){
+            //Expected
+        }
+    }
+
+    private static FrameReader hello(Protocol protocol) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FrameWriter frameWriter = new FrameWriter(bytes);
+        protocol.sendHello(frameWriter);
+        frameWriter.flush();
+        FrameReader frameReader = new FrameReader(new ByteArrayInputStream(bytes.toByteArray()));
+        assertTrue(frameReader.next());
+        return frameReader;
+    }
+
+    @Test
+    public void testNegotiation() throws IOException {
+        Protocol client = new Protocol();
+        Protocol server = new Protocol();
+        //Nothing heard from the other side yet
+        assertEquals(Protocol.VERSION_LEGACY, client.getVersion());
+
+        DataHandler.readFrame(hello(server), "", client);
+        DataHandler.readFrame(hello(client), "", server);
+        assertEquals(Protocol.VERSION, client.getVersion());
+        assertEquals(Protocol.VERSION, server.getVersion());
+
+        //An older side pulls both back to its version
+        Protocol legacy = new Protocol(Protocol.VERSION_LEGACY);
+        Protocol current = new Protocol();
+        DataHandler.readFrame(hello(legacy), "", current);
+        DataHandler.readFrame(hello(current), "", legacy);
+        assertEquals(Protocol.VERSION_LEGACY, current.getVersion());
+        assertEquals(Protocol.VERSION_LEGACY, legacy.getVersion());
+    }
+
+    private static int sentType(Protocol protocol, DataPacket dataPacket) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FrameWriter frameWriter = new FrameWriter(bytes);
+        DataHandler.sendData(frameWriter, dataPacket, protocol);
+        frameWriter.flush();
+        FrameReader frameReader = new FrameReader(new ByteArrayInputStream(bytes.toByteArray()));
+        assertTrue(frameReader.next());
+        return frameReader.getType();
+    }
+
+    @Test
+    public void testDataPacketLayout() throws IOException {
+        DataPacket dataPacket = new DataPacket(DataHandler.DATA_TYPE_DATA_PACKET, new DataPacket(1, new Position(1, 2, 3, 4, true)));
+        Protocol current = new Protocol();
+        DataHandler.readFrame(hello(new Protocol()), "", current);
+        assertEquals(DataHandler.DATA_TYPE_DATA_PACKET_BINARY, sentType(current, dataPacket));
+
+        //The codec of Position changed after version 2, that side gets serialized objects
+        Protocol older = new Protocol();
+        DataHandler.readFrame(hello(new Protocol(Protocol.VERSION_CODEC_REGISTRY)), "", older);
+        assertEquals(Protocol.VERSION_CODEC_REGISTRY, older.getVersion());
+        assertEquals(DataHandler.DATA_TYPE_DATA_PACKET, sentType(older, dataPacket));
+    }
+}
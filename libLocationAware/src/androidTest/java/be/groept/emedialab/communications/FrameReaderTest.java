@@ -0,0 +1,158 @@
+package be.groept.emedialab.communications;
+
+import android.os.Debug;
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Runs the reader over a loopback socket, the closest to an RFCOMM connection that is available in a test.
+ */
+public class FrameReaderTest extends TestCase {
+
+    private static final String TAG = "FrameReaderTest";
+
+    private ServerSocket serverSocket;
+    private Socket clientSocket;
+    private Socket acceptedSocket;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        clientSocket = new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+        clientSocket.setTcpNoDelay(true);
+        acceptedSocket = serverSocket.accept();
+        acceptedSocket.setTcpNoDelay(true);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        clientSocket.close();
+        acceptedSocket.close();
+        serverSocket.close();
+        super.tearDown();
+    }
+
+    private static void writeFrame(DataOutputStream dataOutputStream, int type, byte[] payload) throws IOException {
+        dataOutputStream.writeInt(type);
+        dataOutputStream.writeInt(payload.length);
+        dataOutputStream.write(payload);
+        dataOutputStream.flush();
+    }
+
+    @Test
+    public void testReadFrames() throws Exception {
+        DataOutputStream dataOutputStream = new DataOutputStream(clientSocket.getOutputStream());
+        writeFrame(dataOutputStream, DataHandler.DATA_TYPE_START_GAME, new byte[0]);
+        writeFrame(dataOutputStream, 1234, new byte[1000]);
+        dataOutputStream.writeInt(DataHandler.DATA_TYPE_COORDINATES);
+        dataOutputStream.writeInt(8);
+        dataOutputStream.writeDouble(1.5);
+        clientSocket.shutdownOutput();
+
+        FrameReader frameReader = new FrameReader(acceptedSocket.getInputStream());
+        assertTrue(frameReader.next());
+        assertEquals(DataHandler.DATA_TYPE_START_GAME, frameReader.getType());
+        assertEquals(0, frameReader.getLength());
+        //A type the reader does not know is skipped as a whole
+        assertTrue(frameReader.next());
+        assertEquals(1234, frameReader.getType());
+        assertEquals(1000, frameReader.getLength());
+        assertTrue(frameReader.next());
+        assertEquals(1.5, frameReader.getPayloadStream().readDouble());
+        assertFalse(frameReader.next());
+    }
+
+    @Test
+    public void testIdleReaderUsesNoCpu() throws Exception {
+        final FrameReader frameReader = new FrameReader(acceptedSocket.getInputStream());
+        final long[] cpuTime = new long[1];
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long start = Debug.threadCpuTimeNanos();
+                try {
+                    frameReader.next();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                cpuTime[0] = Debug.threadCpuTimeNanos() - start;
+            }
+        });
+        reader.start();
+
+        //A spinning reader would use the whole idle time
+        Thread.sleep(500);
+        writeFrame(new DataOutputStream(clientSocket.getOutputStream()), DataHandler.DATA_TYPE_START_GAME, new byte[0]);
+        reader.join(1000);
+        Log.d(TAG, "CPU time of the reader while idle for 500 ms: " + cpuTime[0] / 1000 + " us");
+        assertTrue(cpuTime[0] < 100000000L);
+    }
+
+    @Test
+    public void testLatency() throws Exception {
+        //Echo every frame back
+        final FrameReader echoReader = new FrameReader(acceptedSocket.getInputStream());
+        final DataOutputStream echoOutputStream = new DataOutputStream(acceptedSocket.getOutputStream());
+        Thread echo = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while(echoReader.next()){
+                        echoOutputStream.writeInt(echoReader.getType());
+                        echoOutputStream.writeInt(echoReader.getLength());
+                        echoOutputStream.write(echoReader.getPayload(), 0, echoReader.getLength());
+                        echoOutputStream.flush();
+                    }
+                } catch (IOException e) {
+                    //Closed by the test
+                }
+            }
+        });
+        echo.start();
+
+        DataOutputStream dataOutputStream = new DataOutputStream(clientSocket.getOutputStream());
+        FrameReader frameReader = new FrameReader(clientSocket.getInputStream());
+        byte[] payload = new byte[33];
+        int messages = 200;
+        long start = System.nanoTime();
+        for(int i = 0; i < messages; i++){
+            writeFrame(dataOutputStream, DataHandler.DATA_TYPE_COORDINATES, payload);
+            assertTrue(frameReader.next());
+        }
+        long roundTrip = (System.nanoTime() - start) / messages;
+        Log.d(TAG, "Average round trip over loopback: " + roundTrip / 1000 + " us");
+        assertTrue(roundTrip < 50000000L);
+    }
+
+    @Test
+    public void testCloseEndsBlockedRead() throws Exception {
+        final FrameReader frameReader = new FrameReader(acceptedSocket.getInputStream());
+        final boolean[] ended = new boolean[1];
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    frameReader.next();
+                } catch (IOException e) {
+                    //Expected, the socket was closed
+                }
+                ended[0] = true;
+            }
+        });
+        reader.start();
+        Thread.sleep(100);
+        acceptedSocket.close();
+        reader.join(1000);
+        assertTrue(ended[0]);
+    }
+}
@@ -0,0 +1,120 @@
+package be.groept.emedialab.communications;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+public class FrameWriterTest extends TestCase {
+
+    /**
+     * Counts the writes that reach the connection.
+     */
+    private static class CountingOutputStream extends ByteArrayOutputStream {
+        int writes = 0;
+
+        @Override
+        public synchronized void write(int b){
+            writes++;
+            super.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len){
+            writes++;
+            super.write(b, off, len);
+        }
+    }
+
+    @Test
+    public void testBatchedWrite() throws IOException {
+        CountingOutputStream outputStream = new CountingOutputStream();
+        FrameWriter frameWriter = new FrameWriter(outputStream);
+        for(int i = 0; i < 10; i++){
+            frameWriter.beginFrame(DataHandler.DATA_TYPE_COORDINATES).writeInt(i);
+            frameWriter.endFrame();
+        }
+        frameWriter.beginFrame(DataHandler.DATA_TYPE_START_GAME);
+        frameWriter.endFrame();
+        assertEquals(0, outputStream.writes);
+        assertEquals(10 * (FrameReader.HEADER_LENGTH + 4) + FrameReader.HEADER_LENGTH, frameWriter.getPendingLength());
+
+        frameWriter.flush();
+        assertEquals(1, outputStream.writes);
+        assertEquals(0, frameWriter.getPendingLength());
+
+        FrameReader frameReader = new FrameReader(new ByteArrayInputStream(outputStream.toByteArray()));
+        for(int i = 0; i < 10; i++){
+            assertTrue(frameReader.next());
+            assertEquals(DataHandler.DATA_TYPE_COORDINATES, frameReader.getType());
+            assertEquals(i, frameReader.getPayloadStream().readInt());
+        }
+        assertTrue(frameReader.next());
+        assertEquals(DataHandler.DATA_TYPE_START_GAME, frameReader.getType());
+        assertEquals(0, frameReader.getLength());
+        assertFalse(frameReader.next());
+    }
+
+    @Test
+    public void testRelay() throws IOException {
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        FrameWriter frameWriter = new FrameWriter(first);
+        frameWriter.beginFrame(1234).writeUTF("unknown to the relay");
+        frameWriter.endFrame();
+        frameWriter.flush();
+
+        //Pass the frame on without looking at the payload
+        FrameReader relayReader = new FrameReader(new ByteArrayInputStream(first.toByteArray()));
+        assertTrue(relayReader.next());
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        FrameWriter relayWriter = new FrameWriter(second);
+        relayWriter.writeFrame(relayReader.getType(), relayReader.getPayload(), 0, relayReader.getLength());
+        relayWriter.flush();
+
+        FrameReader frameReader = new FrameReader(new ByteArrayInputStream(second.toByteArray()));
+        assertTrue(frameReader.next());
+        assertEquals(1234, frameReader.getType());
+        assertEquals("unknown to the relay", frameReader.getPayloadStream().readUTF());
+    }
+
+    @Test
+    public void testCancelAndOpenFrame() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        FrameWriter frameWriter = new FrameWriter(outputStream);
+        frameWriter.beginFrame(DataHandler.DATA_TYPE_START_GAME);
+        frameWriter.endFrame();
+        frameWriter.beginFrame(DataHandler.DATA_TYPE_DATA_PACKET).writeInt(1);
+        frameWriter.cancelFrame();
+
+        //A frame that is not ended yet stays in the buffer
+        frameWriter.beginFrame(DataHandler.DATA_TYPE_END_GAME).writeInt(2);
+        frameWriter.flush();
+        assertEquals(FrameReader.HEADER_LENGTH, outputStream.size());
+        frameWriter.endFrame();
+        frameWriter.flush();
+
+        FrameReader frameReader = new FrameReader(new ByteArrayInputStream(outputStream.toByteArray()));
+        assertTrue(frameReader.next());
+        assertEquals(DataHandler.DATA_TYPE_START_GAME, frameReader.getType());
+        assertTrue(frameReader.next());
+        assertEquals(DataHandler.DATA_TYPE_END_GAME, frameReader.getType());
+        assertEquals(2, frameReader.getPayloadStream().readInt());
+        assertFalse(frameReader.next());
+    }
+
+    @Test
+    public void testTooLong() throws IOException {
+        FrameWriter frameWriter = new FrameWriter(new ByteArrayOutputStream());
+        frameWriter.beginFrame(DataHandler.DATA_TYPE_DATA_PACKET).write(new byte[FrameReader.MAX_PAYLOAD_LENGTH + 1]);
+        try{
+            frameWriter.endFrame();
+            fail();
+        }catch(IOException e){
+            //The frame is dropped
+        }
+        assertEquals(0, frameWriter.getPendingLength());
+    }
+}
@@ -0,0 +1,191 @@
+package be.groept.emedialab.communications;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import be.groept.emedialab.server.data.Position;
+
+public class OutgoingQueueTest extends TestCase {
+
+    private static DataPacket coordinates(double x){
+        return new DataPacket(DataHandler.DATA_TYPE_COORDINATES, new Position(x, 0, 30, 0, true));
+    }
+
+    @Test
+    public void testControlBeforeCoordinates() {
+        OutgoingQueue queue = new OutgoingQueue();
+        queue.add(coordinates(1));
+        queue.add(new DataPacket(DataHandler.DATA_TYPE_START_GAME));
+        queue.add(new DataPacket(DataHandler.DATA_TYPE_DATA_PACKET, 7));
+        queue.add(coordinates(2));
+        assertEquals(3, queue.size());
+        assertEquals(2, queue.getControlSize());
+
+        //Control packets keep their order
+        assertEquals(DataHandler.DATA_TYPE_START_GAME, queue.poll().getDataType());
+        assertEquals(7, queue.poll().getOptionalData());
+        DataPacket last = queue.poll();
+        assertEquals(DataHandler.DATA_TYPE_COORDINATES, last.getDataType());
+        assertEquals(2.0, ((Position) last.getOptionalData()).getX());
+        assertNull(queue.poll());
+        assertEquals(1, queue.getReplacedCoordinates());
+    }
+
+    @Test
+    public void testBulkIsNotStarved() {
+        OutgoingQueue queue = new OutgoingQueue();
+        queue.add(new DataPacket(DataHandler.DATA_TYPE_DATA_PACKET, "stream", DataPacket.PRIORITY_BULK));
+        for(int i = 0; i < 3 * OutgoingQueue.BULK_INTERVAL; i++)
+            queue.add(new DataPacket(DataHandler.DATA_TYPE_DATA_PACKET, i));
+        queue.add(coordinates(1));
+
+        for(int i = 0; i < OutgoingQueue.BULK_INTERVAL; i++)
+            assertEquals(i, queue.poll().getOptionalData());
+        //The latest position goes first within the bulk lane
+        assertEquals(DataHandler.DATA_TYPE_COORDINATES, queue.poll().getDataType());
+        for(int i = OutgoingQueue.BULK_INTERVAL; i < 2 * OutgoingQueue.BULK_INTERVAL; i++)
+            assertEquals(i, queue.poll().getOptionalData());
+        assertEquals("stream", queue.poll().getOptionalData());
+        //No bulk left: control packets follow each other
+        for(int i = 2 * OutgoingQueue.BULK_INTERVAL; i < 3 * OutgoingQueue.BULK_INTERVAL; i++)
+            assertEquals(i, queue.poll().getOptionalData());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testStalledConnectionStaysBounded() {
+        OutgoingQueue queue = new OutgoingQueue();
+        //A camera at 30 fps while nothing is sent for 10 seconds
+        for(int frame = 0; frame < 300; frame++)
+            queue.add(coordinates(frame));
+        queue.add(new DataPacket(DataHandler.DATA_TYPE_PAUSE_GAME));
+        assertEquals(2, queue.size());
+        assertEquals(299, queue.getReplacedCoordinates());
+        assertEquals(DataHandler.DATA_TYPE_PAUSE_GAME, queue.poll().getDataType());
+        assertEquals(299.0, ((Position) queue.poll().getOptionalData()).getX());
+
+        //New coordinates after the slot was taken are sent again
+        queue.add(coordinates(300));
+        assertEquals(300.0, ((Position) queue.poll().getOptionalData()).getX());
+
+        queue.add(coordinates(301));
+        queue.clear();
+        assertEquals(0, queue.size());
+    }
+
+    private static DataPacket packet(int number){
+        return new DataPacket(DataHandler.DATA_TYPE_DATA_PACKET, number);
+    }
+
+    @Test
+    public void testCapacity() {
+        assertEquals(4, new OutgoingQueue(3, OutgoingQueue.OVERFLOW_REJECT).getCapacity());
+        assertEquals(1, new OutgoingQueue(1, OutgoingQueue.OVERFLOW_REJECT).getCapacity());
+        try{
+            new OutgoingQueue(0, OutgoingQueue.OVERFLOW_REJECT);
+            fail();
+        }catch(IllegalArgumentException e){
+            //Expected
+        }
+    }
+
+    @Test
+    public void testReject() {
+        OutgoingQueue queue = new OutgoingQueue(4, OutgoingQueue.OVERFLOW_REJECT);
+        for(int i = 0; i < 4; i++)
+            assertTrue(queue.add(packet(i)));
+        assertFalse(queue.add(packet(4)));
+        //Coordinates have their own slot
+        assertTrue(queue.add(coordinates(0)));
+        assertEquals(5, queue.size());
+        assertEquals(1, queue.getOverflowCount());
+
+        assertEquals(0, queue.poll().getOptionalData());
+        assertTrue(queue.add(packet(5)));
+        //The other lane has its own room
+        assertTrue(queue.add(new DataPacket(DataHandler.DATA_TYPE_DATA_PACKET, 6, DataPacket.PRIORITY_BULK)));
+    }
+
+    @Test
+    public void testDropOldest() {
+        OutgoingQueue queue = new OutgoingQueue(4, OutgoingQueue.OVERFLOW_DROP_OLDEST);
+        for(int i = 0; i < 10; i++)
+            assertTrue(queue.add(packet(i)));
+        assertEquals(4, queue.size());
+        assertEquals(6, queue.getOverflowCount());
+        for(int i = 6; i < 10; i++)
+            assertEquals(i, queue.poll().getOptionalData());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testBlock() throws InterruptedException {
+        final OutgoingQueue queue = new OutgoingQueue(2, OutgoingQueue.OVERFLOW_BLOCK);
+        queue.setBlockTimeout(20);
+        queue.add(packet(0));
+        queue.add(packet(1));
+        //Nobody takes a packet: gives up after the timeout
+        long start = System.nanoTime();
+        assertFalse(queue.add(packet(2)));
+        assertTrue(System.nanoTime() - start >= 20000000L);
+        assertEquals(1, queue.getOverflowCount());
+
+        queue.setBlockTimeout(5000);
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try{
+                    Thread.sleep(50);
+                }catch(InterruptedException e){
+                    return;
+                }
+                queue.poll();
+            }
+        });
+        consumer.start();
+        assertTrue(queue.add(packet(3)));
+        consumer.join();
+        assertEquals(1, queue.poll().getOptionalData());
+        assertEquals(3, queue.poll().getOptionalData());
+    }
+
+    @Test
+    public void testConcurrentProducers() throws InterruptedException {
+        final int producers = 4;
+        //Types that are not coordinates, those would be coalesced
+        final int firstType = 100;
+        final int packets = 20000;
+        final OutgoingQueue queue = new OutgoingQueue(64, OutgoingQueue.OVERFLOW_BLOCK);
+        queue.setBlockTimeout(10000);
+        Thread[] threads = new Thread[producers];
+        for(int p = 0; p < producers; p++){
+            final int producer = p;
+            threads[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for(int i = 0; i < packets; i++)
+                        queue.add(new DataPacket(firstType + producer, i));
+                }
+            });
+            threads[p].start();
+        }
+
+        //Every producer's packets arrive complete and in order
+        int[] next = new int[producers];
+        int received = 0;
+        while(received < producers * packets){
+            DataPacket dataPacket = queue.poll();
+            if(dataPacket == null){
+                Thread.yield();
+                continue;
+            }
+            assertEquals(next[dataPacket.getDataType() - firstType]++, dataPacket.getOptionalData());
+            received++;
+        }
+        for(Thread thread : threads)
+            thread.join();
+        assertNull(queue.poll());
+        assertEquals(0, queue.getOverflowCount());
+    }
+}
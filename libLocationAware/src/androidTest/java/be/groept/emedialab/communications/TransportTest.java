@@ -0,0 +1,277 @@
+package be.groept.emedialab.communications;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import be.groept.emedialab.server.ConnectionServer;
+import be.groept.emedialab.server.data.Position;
+import be.groept.emedialab.util.GlobalResources;
+
+public class TransportTest extends TestCase {
+
+    private static final long TIMEOUT = 5000;
+
+    /**
+     * Accepts one connection in the background.
+     */
+    private static class Acceptor extends Thread {
+        private final Transport transport;
+        volatile Connection connection;
+        volatile IOException exception;
+
+        Acceptor(Transport transport){
+            this.transport = transport;
+            start();
+        }
+
+        Connection get() throws Exception {
+            join(TIMEOUT);
+            if(exception != null)
+                throw exception;
+            assertNotNull(connection);
+            return connection;
+        }
+
+        @Override
+        public void run(){
+            try{
+                connection = transport.accept();
+            }catch(IOException e){
+                exception = e;
+            }
+        }
+    }
+
+    /**
+     * A frame from the client to the server and one back, then the client closes.
+     */
+    private static void exchange(Transport transport, String address) throws Exception {
+        Acceptor acceptor = new Acceptor(transport);
+        Connection client = transport.connect(address);
+        Connection server = acceptor.get();
+        assertFalse(server.getRemoteAddress().isEmpty());
+
+        FrameWriter clientWriter = new FrameWriter(client.getOutputStream());
+        clientWriter.beginFrame(DataHandler.DATA_TYPE_COORDINATES).writeDouble(12.5);
+        clientWriter.endFrame();
+        clientWriter.flush();
+
+        FrameReader serverReader = new FrameReader(server.getInputStream());
+        assertTrue(serverReader.next());
+        assertEquals(DataHandler.DATA_TYPE_COORDINATES, serverReader.getType());
+        assertEquals(12.5, serverReader.getPayloadStream().readDouble());
+
+        FrameWriter serverWriter = new FrameWriter(server.getOutputStream());
+        serverWriter.beginFrame(DataHandler.DATA_TYPE_START_GAME);
+        serverWriter.endFrame();
+        serverWriter.flush();
+
+        FrameReader clientReader = new FrameReader(client.getInputStream());
+        assertTrue(clientReader.next());
+        assertEquals(DataHandler.DATA_TYPE_START_GAME, clientReader.getType());
+
+        //The server sees the end of the stream
+        client.close();
+        assertFalse(serverReader.next());
+        server.close();
+        transport.close();
+    }
+
+    @Test
+    public void testMemory() throws Exception {
+        exchange(new MemoryTransport("server"), "server");
+    }
+
+    @Test
+    public void testTcp() throws Exception {
+        TcpTransport transport = new TcpTransport(0);
+        exchange(transport, transport.getAddress());
+    }
+
+    @Test
+    public void testMemoryPipeFull() throws Exception {
+        MemoryTransport transport = new MemoryTransport("server", 16);
+        Acceptor acceptor = new Acceptor(transport);
+        final Connection client = transport.connect("server");
+        Connection server = acceptor.get();
+
+        final byte[] sent = new byte[1000];
+        for(int i = 0; i < sent.length; i++)
+            sent[i] = (byte) i;
+        //Waits for the reader every 16 bytes
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try{
+                    OutputStream outputStream = client.getOutputStream();
+                    outputStream.write(sent, 0, 500);
+                    for(int i = 500; i < sent.length; i++)
+                        outputStream.write(sent[i]);
+                    client.close();
+                }catch(IOException e){
+                    e.printStackTrace();
+                }
+            }
+        });
+        writer.start();
+
+        InputStream inputStream = server.getInputStream();
+        byte[] received = new byte[sent.length];
+        int length = 0;
+        int read;
+        while((read = inputStream.read(received, length, received.length - length)) > 0)
+            length += read;
+        assertEquals(sent.length, length);
+        assertTrue(Arrays.equals(sent, received));
+        writer.join(TIMEOUT);
+
+        //Writing to a closed connection fails
+        try{
+            server.getOutputStream().write(1);
+            fail();
+        }catch(IOException e){
+            //Expected
+        }
+    }
+
+    @Test
+    public void testClosedTransport() throws Exception {
+        MemoryTransport transport = new MemoryTransport("server");
+        try{
+            transport.connect("other");
+            fail();
+        }catch(IOException e){
+            //Expected
+        }
+        Acceptor acceptor = new Acceptor(transport);
+        transport.close();
+        try{
+            acceptor.get();
+            fail();
+        }catch(IOException e){
+            //Expected
+        }
+    }
+
+    @Test
+    public void testSimulatedLink() throws Exception {
+        LinkConditions conditions = new LinkConditions();
+        conditions.setLatency(30, 0, LinkConditions.DISTRIBUTION_CONSTANT);
+        //100 bytes take 100 ms
+        conditions.setBandwidth(1000);
+        exchange(new SimulatedTransport(new MemoryTransport("server"), conditions), "server");
+
+        SimulatedTransport transport = new SimulatedTransport(new MemoryTransport("server"), conditions);
+        Acceptor acceptor = new Acceptor(transport);
+        Connection client = transport.connect("server");
+        Connection server = acceptor.get();
+        InputStream inputStream = server.getInputStream();
+
+        long start = System.nanoTime();
+        client.getOutputStream().write(1);
+        client.getOutputStream().write(new byte[100]);
+        client.getOutputStream().write(2);
+        //The first byte only waits for the latency, the others for the bandwidth as well and keep their order
+        assertEquals(1, inputStream.read());
+        long first = System.nanoTime() - start;
+        assertTrue(first >= 30000000L);
+        assertTrue(first < 100000000L);
+        byte[] payload = new byte[100];
+        int length = 0;
+        while(length < payload.length)
+            length += inputStream.read(payload, length, payload.length - length);
+        assertEquals(2, inputStream.read());
+        assertTrue(System.nanoTime() - start >= 130000000L);
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void testLinkConditions() {
+        LinkConditions conditions = new LinkConditions();
+        conditions.setLatency(10, 5, LinkConditions.DISTRIBUTION_UNIFORM);
+        Random random = new Random(1);
+        for(int i = 0; i < 100; i++){
+            long delay = conditions.sampleDelay(random);
+            assertTrue(delay >= 5000000L && delay <= 15000000L);
+        }
+        conditions.setLatency(0, 10, LinkConditions.DISTRIBUTION_NORMAL);
+        for(int i = 0; i < 100; i++)
+            assertTrue(conditions.sampleDelay(random) >= 0);
+        try{
+            conditions.setStalls(2, 100);
+            fail();
+        }catch(IllegalArgumentException e){
+            //Expected
+        }
+    }
+
+    /**
+     * The server threads and GlobalResources over memory pipes, the client side written by hand.
+     */
+    @Test
+    public void testServer() throws Exception {
+        MemoryTransport transport = new MemoryTransport("server");
+        ConnectionServer server = new ConnectionServer(transport);
+        server.start();
+        Connection client = transport.connect("server");
+        try{
+            Protocol protocol = new Protocol();
+            FrameWriter frameWriter = new FrameWriter(client.getOutputStream());
+            protocol.sendHello(frameWriter);
+            DataHandler.sendData(frameWriter, new DataPacket(DataHandler.DATA_TYPE_COORDINATES, new Position(10, 20, 30, 90, true)), protocol);
+            frameWriter.flush();
+
+            //The hello of the server arrives first
+            FrameReader frameReader = new FrameReader(client.getInputStream());
+            assertTrue(frameReader.next());
+            DataHandler.readFrame(frameReader, "", protocol);
+            assertEquals(Protocol.VERSION, protocol.getVersion());
+
+            GlobalResources globalResources = GlobalResources.getInstance();
+            long deadline = System.currentTimeMillis() + TIMEOUT;
+            Position position;
+            while((position = globalResources.getDevices().get("memory-1")) == null || position.getX() != 10){
+                assertTrue(System.currentTimeMillis() < deadline);
+                Thread.sleep(1);
+            }
+            assertEquals(20.0, position.getY());
+
+            globalResources.sendData("memory-1", DataHandler.DATA_TYPE_START_GAME, null);
+            assertTrue(frameReader.next());
+            assertEquals(DataHandler.DATA_TYPE_START_GAME, frameReader.getType());
+
+            //Clock exchange, both sides share the clock of this process
+            ClockSync clockSync = globalResources.getClockSync();
+            clockSync.reset();
+            DataHandler.sendData(frameWriter, DataHandler.DATA_TYPE_TIME_REQUEST, protocol);
+            frameWriter.flush();
+            assertTrue(frameReader.next());
+            assertEquals(DataHandler.DATA_TYPE_TIME_RESPONSE, frameReader.getType());
+            DataHandler.readFrame(frameReader, "", protocol);
+            assertTrue(clockSync.isSynchronized());
+            assertTrue(Math.abs(clockSync.getOffset()) <= clockSync.getRoundTripDelay() / 2 + 1);
+
+            //Coordinates stamped with the time of their frame keep it
+            Position stamped = new Position(11, 20, 30, 90, true);
+            stamped.setTimestamp(1234);
+            DataHandler.sendData(frameWriter, new DataPacket(DataHandler.DATA_TYPE_COORDINATES, stamped), protocol);
+            frameWriter.flush();
+            while(globalResources.getPositionStore().getTimestamp("memory-1") != 1234){
+                assertTrue(System.currentTimeMillis() < deadline + TIMEOUT);
+                Thread.sleep(1);
+            }
+        }finally{
+            server.quit();
+            client.close();
+        }
+        assertNull(GlobalResources.getInstance().getOutgoingQueue("memory-1"));
+    }
+}
@@ -0,0 +1,175 @@
+package be.groept.emedialab.image_manipulation;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.MatOfPoint3f;
+import org.opencv.core.Point;
+import org.opencv.core.Point3;
+import org.opencv.imgproc.Imgproc;
+
+import be.groept.emedialab.math.CameraConstants;
+
+public class CornerUndistortionTest extends TestCase {
+
+    private static final double WIDTH = CameraConstants.CALIBRATION_WIDTH;
+    private static final double HEIGHT = CameraConstants.CALIBRATION_HEIGHT;
+    private static final double FX = 600;
+    private static final double FY = 610;
+    private static final double CX = 330;
+    private static final double CY = 230;
+    private static final double[] COEFFICIENTS = new double[]{0.08, -0.03, 0.001, -0.0015, 0.01};
+    private static final double DELTA = 0.01;
+
+    //Undistorted corners in pixels of the unflipped frame
+    private static final double[] CORNERS = new double[]{40, 40, 600, 60, 580, 440, 100, 400};
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        assertTrue(OpenCVLoader.initDebug());
+        CameraConstants.getInstance().setLensCalibration(FX, FY, CX, CY, COEFFICIENTS);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        CameraConstants.getInstance().setLensCalibration(0, 0, 0, 0, null);
+        super.tearDown();
+    }
+
+    /**
+     * @return The corners as the lens shows them in the unflipped frame.
+     */
+    private static double[] distort(double[] corners){
+        Point3[] points = new Point3[4];
+        for(int i = 0; i < 4; i++)
+            points[i] = new Point3((corners[2 * i] - CX) / FX, (corners[2 * i + 1] - CY) / FY, 1);
+        Mat cameraMatrix = new Mat(3, 3, CvType.CV_64F);
+        cameraMatrix.put(0, 0, FX, 0, CX, 0, FY, CY, 0, 0, 1);
+        Mat zero = Mat.zeros(3, 1, CvType.CV_64F);
+        MatOfPoint2f imagePoints = new MatOfPoint2f();
+        Calib3d.projectPoints(new MatOfPoint3f(points), zero, zero, cameraMatrix, new MatOfDouble(COEFFICIENTS), imagePoints);
+
+        Point[] projected = imagePoints.toArray();
+        double[] distorted = new double[8];
+        for(int i = 0; i < 4; i++){
+            distorted[2 * i] = projected[i].x;
+            distorted[2 * i + 1] = projected[i].y;
+        }
+        return distorted;
+    }
+
+    /**
+     * Flip around both axes like Core.flip does with the frames of the front facing camera: pixel x goes to
+     * width - 1 - x.
+     */
+    private static double[] flip(double[] corners){
+        double[] flipped = new double[8];
+        for(int i = 0; i < 4; i++){
+            flipped[2 * i] = WIDTH - 1 - corners[2 * i];
+            flipped[2 * i + 1] = HEIGHT - 1 - corners[2 * i + 1];
+        }
+        return flipped;
+    }
+
+    private static void assertCorners(double[] expected, double[] actual){
+        for(int i = 0; i < 8; i++)
+            assertEquals(expected[i], actual[i], DELTA);
+    }
+
+    @Test
+    public void testUndistort(){
+        double[] corners = distort(CORNERS);
+        //The lens really moves the corners, by several pixels near the edges
+        assertTrue(Math.abs(corners[0] - CORNERS[0]) > 1);
+
+        CornerUndistortion undistortion = CornerUndistortion.fromCameraConstants(WIDTH, HEIGHT, false);
+        undistortion.undistort(corners);
+        assertCorners(CORNERS, corners);
+        undistortion.release();
+    }
+
+    @Test
+    public void testUndistortMirrored(){
+        double[] corners = flip(distort(CORNERS));
+
+        CornerUndistortion undistortion = CornerUndistortion.fromCameraConstants(WIDTH, HEIGHT, true);
+        undistortion.undistort(corners);
+        assertCorners(flip(CORNERS), corners);
+        undistortion.release();
+
+        //The calibration of the unflipped frame does not fit
+        corners = flip(distort(CORNERS));
+        undistortion = CornerUndistortion.fromCameraConstants(WIDTH, HEIGHT, false);
+        undistortion.undistort(corners);
+        boolean wrong = false;
+        double[] expected = flip(CORNERS);
+        for(int i = 0; i < 8; i++)
+            wrong |= Math.abs(expected[i] - corners[i]) > 1;
+        assertTrue(wrong);
+        undistortion.release();
+    }
+
+    /**
+     * The mirrored calibration on the flipped image gives the flipped result of undistortPoints on the unflipped one.
+     */
+    @Test
+    public void testMirroredAgainstUndistortPoints(){
+        double[] distorted = distort(CORNERS);
+        Point[] points = new Point[4];
+        for(int i = 0; i < 4; i++)
+            points[i] = new Point(distorted[2 * i], distorted[2 * i + 1]);
+        Mat cameraMatrix = new Mat(3, 3, CvType.CV_64F);
+        cameraMatrix.put(0, 0, FX, 0, CX, 0, FY, CY, 0, 0, 1);
+        MatOfPoint2f undistorted = new MatOfPoint2f();
+        Imgproc.undistortPoints(new MatOfPoint2f(points), undistorted, cameraMatrix, new MatOfDouble(COEFFICIENTS), new Mat(), cameraMatrix);
+        Point[] result = undistorted.toArray();
+        double[] expected = new double[8];
+        for(int i = 0; i < 4; i++){
+            expected[2 * i] = result[i].x;
+            expected[2 * i + 1] = result[i].y;
+        }
+
+        double[] corners = flip(distorted);
+        CornerUndistortion undistortion = CornerUndistortion.fromCameraConstants(WIDTH, HEIGHT, true);
+        undistortion.undistort(corners);
+        assertCorners(flip(expected), corners);
+        undistortion.release();
+    }
+
+    @Test
+    public void testScaled(){
+        //Half the calibration resolution, the calibration is scaled with the frame
+        double[] corners = distort(CORNERS);
+        for(int i = 0; i < 8; i++)
+            corners[i] /= 2;
+        CornerUndistortion undistortion = CornerUndistortion.fromCameraConstants(WIDTH / 2, HEIGHT / 2, false);
+        undistortion.undistort(corners);
+        for(int i = 0; i < 8; i++)
+            assertEquals(CORNERS[i] / 2, corners[i], DELTA);
+        undistortion.release();
+    }
+
+    @Test
+    public void testCalibrationPreference(){
+        CameraConstants constants = CameraConstants.getInstance();
+        constants.setLensCalibration("600, 610, 330, 230, 0.08, -0.03, 0.001, -0.0015");
+        assertTrue(constants.hasLensCalibration());
+        assertEquals(610.0, constants.getFy());
+        assertEquals(4, constants.getDistortionCoefficients().length);
+        constants.setLensCalibration("");
+        assertFalse(constants.hasLensCalibration());
+        try{
+            constants.setLensCalibration("600, 610, 330");
+            fail();
+        }catch(IllegalArgumentException e){
+            //Expected
+        }
+    }
+}
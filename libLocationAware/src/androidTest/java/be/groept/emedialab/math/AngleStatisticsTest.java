@@ -0,0 +1,46 @@
+package be.groept.emedialab.math;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class AngleStatisticsTest extends TestCase {
+
+    @Test
+    public void testMeanAroundZero(){
+        AngleStatistics statistics = new AngleStatistics();
+        assertTrue(Double.isNaN(statistics.getMean()));
+        statistics.add(350);
+        statistics.add(10);
+        assertEquals(0, AngleStatistics.difference(statistics.getMean(), 0), 0.0001);
+        assertTrue(statistics.getCircularVariance() < 0.02);
+
+        statistics.add(30);
+        statistics.remove(350);
+        assertEquals(20, statistics.getMean(), 0.0001);
+        assertEquals(2, statistics.getCount());
+    }
+
+    @Test
+    public void testCircularVariance(){
+        AngleStatistics statistics = new AngleStatistics();
+        statistics.add(0);
+        statistics.add(180);
+        assertEquals(1, statistics.getCircularVariance(), 0.0001);
+
+        statistics.clear();
+        statistics.add(90);
+        statistics.add(90);
+        assertEquals(0, statistics.getCircularVariance(), 0.0001);
+    }
+
+    @Test
+    public void testDifference(){
+        assertEquals(20.0, AngleStatistics.difference(10, 350));
+        assertEquals(-20.0, AngleStatistics.difference(350, 10));
+        assertEquals(-180.0, AngleStatistics.difference(180, 0));
+        assertEquals(350.0, AngleStatistics.normalize(-10));
+        assertTrue(DistanceCalculation.isOriented(355, 5));
+        assertTrue(DistanceCalculation.isFacing(350, 175));
+    }
+}
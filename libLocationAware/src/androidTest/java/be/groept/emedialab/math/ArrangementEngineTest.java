@@ -0,0 +1,89 @@
+package be.groept.emedialab.math;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import be.groept.emedialab.server.data.Position;
+
+public class ArrangementEngineTest extends TestCase {
+
+    private final List<ArrangementEngine.Event> events = new ArrayList<>();
+
+    private ArrangementEngine createEngine(){
+        ArrangementEngine engine = new ArrangementEngine();
+        engine.setListener(new ArrangementEngine.Listener() {
+            @Override
+            public void onArrangementChanged(ArrangementEngine.Event event) {
+                events.add(event);
+            }
+        });
+        return engine;
+    }
+
+    @Test
+    public void testClusterOnlyReportsFlips(){
+        ArrangementEngine engine = createEngine();
+        engine.update("a", new Position(0, 0, 30, 0, true));
+        engine.update("b", new Position(0, 30, 30, 0, true));
+        engine.addSpec(ArrangementSpec.cluster("pair", 2, "a"));
+        engine.addSpec(ArrangementSpec.cluster("alone", 1, "a"));
+        assertEquals(1, events.size());
+        assertEquals("alone", events.get(0).getSpec().getName());
+
+        engine.update("b", new Position(0, 8, 30, 0, true));
+        assertEquals(3, events.size());
+        assertTrue(engine.isSatisfied("pair"));
+        assertEquals("pair", events.get(1).getSpec().getName());
+        assertTrue(events.get(1).getDevices().containsAll(Arrays.asList("a", "b")));
+
+        //Moving within the pair changes nothing
+        engine.update("b", new Position(1, 7, 30, 0, true));
+        assertEquals(3, events.size());
+
+        engine.remove("b");
+        assertFalse(engine.isSatisfied("pair"));
+        assertTrue(engine.isSatisfied("alone"));
+    }
+
+    @Test
+    public void testGridAndFacingPair(){
+        ArrangementEngine engine = createEngine();
+        engine.addSpec(ArrangementSpec.grid("grid", 2, 2));
+        engine.addSpec(ArrangementSpec.facingPair("facing"));
+        engine.update("a", new Position(0, 8, 30, 0, true));
+        engine.update("b", new Position(0, 0, 30, 0, true));
+        engine.update("c", new Position(8, 8, 30, 0, true));
+        assertTrue(events.isEmpty());
+
+        engine.update("d", new Position(8, 0, 30, 0, true));
+        assertEquals(1, events.size());
+        assertEquals(Arrays.asList("a", "b", "c", "d"), events.get(0).getDevices());
+
+        //Turning d around breaks the grid and makes it face b
+        engine.update("d", new Position(8, 0, 30, 180, true));
+        assertFalse(engine.isSatisfied("grid"));
+        assertTrue(engine.isSatisfied("facing"));
+        //The relations the specs were checked with
+        assertTrue(engine.getRelations().is("d", "b", RelationMatrix.FACING));
+    }
+
+    @Test
+    public void testOrderedLine(){
+        ArrangementEngine engine = createEngine();
+        engine.addSpec(ArrangementSpec.orderedLine("line", Arrays.asList("a", "b", "c")));
+        engine.update("a", new Position(0, 0, 30, 200, true));
+        engine.update("b", new Position(16, 0, 30, 200, true));
+        engine.update("c", new Position(8, 0, 30, 200, true));
+        assertFalse(engine.isSatisfied("line"));
+
+        engine.update("b", new Position(8, 0, 30, 200, true));
+        engine.update("c", new Position(16, 0, 30, 200, true));
+        assertTrue(engine.isSatisfied("line"));
+        assertEquals(1, events.size());
+    }
+}
@@ -0,0 +1,61 @@
+package be.groept.emedialab.math;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class BulkGeometryTest extends TestCase {
+
+    @Test
+    public void testGroupLabels(){
+        BulkGeometry geometry = new BulkGeometry(1);
+        double[] x = {0, 8, 100, 16, 108, 50};
+        double[] y = {0, 0, 0, 0, 0, 0};
+        boolean[] valid = {true, true, true, true, true, false};
+
+        int[] labels = geometry.groupLabels(x, y, valid, x.length, DistanceCalculation.MAX_NEIGHBOUR_DISTANCE, null);
+        assertTrue(Arrays.equals(new int[]{0, 0, 2, 0, 2, -1}, labels));
+
+        BulkGeometry.Neighbours neighbours = geometry.neighbours(x, y, valid, x.length, 10, null);
+        assertEquals(1, neighbours.count(0));
+        assertEquals(2, neighbours.count(1));
+        assertEquals(0, neighbours.get(1, 0));
+        assertEquals(3, neighbours.get(1, 1));
+        assertEquals(0, neighbours.count(5));
+
+        double[] matrix = geometry.distanceMatrix(x, y, valid, x.length, null);
+        assertEquals(8.0, matrix[1]);
+        assertEquals(Double.POSITIVE_INFINITY, matrix[5 * x.length]);
+    }
+
+    @Test
+    public void testParallelMatchesSerial(){
+        int size = BulkGeometry.SERIAL_THRESHOLD * 3 + 1;
+        Random random = new Random(7);
+        double[] x = new double[size];
+        double[] y = new double[size];
+        boolean[] valid = new boolean[size];
+        for(int i = 0; i < size; i++){
+            x[i] = random.nextDouble() * 400;
+            y[i] = random.nextDouble() * 400;
+            valid[i] = random.nextInt(10) != 0;
+        }
+
+        BulkGeometry serial = new BulkGeometry(1);
+        BulkGeometry parallel = new BulkGeometry(4);
+        try{
+            assertTrue(Arrays.equals(serial.distanceMatrix(x, y, valid, size, null), parallel.distanceMatrix(x, y, valid, size, null)));
+            assertTrue(Arrays.equals(serial.groupLabels(x, y, valid, size, 12, null), parallel.groupLabels(x, y, valid, size, 12, null)));
+
+            BulkGeometry.Neighbours expected = serial.neighbours(x, y, valid, size, 12, null);
+            BulkGeometry.Neighbours actual = parallel.neighbours(x, y, valid, size, 12, null);
+            assertTrue(Arrays.equals(Arrays.copyOf(expected.offsets, size + 1), Arrays.copyOf(actual.offsets, size + 1)));
+            assertTrue(Arrays.equals(Arrays.copyOf(expected.indices, expected.offsets[size]), Arrays.copyOf(actual.indices, actual.offsets[size])));
+        }finally{
+            parallel.shutdown();
+        }
+    }
+}
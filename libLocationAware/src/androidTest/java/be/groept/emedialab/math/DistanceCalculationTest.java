@@ -79,6 +79,23 @@ public class DistanceCalculationTest extends TestCase {
         }
     }
 
+    public void testGetGroupsPositions(){
+        Map<String, Position> devices = new LinkedHashMap<>();
+        devices.put("1", new Position(0, 0, 0, 0, true));
+        devices.put("2", new Position(40, 0, 0, 0, true));
+        devices.put("3", new Position(0, 16, 0, 0, true));
+        devices.put("4", new Position(0, 8, 0, 0, true));
+        devices.put("5", new Position(0, 4, 0, 0, false));
+
+        //1 and 3 are only connected through 4, 5 has no pattern
+        ArrayList<HashMap<String, Position>> groups = DistanceCalculation.getGroups(devices);
+        assertEquals(3, groups.size());
+        assertEquals(3, groups.get(0).size());
+        assertTrue(groups.get(0).containsKey("1") && groups.get(0).containsKey("3") && groups.get(0).containsKey("4"));
+        assertTrue(groups.get(1).containsKey("2"));
+        assertTrue(groups.get(2).containsKey("5"));
+    }
+
     /**
      * Basic test method, could be expanded but to be sure that newer code still supports the test
      * method, a better generalized form of expected value needs to be determined. For this reason,
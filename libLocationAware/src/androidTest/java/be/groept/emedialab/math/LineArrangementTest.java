@@ -0,0 +1,74 @@
+package be.groept.emedialab.math;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import be.groept.emedialab.server.data.Position;
+
+public class LineArrangementTest extends TestCase {
+
+    @Test
+    public void testVerticalLine(){
+        LineArrangement lineArrangement = new LineArrangement(LineArrangement.FIT_TOTAL);
+        lineArrangement.update("c", new Position(20.5, 16, 30, 90, true));
+        lineArrangement.update("a", new Position(20, 0, 30, 90, true));
+        lineArrangement.update("b", new Position(19.5, 8, 30, 90, true));
+
+        LineArrangement.Arrangement arrangement = lineArrangement.arrange();
+        assertEquals(3, arrangement.size());
+        assertEquals("a", arrangement.getKey(0));
+        assertEquals("b", arrangement.getKey(1));
+        assertEquals("c", arrangement.getKey(2));
+    }
+
+    @Test
+    public void testIncrementalUpdate(){
+        LineArrangement lineArrangement = new LineArrangement(LineArrangement.FIT_ORDINARY);
+        lineArrangement.update("a", new Position(0, 0, 30, 200, true));
+        lineArrangement.update("b", new Position(8, 0, 30, 200, true));
+        lineArrangement.update("c", new Position(16, 0, 30, 200, true));
+        assertEquals("a", lineArrangement.arrange().getKey(0));
+
+        //Swap a and c, the order follows
+        lineArrangement.update("a", new Position(16, 0, 30, 200, true));
+        lineArrangement.update("c", new Position(0, 0, 30, 200, true));
+        LineArrangement.Arrangement arrangement = lineArrangement.arrange();
+        assertEquals("c", arrangement.getKey(0));
+        assertEquals("b", arrangement.getKey(1));
+        assertEquals("a", arrangement.getKey(2));
+
+        //Lost pattern, then removed
+        lineArrangement.update("b", new Position(8, 0, 30, 200, false));
+        assertEquals(0, lineArrangement.arrange().size());
+        lineArrangement.remove("b");
+        lineArrangement.update("b", new Position(8, 0, 30, 200, true));
+        assertEquals(3, lineArrangement.arrange().size());
+    }
+
+    @Test
+    public void testRansacIgnoresOutlier(){
+        LineArrangement lineArrangement = new LineArrangement(LineArrangement.FIT_RANSAC);
+        for(int i = 0; i < 5; i++){
+            lineArrangement.update("device" + i, new Position(i * 8, 0, 30, 200, true));
+        }
+        lineArrangement.update("outlier", new Position(16, 30, 30, 200, true));
+
+        LineArrangement.Arrangement arrangement = lineArrangement.arrange();
+        assertEquals(5, arrangement.size());
+        for(int i = 0; i < 5; i++){
+            assertEquals("device" + i, arrangement.getKey(i));
+            assertEquals(0.0, arrangement.getPoint(i).y, 0.0001);
+        }
+    }
+
+    @Test
+    public void testRotationAroundZero(){
+        //Averaged arithmetically these rotations give 239, which would reject every device
+        LineArrangement lineArrangement = new LineArrangement(LineArrangement.FIT_ORDINARY);
+        lineArrangement.update("a", new Position(0, 0, 30, 355, true));
+        lineArrangement.update("b", new Position(8, 0, 30, 5, true));
+        lineArrangement.update("c", new Position(16, 0, 30, 358, true));
+        assertEquals(3, lineArrangement.arrange().size());
+    }
+}
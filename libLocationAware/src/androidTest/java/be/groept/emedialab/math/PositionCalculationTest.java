@@ -6,6 +6,7 @@ import org.junit.Test;
 import org.opencv.core.Point;
 
 import be.groept.emedialab.image_manipulation.PatternCoordinates;
+import be.groept.emedialab.server.data.Position;
 import be.groept.emedialab.util.Point3D;
 
 /**
@@ -36,4 +37,58 @@ public class PositionCalculationTest extends TestCase {
         assertEquals(90.0, rotation);
 
     }
-}
\ No newline at end of file
+
+    public void testPatternToRealPosition(){
+        CameraConstants.getInstance().initPhone("867545010631055");
+        PositionCalculation calc = new PositionCalculation(20, 640, 480, 50);
+        PatternCoordinates patternCoordinates = new PatternCoordinates(
+                new Point(210, 130), new Point(200, 230), new Point(300, 240), new Point(310, 140), 0.0
+        );
+        Point3D calculation = calc.patternToReal(patternCoordinates);
+        double rotation = calc.calculateRotation(patternCoordinates);
+
+        Position position = new Position();
+        calc.patternToReal(210, 130, 200, 230, 300, 240, 310, 140, position);
+        assertEquals(calculation.getX(), position.getX());
+        assertEquals(calculation.getY(), position.getY());
+        assertEquals(calculation.getZ(), position.getZ());
+        assertEquals(rotation, position.getRotation());
+        assertEquals(false, position.getFoundPattern());
+    }
+
+    public void testPatternToRealResolutionIndependent(){
+        CameraConstants.getInstance().initPhone("867545010631055");
+        PositionCalculation calc = new PositionCalculation(20, 640, 480, 50);
+        PositionCalculation calcDouble = new PositionCalculation(20, 1280, 960, 50);
+
+        Position position = new Position();
+        calc.patternToReal(210, 130, 200, 230, 300, 240, 310, 140, position);
+        Position positionDouble = new Position();
+        calcDouble.patternToReal(420, 260, 400, 460, 600, 480, 620, 280, positionDouble);
+
+        assertEquals(position.getX(), positionDouble.getX(), 0.0001);
+        assertEquals(position.getY(), positionDouble.getY(), 0.0001);
+        assertEquals(position.getZ(), positionDouble.getZ(), 0.0001);
+        assertEquals(position.getRotation(), positionDouble.getRotation(), 0.0001);
+    }
+
+    public void testPatternToRealTiltCompensated(){
+        CameraConstants.getInstance().initPhone("867545010631055");
+        PositionCalculation calc = new PositionCalculation(20, 640, 480, 50);
+
+        Position level = new Position();
+        calc.patternToReal(270, 190, 270, 290, 370, 290, 370, 190, level);
+
+        //A camera tilted towards the positive image x-axis sees the same pattern shifted by f * tan(tilt)
+        double tilt = 0.2;
+        double shift = 640 / (2 * Math.tan(Math.toRadians(25))) * Math.tan(tilt);
+        Position tilted = new Position();
+        calc.setTilt(tilt, 0);
+        calc.patternToReal(270 + shift, 190, 270 + shift, 290, 370 + shift, 290, 370 + shift, 190, tilted);
+
+        assertEquals(level.getX(), tilted.getX(), 0.0001);
+        assertEquals(level.getY(), tilted.getY(), 0.0001);
+        assertEquals(level.getZ() * Math.cos(tilt), tilted.getZ(), 0.0001);
+        assertEquals(level.getRotation(), tilted.getRotation(), 0.0001);
+    }
+}
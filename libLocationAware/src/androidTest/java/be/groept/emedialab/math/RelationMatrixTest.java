@@ -0,0 +1,63 @@
+package be.groept.emedialab.math;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import be.groept.emedialab.server.data.Position;
+
+public class RelationMatrixTest extends TestCase {
+
+    @Test
+    public void testRelations(){
+        RelationMatrix matrix = new RelationMatrix();
+        matrix.update("1", new Position(0, 0, 30, 0, true));
+        matrix.update("2", new Position(0, -8, 30, 0, true));
+        matrix.update("3", new Position(0, 0, 30, 0, false));
+
+        assertTrue(matrix.is("1", "2", RelationMatrix.NEXT_TO | RelationMatrix.NEXT_TO_AND_ORIENTED));
+        assertTrue(matrix.is("1", "2", RelationMatrix.IN_LINE_HORIZONTAL));
+        assertFalse(matrix.is("2", "1", RelationMatrix.IN_LINE_HORIZONTAL));
+        //No pattern, no relations
+        assertEquals(0, matrix.getRelations("1", "3"));
+        assertEquals(0, matrix.getRelations("1", "unknown"));
+
+        matrix.update("2", new Position(40, 0, 30, 0, true));
+        assertEquals(0, matrix.getRelations("1", "2"));
+        assertFalse(matrix.hasRelation("1", RelationMatrix.NEXT_TO));
+
+        matrix.remove("2");
+        assertEquals(0, matrix.getRelations("1", "2"));
+    }
+
+    @Test
+    public void testSameAsDistanceCalculation(){
+        Random random = new Random(3);
+        RelationMatrix matrix = new RelationMatrix(DistanceCalculation.MARGIN_NARROW, 3);
+        Position[] positions = new Position[40];
+        for(int round = 0; round < 5; round++){
+            //Move a few devices every round, the matrix has to grow and reuse relations
+            for(int i = 0; i < positions.length; i++){
+                if(round == 0 || random.nextInt(4) == 0){
+                    positions[i] = new Position(random.nextDouble() * 40, random.nextDouble() * 40, 28 + random.nextDouble() * 8, random.nextDouble() * 30, true);
+                    matrix.update("device" + i, positions[i]);
+                }
+            }
+
+            for(int i = 0; i < positions.length; i++){
+                for(int j = 0; j < positions.length; j++){
+                    if(i == j)
+                        continue;
+                    String first = "device" + i;
+                    String second = "device" + j;
+                    assertEquals(DistanceCalculation.isNextTo(positions[i], positions[j]), matrix.is(first, second, RelationMatrix.NEXT_TO));
+                    assertEquals(DistanceCalculation.isNextToAndOriented(positions[i], positions[j]), matrix.is(first, second, RelationMatrix.NEXT_TO_AND_ORIENTED));
+                    assertEquals(DistanceCalculation.isNextInLineHorizontal(positions[i], positions[j], DistanceCalculation.MARGIN_NARROW), matrix.is(first, second, RelationMatrix.IN_LINE_HORIZONTAL));
+                    assertEquals(DistanceCalculation.isNextInLineVertical(positions[i], positions[j], 3), matrix.is(first, second, RelationMatrix.IN_LINE_VERTICAL));
+                }
+            }
+        }
+    }
+}
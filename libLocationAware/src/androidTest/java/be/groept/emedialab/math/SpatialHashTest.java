@@ -0,0 +1,74 @@
+package be.groept.emedialab.math;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class SpatialHashTest extends TestCase {
+
+    @Test
+    public void testQueryNeighbours(){
+        SpatialHash<String> index = new SpatialHash<>(12);
+        index.put("1", 0, 0);
+        index.put("2", 11.9, 0);
+        index.put("3", -5, -5);
+        index.put("4", 30, 30);
+
+        List<String> neighbours = new ArrayList<>();
+        index.queryNeighbours("1", 12, neighbours);
+        assertEquals(2, neighbours.size());
+        assertTrue(neighbours.contains("2"));
+        assertTrue(neighbours.contains("3"));
+    }
+
+    @Test
+    public void testMoveAndRemove(){
+        SpatialHash<String> index = new SpatialHash<>(12);
+        index.put("1", 0, 0);
+        index.put("2", 50, 50);
+
+        List<String> neighbours = new ArrayList<>();
+        index.queryNeighbours("1", 12, neighbours);
+        assertTrue(neighbours.isEmpty());
+
+        index.put("2", 3, 4);
+        index.queryNeighbours("1", 12, neighbours);
+        assertEquals(1, neighbours.size());
+
+        neighbours.clear();
+        assertTrue(index.remove("2"));
+        assertFalse(index.remove("2"));
+        index.queryNeighbours("1", 12, neighbours);
+        assertTrue(neighbours.isEmpty());
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testSameAsBruteForce(){
+        Random random = new Random(1);
+        SpatialHash<Integer> index = new SpatialHash<>(12);
+        double[] x = new double[300];
+        double[] y = new double[300];
+        for(int i = 0; i < x.length; i++){
+            x[i] = random.nextDouble() * 200 - 100;
+            y[i] = random.nextDouble() * 200 - 100;
+            index.put(i, x[i], y[i]);
+        }
+
+        List<Integer> neighbours = new ArrayList<>();
+        for(int i = 0; i < x.length; i++){
+            neighbours.clear();
+            index.queryNeighbours(i, 10, neighbours);
+            int expected = 0;
+            for(int j = 0; j < x.length; j++){
+                if(j != i && Math.hypot(x[i] - x[j], y[i] - y[j]) <= 10)
+                    expected++;
+            }
+            assertEquals(expected, neighbours.size());
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package be.groept.emedialab.movement;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import be.groept.emedialab.server.data.Position;
+
+public class SensorFusionTest extends TestCase {
+
+    private static final long MS = 1000000L;
+    private static final long START = 1000 * MS;
+
+    @Test
+    public void testNoPredictionWithoutPattern(){
+        SensorFusion fusion = new SensorFusion();
+        assertNull(fusion.getPrediction());
+
+        fusion.correct(new Position(1, 2, 30, 0, false));
+        assertNull(fusion.getPrediction());
+    }
+
+    @Test
+    public void testGyroscopeRotation(){
+        SensorFusion fusion = new SensorFusion();
+        fusion.onGyroscope(0, START);
+        fusion.correct(new Position(1, 2, 30, 10, true));
+
+        //Turning counter clockwise at 90 degrees per second for 100 ms
+        for(int i = 1; i <= 10; i++){
+            fusion.onGyroscope((float) Math.toRadians(90), START + i * 10 * MS);
+        }
+
+        Position prediction = fusion.getPrediction();
+        assertEquals(1.0, prediction.getX(), 0.0001);
+        assertEquals(2.0, prediction.getY(), 0.0001);
+        assertEquals(30.0, prediction.getZ(), 0.0001);
+        assertEquals(1.0, prediction.getRotation(), 0.001);
+    }
+
+    @Test
+    public void testCorrectionWrapsAround(){
+        SensorFusion fusion = new SensorFusion();
+        fusion.correct(new Position(0, 0, 30, 350, true));
+        fusion.correct(new Position(0, 0, 30, 10, true));
+
+        //Corrected towards 10 degrees over 0, not backwards over 180
+        double rotation = fusion.getPrediction().getRotation();
+        assertTrue(rotation < 10 || rotation > 350);
+    }
+
+    @Test
+    public void testPredictionExpires(){
+        SensorFusion fusion = new SensorFusion();
+        fusion.onGyroscope(0, START);
+        fusion.correct(new Position(0, 0, 30, 0, true));
+        assertNotNull(fusion.getPrediction());
+
+        fusion.onGyroscope(0, START + 2000 * MS);
+        assertNull(fusion.getPrediction());
+    }
+}
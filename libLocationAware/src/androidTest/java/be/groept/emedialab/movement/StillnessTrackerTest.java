@@ -0,0 +1,69 @@
+package be.groept.emedialab.movement;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class StillnessTrackerTest extends TestCase {
+
+    private final List<StillnessTracker.Event> events = new ArrayList<>();
+
+    private StillnessTracker createTracker(){
+        StillnessTracker tracker = new StillnessTracker(0.75, 1000);
+        tracker.setListener(new StillnessTracker.Listener() {
+            @Override
+            public void onStillnessChanged(StillnessTracker.Event event) {
+                events.add(event);
+            }
+        });
+        return tracker;
+    }
+
+    @Test
+    public void testBecomesStillAfterDwellTime(){
+        StillnessTracker tracker = createTracker();
+        //Jitter of the detection stays well below the threshold
+        for(int time = 0; time < 900; time += 100)
+            tracker.update("a", 10 + (time % 200 == 0 ? 0.1 : -0.1), 20, true, time);
+        assertFalse(tracker.isStill("a"));
+        assertTrue(events.isEmpty());
+
+        tracker.update("a", 10, 20, true, 1000);
+        assertTrue(tracker.isStill("a"));
+        assertTrue(tracker.isAllStill());
+        assertEquals(1, events.size());
+        assertTrue(events.get(0).isStill());
+
+        //Staying still does not report again
+        tracker.update("a", 10, 20, true, 1100);
+        assertEquals(1, events.size());
+    }
+
+    @Test
+    public void testStartsMoving(){
+        StillnessTracker tracker = createTracker();
+        for(int time = 0; time <= 1000; time += 100)
+            tracker.update("a", 10, 20, true, time);
+        assertTrue(tracker.isStill("a"));
+
+        tracker.update("b", 0, 0, true, 1000);
+        assertFalse(tracker.isAllStill());
+
+        tracker.update("a", 15, 20, true, 1100);
+        assertFalse(tracker.isStill("a"));
+        assertEquals(2, events.size());
+        assertEquals("a", events.get(1).getKey());
+        assertFalse(events.get(1).isStill());
+
+        //A lost pattern counts as moving
+        for(int time = 1100; time <= 4000; time += 100)
+            tracker.update("a", 15, 20, true, time);
+        assertTrue(tracker.isStill("a"));
+        tracker.update("a", 0, 0, false, 4100);
+        assertFalse(tracker.isStill("a"));
+        assertEquals(0, tracker.getStillCount());
+    }
+}
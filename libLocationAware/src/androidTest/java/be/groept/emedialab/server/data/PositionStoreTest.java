@@ -0,0 +1,68 @@
+package be.groept.emedialab.server.data;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class PositionStoreTest extends TestCase {
+
+    @Test
+    public void testUpdateAndSnapshot(){
+        PositionStore store = new PositionStore();
+        assertEquals(0, store.add("a"));
+        assertEquals(1, store.add("b"));
+        assertEquals(0, store.add("a"));
+        assertFalse(store.update("unknown", 1, 2, 3, 4, true, 10));
+        assertTrue(store.update("b", 1, 2, 3, 4, true, 10));
+
+        PositionStore.Snapshot snapshot = store.snapshot(null);
+        assertEquals(2, snapshot.size());
+        assertEquals(1.0, snapshot.x[1]);
+        assertEquals(4.0, snapshot.rotation[1]);
+        assertTrue(snapshot.found[1]);
+        assertEquals(10, snapshot.timestamp[1]);
+
+        //Nothing changed, the same snapshot is returned as is
+        long version = snapshot.getVersion();
+        assertSame(snapshot, store.snapshot(snapshot));
+        assertEquals(version, snapshot.getVersion());
+
+        store.update("a", 5, 6, 7, 8, false, 20);
+        store.snapshot(snapshot);
+        assertEquals(5.0, snapshot.x[0]);
+        assertTrue(snapshot.getVersion() > version);
+    }
+
+    @Test
+    public void testSlotReuse(){
+        PositionStore store = new PositionStore();
+        for(int i = 0; i < 20; i++)
+            store.add("device" + i);
+        store.remove("device3");
+        assertEquals(-1, store.getSlot("device3"));
+        assertEquals(3, store.add("new"));
+
+        Position position = new Position();
+        assertTrue(store.getPosition("new", position));
+        assertFalse(position.getFoundPattern());
+    }
+
+    @Test
+    public void testRemove(){
+        PositionStore store = new PositionStore();
+        store.add("a");
+        store.add("b");
+        PositionStore.Snapshot snapshot = store.snapshot(null);
+        long version = snapshot.getVersion();
+
+        store.remove("a");
+        assertFalse(store.contains("a"));
+        assertFalse(store.update("a", 1, 2, 3, 4, true, 10));
+        //The slot of "a" is free, the one of "b" did not move
+        store.snapshot(snapshot);
+        assertTrue(snapshot.getVersion() > version);
+        assertEquals(2, snapshot.size());
+        assertNull(snapshot.addresses[0]);
+        assertEquals("b", snapshot.addresses[1]);
+    }
+}
@@ -61,4 +61,42 @@ public class PositionTest extends TestCase {
         assertEquals(90.0, position.getRotation());
     }
 
-}
\ No newline at end of file
+
+    @Test
+    public void testPhoneCoordinates(){
+        Position position = new Position(5.0, 4.0, 3.0, 90.0);
+        assertEquals(-4.0, position.getPhoneX(), 0.0001);
+        assertEquals(5.0, position.getPhoneY(), 0.0001);
+
+        //The cache is invalidated when the position changes
+        position.setRotation(0.0);
+        assertEquals(5.0, position.getPhoneX(), 0.0001);
+        position.setY(2.0);
+        assertEquals(2.0, position.getPhoneY(), 0.0001);
+        assertEquals(1.0, position.getCosRotation(), 0.0001);
+    }
+
+    @Test
+    public void testPhoneCoordinatesUnderConcurrentSetter() throws InterruptedException {
+        final Position position = new Position(5.0, 0.0, 3.0, 0.0);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for(int i = 0; i < 100000; i++)
+                    position.setRotation(i % 2 == 0 ? 90.0 : 0.0);
+                position.setRotation(90.0);
+            }
+        });
+        writer.start();
+        while(writer.isAlive()){
+            //Whichever rotation is seen, x and y of the phone belong to it
+            double phoneX = position.getPhoneX();
+            assertTrue(Math.abs(phoneX) < 0.0001 || Math.abs(phoneX - 5.0) < 0.0001);
+        }
+        writer.join();
+
+        //The cache of a rotation set during a read is not kept
+        assertEquals(0.0, position.getPhoneX(), 0.0001);
+        assertEquals(5.0, position.getPhoneY(), 0.0001);
+    }
+}
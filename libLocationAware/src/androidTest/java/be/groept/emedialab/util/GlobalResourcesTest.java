@@ -0,0 +1,65 @@
+package be.groept.emedialab.util;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import be.groept.emedialab.server.data.Position;
+
+public class GlobalResourcesTest extends TestCase {
+
+    @Test
+    public void testDevices(){
+        GlobalResources globalResources = GlobalResources.getInstance();
+        globalResources.addDevice("test-a");
+        try{
+            Map<String, Position> before = globalResources.getDevices();
+            assertFalse(before.get("test-a").getFoundPattern());
+            //Not built again when nothing changed
+            assertSame(before, globalResources.getDevices());
+
+            //A copy taken before an update does not change under its reader
+            globalResources.updateDevicePosition("test-a", 1, 2, 3, 4, true, 10);
+            Map<String, Position> after = globalResources.getDevices();
+            assertTrue(before != after);
+            assertFalse(before.get("test-a").getFoundPattern());
+            assertEquals(new Position(1, 2, 3, 4), after.get("test-a"));
+            assertEquals(10, after.get("test-a").getTimestamp());
+
+            try{
+                after.put("ownpos", new Position());
+                fail();
+            }catch(UnsupportedOperationException e){
+                //Expected
+            }
+        }finally{
+            globalResources.removeDevice("test-a");
+        }
+        assertFalse(globalResources.getDevices().containsKey("test-a"));
+        //A late update of a removed device does not bring it back
+        globalResources.updateDevicePosition("test-a", 1, 2, 3, 4, true, 20);
+        assertFalse(globalResources.getDevices().containsKey("test-a"));
+    }
+
+    @Test
+    public void testNeighbours(){
+        GlobalResources globalResources = GlobalResources.getInstance();
+        globalResources.addDevice("test-a");
+        globalResources.addDevice("test-b");
+        try{
+            //14 cm apart, but at the same place once rotated back to the coordinate system of the phones
+            globalResources.updateDevicePosition("test-a", 10, 0, 30, 0, true, 10);
+            globalResources.updateDevicePosition("test-b", 0, 10, 30, -90, true, 10);
+            assertEquals(Arrays.asList("test-b"), globalResources.getNeighbours("test-a", 5));
+
+            globalResources.updateDevicePosition("test-b", 0, 10, 30, -90, false, 20);
+            assertTrue(globalResources.getNeighbours("test-a", 5).isEmpty());
+        }finally{
+            globalResources.removeDevice("test-a");
+            globalResources.removeDevice("test-b");
+        }
+    }
+}
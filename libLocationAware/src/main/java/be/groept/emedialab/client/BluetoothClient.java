@@ -6,15 +6,13 @@ import android.content.Context;
 import android.os.AsyncTask;
 import android.util.Log;
 
-import be.groept.emedialab.communications.InputThread;
-import be.groept.emedialab.communications.OutputThread;
+import be.groept.emedialab.communications.RfcommConnection;
+import be.groept.emedialab.communications.RfcommTransport;
 import be.groept.emedialab.fragments.ClientFragment;
-import be.groept.emedialab.server.SocketInputOutputTrio;
 import be.groept.emedialab.util.ConnectionException;
 import be.groept.emedialab.util.GlobalResources;
 
 import java.io.IOException;
-import java.util.UUID;
 
 /**
  * BluetoothClient is an implementation for connections using the Bluetooth connection. Android
@@ -79,23 +77,13 @@ public class BluetoothClient extends AsyncTask<Void, String, Void> {
 
             // Get a BluetoothSocket to connect with the given BluetoothDevice
             // MY_UUID is the app's UUID string, also used by the server code
-            socket = device.createRfcommSocketToServiceRecord(UUID.fromString("fa87c0d0-afac-11de-8a39-0800200c9a66"));
+            socket = device.createRfcommSocketToServiceRecord(RfcommTransport.SERVICE_UUID);
             socket.connect();
 
             if (socket.isConnected()) {
                 Log.i(TAG, "Connection Successful.");
 
-                Log.i(TAG, "Creating ClientOutputThread");
-                OutputThread clientOutputThread = new ClientOutputThread(socket.getOutputStream());
-
-                Log.i(TAG, "Creating ClientInputThread");
-                InputThread inputThread = new InputThread(socket.getInputStream(), "");
-
-                Log.i(TAG, "Starting input and output threads.");
-                clientOutputThread.start();
-                inputThread.start();
-
-                GlobalResources.getInstance().addConnectedDevice("", new SocketInputOutputTrio(socket, null, clientOutputThread));
+                ConnectionClient.start(new RfcommConnection(socket));
 
                 isConnected = true;
             } else {
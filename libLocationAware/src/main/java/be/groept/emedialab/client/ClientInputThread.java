@@ -2,17 +2,17 @@ package be.groept.emedialab.client;
 
 import android.util.Log;
 
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
 import be.groept.emedialab.communications.DataHandler;
+import be.groept.emedialab.communications.FrameReader;
 
 public class ClientInputThread extends Thread{
 
     private static final String TAG = "ClientInputThread";
 
-    private boolean keepRunning = true;
+    private volatile boolean keepRunning = true;
     private InputStream inputStream;
 
     public InputStream getInputStream() {
@@ -26,29 +26,36 @@ public class ClientInputThread extends Thread{
 
     @Override
     public void run() {
-        DataInputStream dataInputStream = new DataInputStream(this.getInputStream());
+        FrameReader frameReader = new FrameReader(this.getInputStream());
         Log.i(TAG, "Listening for data");
 
         try {
-            while (keepRunning) {
-                while(dataInputStream.available() > 0) {
-                    Log.d(TAG, "Data available");
-                    DataHandler.readData(dataInputStream, "");
-                }
+            //Blocks until a whole frame arrived, stopRunning closes the stream to end the wait
+            while (keepRunning && frameReader.next()) {
+                DataHandler.readFrame(frameReader, "");
             }
-        } catch(Exception e) {
-            e.printStackTrace();
+        } catch(IOException e) {
+            if(keepRunning)
+                e.printStackTrace();
         }
 
         try {
-            dataInputStream.close();
+            frameReader.close();
             Log.i(TAG, "InputStream Closed.");
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Stop reading. Closes the stream, which also closes the socket it belongs to.
+     */
     public void stopRunning(){
         keepRunning = false;
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 }
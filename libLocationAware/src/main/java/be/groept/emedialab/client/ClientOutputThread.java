@@ -3,12 +3,15 @@ package be.groept.emedialab.client;
 import android.bluetooth.BluetoothAdapter;
 import android.util.Log;
 
+import be.groept.emedialab.communications.ClockSync;
 import be.groept.emedialab.communications.DataHandler;
 import be.groept.emedialab.communications.DataPacket;
+import be.groept.emedialab.communications.FrameWriter;
 import be.groept.emedialab.communications.OutputThread;
+import be.groept.emedialab.communications.Protocol;
+import be.groept.emedialab.server.SocketInputOutputTrio;
 import be.groept.emedialab.util.GlobalResources;
 
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -20,10 +23,14 @@ public class ClientOutputThread extends OutputThread {
         super(outputStream);
     }
 
+    public ClientOutputThread(OutputStream outputStream, Protocol protocol){
+        super(outputStream, protocol);
+    }
+
     @Override
     public void run() {
         try {
-            DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+            FrameWriter frameWriter = new FrameWriter(outputStream);
             Log.i(TAG, "Sending position of this device.");
 
             // Write the id of the device
@@ -35,36 +42,50 @@ public class ClientOutputThread extends OutputThread {
 
             //dataOutputStream.writeUTF(deviceAddress);
 
-            synchronized (this) {
-                //Wait for first "message" to arrive.
-                wait();
-            }
-            while (keepRunning) {
+            protocol.sendHello(frameWriter);
+            frameWriter.flush();
 
-                // Always send the coordinates
-                DataHandler.sendData(dataOutputStream, DataHandler.DATA_TYPE_COORDINATES);
+            //Wait for first "message" to arrive, or until the clock should be synchronised.
+            ClockSync clockSync = GlobalResources.getInstance().getClockSync();
+            waitForData(getTimeUntilClockSync(clockSync));
+            while (keepRunning) {
 
-                // Send all available dataPackets for the server (UUID == "")
+                // Send all available dataPackets for the server (UUID == ""), the latest coordinates first
                 DataPacket dataPacket;
                 while((dataPacket = GlobalResources.getInstance().getDataForClient("")) != null){
-                    DataHandler.sendData(dataOutputStream, dataPacket);
+                    DataHandler.sendData(frameWriter, dataPacket, protocol);
                 }
 
-                dataOutputStream.flush();
-
-                synchronized (this) {
-                    //Wait until new message has arrived.
-                    wait();
+                // Written last, so the time in the request is close to when it leaves
+                if(protocol.getVersion() >= Protocol.VERSION_CLOCK_SYNC && clockSync.isDue()){
+                    DataHandler.sendData(frameWriter, DataHandler.DATA_TYPE_TIME_REQUEST, protocol);
+                    clockSync.requestSent();
                 }
 
+                // All frames of this round in one write
+                frameWriter.flush();
+
+                //Wait until new message has arrived.
+                waitForData(getTimeUntilClockSync(clockSync));
+
             }
 
             Log.i(TAG, "Closing Connection");
-            dataOutputStream.close();
+            frameWriter.close();
             Log.i(TAG, "OutputStream closed");
         } catch (InterruptedException | IOException e) {
             e.printStackTrace();
+        } finally {
+            if(handler != null)
+                handler.sendEmptyMessage(SocketInputOutputTrio.SERVER_OUTPUT_THREAD_CLOSED);
         }
     }
 
+    /**
+     * @return Time in ms until the next time request, or until looking again whether the server supports them.
+     */
+    private long getTimeUntilClockSync(ClockSync clockSync){
+        return protocol.getVersion() >= Protocol.VERSION_CLOCK_SYNC ? clockSync.getTimeUntilDue() : ClockSync.INITIAL_INTERVAL;
+    }
+
 }
@@ -0,0 +1,72 @@
+package be.groept.emedialab.client;
+
+import android.util.Log;
+
+import java.io.IOException;
+
+import be.groept.emedialab.communications.Connection;
+import be.groept.emedialab.communications.InputThread;
+import be.groept.emedialab.communications.OutputThread;
+import be.groept.emedialab.communications.Protocol;
+import be.groept.emedialab.communications.Transport;
+import be.groept.emedialab.server.SocketInputOutputTrio;
+import be.groept.emedialab.util.GlobalResources;
+
+/**
+ * Connects this device to the server over a {@link Transport}. The server is stored under the address "".
+ */
+public class ConnectionClient {
+
+    private static final String TAG = "ConnectionClient";
+
+    private final Transport transport;
+    private Connection connection;
+
+    public ConnectionClient(Transport transport){
+        this.transport = transport;
+    }
+
+    /**
+     * Connect to the server and start the input and output threads.
+     * @param address Address of the server, its format depends on the transport.
+     */
+    public void connect(String address) throws IOException {
+        connection = transport.connect(address);
+        start(connection);
+    }
+
+    /**
+     * Start the input and output threads of a connection with the server.
+     */
+    public static void start(Connection connection) throws IOException {
+        Protocol protocol = new Protocol();
+        // The clock of another server
+        GlobalResources.getInstance().getClockSync().reset();
+
+        Log.i(TAG, "Creating ClientOutputThread");
+        OutputThread clientOutputThread = new ClientOutputThread(connection.getOutputStream(), protocol);
+
+        Log.i(TAG, "Creating ClientInputThread");
+        InputThread inputThread = new InputThread(connection.getInputStream(), "", protocol);
+
+        Log.i(TAG, "Starting input and output threads.");
+        clientOutputThread.start();
+        inputThread.start();
+
+        GlobalResources.getInstance().addConnectedDevice("", new SocketInputOutputTrio(connection, inputThread, clientOutputThread));
+    }
+
+    public Connection getConnection(){
+        return connection;
+    }
+
+    public void quit(){
+        GlobalResources.getInstance().removeConnectedDevice("");
+        try {
+            if(connection != null)
+                connection.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
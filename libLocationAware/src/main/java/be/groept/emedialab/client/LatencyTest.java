@@ -1,5 +1,10 @@
 package be.groept.emedialab.client;
 
+/**
+ * @deprecated Positions carry the time of their camera frame in the clock of the server, see
+ * {@link be.groept.emedialab.server.data.Position#getTimestamp()} and {@link be.groept.emedialab.communications.ClockSync}.
+ */
+@Deprecated
 public class LatencyTest {
     /**
      * Start time in nanoseconds.
@@ -0,0 +1,233 @@
+package be.groept.emedialab.communications;
+
+import java.util.Arrays;
+
+/**
+ * Estimates the clock of the server on a client, so the positions can be stamped with the time of their camera frame
+ * in the clock of the server.
+ *
+ * Now and then the client sends a {@link DataHandler#DATA_TYPE_TIME_REQUEST} with its time t0. The server answers with
+ * t0, the time t1 it received the request and the time t2 it sent the answer, and the client notes the time t3 the
+ * answer arrived. As in NTP, the offset of the server clock is ((t1 - t0) + (t2 - t3)) / 2 and the round-trip delay
+ * (t3 - t0) - (t2 - t1). An offset is off by at most half its delay, so the samples with the shortest delays of the
+ * last {@link #WINDOW_SIZE} are used. A straight line through their offsets gives the skew, the rate at which the two
+ * clocks drift apart.
+ *
+ * All times are in us of {@link #localTime()}.
+ */
+public class ClockSync {
+
+    /**
+     * Time in ms between the first {@link #INITIAL_SAMPLES} exchanges.
+     */
+    public static final long INITIAL_INTERVAL = 1000;
+    public static final long DEFAULT_INTERVAL = 10000;
+    public static final int INITIAL_SAMPLES = 8;
+    public static final int WINDOW_SIZE = 32;
+    /**
+     * Largest skew that is believed, 500 ppm is far beyond the tolerance of a clock crystal.
+     */
+    public static final double MAX_SKEW = 500e-6;
+    /**
+     * Time in us the samples have to span before the skew is estimated.
+     */
+    public static final long MIN_SKEW_SPAN = 30000000L;
+
+    //Samples whose delay is at most this factor of the shortest one are used, plus a margin for short delays
+    private static final double DELAY_FACTOR = 1.5;
+    private static final long DELAY_MARGIN = 1000;
+
+    private static final long BASE_NANOS = System.nanoTime();
+    private static final long BASE_MICROS = System.currentTimeMillis() * 1000;
+
+    private final long[] sampleTimes = new long[WINDOW_SIZE];
+    private final long[] offsets = new long[WINDOW_SIZE];
+    private final long[] delays = new long[WINDOW_SIZE];
+    private int sampleCount = 0;
+    private int totalSamples = 0;
+
+    private long interval = DEFAULT_INTERVAL;
+    //Time in ms of the last request, 0 before the first
+    private long lastRequest = 0;
+
+    //Offset at the reference time and the skew after that
+    private long referenceTime = 0;
+    private double offset = 0;
+    private double skew = 0;
+    private long delay = 0;
+
+    /**
+     * @return Time in us, close to the wall clock but never jumping, to be used on both sides of the exchange.
+     */
+    public static long localTime(){
+        return BASE_MICROS + (System.nanoTime() - BASE_NANOS) / 1000;
+    }
+
+    /**
+     * @return {@link #localTime()} in ms, the clock of the position timestamps on the server.
+     */
+    public static long currentTimeMillis(){
+        return localTime() / 1000;
+    }
+
+    /**
+     * @param interval Time in ms between exchanges once the first {@link #INITIAL_SAMPLES} were made.
+     */
+    public synchronized void setInterval(long interval){
+        if(interval < 1)
+            throw new IllegalArgumentException("Invalid value: " + interval);
+        this.interval = interval;
+    }
+
+    /**
+     * Forget all samples, when connecting to another server.
+     */
+    public synchronized void reset(){
+        sampleCount = 0;
+        totalSamples = 0;
+        lastRequest = 0;
+        referenceTime = 0;
+        offset = 0;
+        skew = 0;
+        delay = 0;
+    }
+
+    /**
+     * Called by the client when a request was written.
+     */
+    public synchronized void requestSent(){
+        lastRequest = System.currentTimeMillis();
+    }
+
+    /**
+     * @return Time in ms until the next request should be sent, at least 1.
+     */
+    public synchronized long getTimeUntilDue(){
+        if(lastRequest == 0)
+            return 1;
+        long current = totalSamples < INITIAL_SAMPLES ? INITIAL_INTERVAL : interval;
+        return Math.max(1, lastRequest + current - System.currentTimeMillis());
+    }
+
+    public synchronized boolean isDue(){
+        return getTimeUntilDue() <= 1;
+    }
+
+    /**
+     * Add the times of an exchange.
+     * @param t0 Request sent, client clock.
+     * @param t1 Request received, server clock.
+     * @param t2 Answer sent, server clock.
+     * @param t3 Answer received, client clock.
+     * @return False if the times are impossible and the sample was ignored.
+     */
+    public synchronized boolean addSample(long t0, long t1, long t2, long t3){
+        long sampleDelay = (t3 - t0) - (t2 - t1);
+        if(t3 < t0 || t2 < t1 || sampleDelay < 0)
+            return false;
+        int index = totalSamples % WINDOW_SIZE;
+        sampleTimes[index] = t0 + (t3 - t0) / 2;
+        offsets[index] = ((t1 - t0) + (t2 - t3)) / 2;
+        delays[index] = sampleDelay;
+        totalSamples++;
+        sampleCount = Math.min(totalSamples, WINDOW_SIZE);
+        estimate();
+        return true;
+    }
+
+    private void estimate(){
+        int best = 0;
+        for(int i = 1; i < sampleCount; i++)
+            if(delays[i] < delays[best])
+                best = i;
+        delay = delays[best];
+
+        //Least squares line through the offsets of the good samples: those close to the shortest delay, and at least
+        //the best half so the line does not follow the few lucky samples of a jittery link
+        long limit = Math.round(delays[best] * DELAY_FACTOR) + DELAY_MARGIN;
+        if(sampleCount >= 4){
+            long[] sorted = Arrays.copyOf(delays, sampleCount);
+            Arrays.sort(sorted);
+            limit = Math.max(limit, sorted[Math.max(4, sampleCount / 2) - 1]);
+        }
+        int count = 0;
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        double meanTime = 0;
+        double meanOffset = 0;
+        for(int i = 0; i < sampleCount; i++){
+            if(delays[i] > limit)
+                continue;
+            count++;
+            first = Math.min(first, sampleTimes[i]);
+            last = Math.max(last, sampleTimes[i]);
+            //Relative to the best sample, the absolute times are too large to square
+            meanTime += sampleTimes[i] - sampleTimes[best];
+            meanOffset += offsets[i] - offsets[best];
+        }
+        meanTime /= count;
+        meanOffset /= count;
+
+        if(count < 4 || last - first < MIN_SKEW_SPAN){
+            referenceTime = sampleTimes[best];
+            offset = offsets[best];
+            skew = 0;
+            return;
+        }
+        double covariance = 0;
+        double variance = 0;
+        for(int i = 0; i < sampleCount; i++){
+            if(delays[i] > limit)
+                continue;
+            double time = sampleTimes[i] - sampleTimes[best] - meanTime;
+            covariance += time * (offsets[i] - offsets[best] - meanOffset);
+            variance += time * time;
+        }
+        skew = Math.max(-MAX_SKEW, Math.min(MAX_SKEW, covariance / variance));
+        referenceTime = sampleTimes[best] + Math.round(meanTime);
+        offset = offsets[best] + meanOffset;
+    }
+
+    /**
+     * @param localTime Time in us of {@link #localTime()} on this device.
+     * @return The same moment in the clock of the server, or the given time when there are no samples yet.
+     */
+    public synchronized long toServerTime(long localTime){
+        return localTime + Math.round(offset + skew * (localTime - referenceTime));
+    }
+
+    /**
+     * @return True once an exchange was made.
+     */
+    public synchronized boolean isSynchronized(){
+        return sampleCount > 0;
+    }
+
+    /**
+     * @return Time in us the server clock is ahead of this one now.
+     */
+    public synchronized double getOffset(){
+        return offset + skew * (localTime() - referenceTime);
+    }
+
+    /**
+     * @return Rate at which the server clock runs faster than this one, 1e-6 is 1 us per second.
+     */
+    public synchronized double getSkew(){
+        return skew;
+    }
+
+    /**
+     * @return Shortest round-trip delay in us of the samples in the window, twice the largest error of the offset.
+     */
+    public synchronized long getRoundTripDelay(){
+        return delay;
+    }
+
+    /**
+     * @return Number of samples made since the last reset.
+     */
+    public synchronized int getSampleCount(){
+        return totalSamples;
+    }
+}
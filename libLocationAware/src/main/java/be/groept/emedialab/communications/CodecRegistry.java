@@ -0,0 +1,238 @@
+package be.groept.emedialab.communications;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+
+import be.groept.emedialab.server.data.Position;
+
+/**
+ * Binary codecs for the objects sent in a {@link DataHandler#DATA_TYPE_DATA_PACKET_BINARY}, keyed by a type id of one
+ * byte.
+ *
+ * Every object is written as its type id followed by whatever its codec writes. {@link DataPacket}, the boxed
+ * primitives, String and {@link Position} have a codec from the start; games register codecs for their own payloads
+ * with an id from {@link #FIRST_GAME_ID} on, before connecting, on every device. Objects of a class without a codec
+ * (subclasses included) fall back to Java serialization, without the Base64 and the 64 KB limit of the legacy
+ * {@link DataHandler#DATA_TYPE_DATA_PACKET}.
+ */
+public class CodecRegistry {
+
+    /**
+     * Writes and reads the fields of one class. The type id is handled by the registry.
+     */
+    public interface Codec<T> {
+        void write(DataOutput output, T value) throws IOException;
+        T read(DataInput input) throws IOException;
+    }
+
+    public static final int ID_NULL = 0;
+    public static final int ID_SERIALIZED = 1;
+    public static final int ID_DATA_PACKET = 2;
+    public static final int ID_INTEGER = 3;
+    public static final int ID_LONG = 4;
+    public static final int ID_DOUBLE = 5;
+    public static final int ID_BOOLEAN = 6;
+    public static final int ID_STRING = 7;
+    public static final int ID_POSITION = 8;
+    /**
+     * Ids below this one are reserved for the library.
+     */
+    public static final int FIRST_GAME_ID = 64;
+    public static final int MAX_ID = 255;
+
+    private static final CodecRegistry instance = new CodecRegistry();
+
+    public static CodecRegistry getInstance(){
+        return instance;
+    }
+
+    private static class Entry {
+        final int id;
+        final Codec<Object> codec;
+
+        Entry(int id, Codec<Object> codec){
+            this.id = id;
+            this.codec = codec;
+        }
+    }
+
+    //Replaced as a whole on every registration, so reading threads never see a half updated table
+    private volatile Entry[] byId = new Entry[MAX_ID + 1];
+    private volatile HashMap<Class<?>, Entry> byClass = new HashMap<>();
+
+    public CodecRegistry(){
+        registerBuiltIn(ID_DATA_PACKET, DataPacket.class, new Codec<DataPacket>() {
+            @Override
+            public void write(DataOutput output, DataPacket value) throws IOException {
+                output.writeInt(value.getDataType());
+                CodecRegistry.this.write(output, value.getOptionalData());
+            }
+
+            @Override
+            public DataPacket read(DataInput input) throws IOException {
+                int dataType = input.readInt();
+                return new DataPacket(dataType, CodecRegistry.this.read(input));
+            }
+        });
+        registerBuiltIn(ID_INTEGER, Integer.class, new Codec<Integer>() {
+            @Override
+            public void write(DataOutput output, Integer value) throws IOException {
+                output.writeInt(value);
+            }
+
+            @Override
+            public Integer read(DataInput input) throws IOException {
+                return input.readInt();
+            }
+        });
+        registerBuiltIn(ID_LONG, Long.class, new Codec<Long>() {
+            @Override
+            public void write(DataOutput output, Long value) throws IOException {
+                output.writeLong(value);
+            }
+
+            @Override
+            public Long read(DataInput input) throws IOException {
+                return input.readLong();
+            }
+        });
+        registerBuiltIn(ID_DOUBLE, Double.class, new Codec<Double>() {
+            @Override
+            public void write(DataOutput output, Double value) throws IOException {
+                output.writeDouble(value);
+            }
+
+            @Override
+            public Double read(DataInput input) throws IOException {
+                return input.readDouble();
+            }
+        });
+        registerBuiltIn(ID_BOOLEAN, Boolean.class, new Codec<Boolean>() {
+            @Override
+            public void write(DataOutput output, Boolean value) throws IOException {
+                output.writeBoolean(value);
+            }
+
+            @Override
+            public Boolean read(DataInput input) throws IOException {
+                return input.readBoolean();
+            }
+        });
+        registerBuiltIn(ID_STRING, String.class, new Codec<String>() {
+            @Override
+            public void write(DataOutput output, String value) throws IOException {
+                output.writeUTF(value);
+            }
+
+            @Override
+            public String read(DataInput input) throws IOException {
+                return input.readUTF();
+            }
+        });
+        registerBuiltIn(ID_POSITION, Position.class, new Codec<Position>() {
+            @Override
+            public void write(DataOutput output, Position value) throws IOException {
+                output.writeDouble(value.getX());
+                output.writeDouble(value.getY());
+                output.writeDouble(value.getZ());
+                output.writeDouble(value.getRotation());
+                output.writeBoolean(value.getFoundPattern());
+                output.writeLong(value.getTimestamp());
+            }
+
+            @Override
+            public Position read(DataInput input) throws IOException {
+                Position position = new Position(input.readDouble(), input.readDouble(), input.readDouble(), input.readDouble(), input.readBoolean());
+                position.setTimestamp(input.readLong());
+                return position;
+            }
+        });
+    }
+
+    /**
+     * Register the codec of a game payload. Both sides of a connection need the same codecs under the same ids.
+     * @param id Type id from {@link #FIRST_GAME_ID} up to {@link #MAX_ID}, not used by another class.
+     * @param type Class of the objects, only objects of exactly this class use the codec.
+     */
+    public <T extends Serializable> void register(int id, Class<T> type, Codec<T> codec){
+        if(id < FIRST_GAME_ID || id > MAX_ID)
+            throw new IllegalArgumentException("Invalid value: " + id);
+        registerBuiltIn(id, type, codec);
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized <T> void registerBuiltIn(int id, Class<T> type, Codec<T> codec){
+        Entry existing = byId[id];
+        if(existing != null && byClass.get(type) != existing)
+            throw new IllegalArgumentException("Invalid value: " + id + " is already used");
+        Entry entry = new Entry(id, (Codec<Object>) codec);
+
+        Entry[] newById = byId.clone();
+        HashMap<Class<?>, Entry> newByClass = new HashMap<>(byClass);
+        Entry previous = newByClass.put(type, entry);
+        if(previous != null)
+            newById[previous.id] = null;
+        newById[id] = entry;
+        byId = newById;
+        byClass = newByClass;
+    }
+
+    /**
+     * @return True if objects of exactly this class are written with a codec instead of Java serialization.
+     */
+    public boolean hasCodec(Class<?> type){
+        return byClass.containsKey(type);
+    }
+
+    public void write(DataOutput output, Serializable value) throws IOException {
+        if(value == null){
+            output.writeByte(ID_NULL);
+            return;
+        }
+        Entry entry = byClass.get(value.getClass());
+        if(entry != null){
+            output.writeByte(entry.id);
+            entry.codec.write(output, value);
+        }else{
+            output.writeByte(ID_SERIALIZED);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream objectOutputStream = new ObjectOutputStream(bytes);
+            objectOutputStream.writeObject(value);
+            objectOutputStream.close();
+            output.writeInt(bytes.size());
+            output.write(bytes.toByteArray());
+        }
+    }
+
+    /**
+     * @throws IOException If the type id has no codec or the data ends too soon.
+     */
+    public Serializable read(DataInput input) throws IOException {
+        int id = input.readUnsignedByte();
+        if(id == ID_NULL)
+            return null;
+        if(id == ID_SERIALIZED){
+            byte[] bytes = new byte[input.readInt()];
+            input.readFully(bytes);
+            ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            try{
+                return (Serializable) objectInputStream.readObject();
+            }catch(ClassNotFoundException e){
+                throw new IOException("Unknown serialized class", e);
+            }finally{
+                objectInputStream.close();
+            }
+        }
+        Entry entry = byId[id];
+        if(entry == null)
+            throw new IOException("No codec for type id " + id);
+        return (Serializable) entry.codec.read(input);
+    }
+}
@@ -0,0 +1,28 @@
+package be.groept.emedialab.communications;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A connection with one other device, made by a {@link Transport}.
+ * The input and output threads only need its streams, so they work the same over every transport.
+ */
+public interface Connection {
+
+    InputStream getInputStream() throws IOException;
+
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * @return Address of the other device, the key of the device in {@link be.groept.emedialab.util.GlobalResources}.
+     */
+    String getRemoteAddress();
+
+    String getRemoteName();
+
+    /**
+     * Close both streams. A thread blocked reading from the connection gets an exception or the end of the stream.
+     */
+    void close() throws IOException;
+}
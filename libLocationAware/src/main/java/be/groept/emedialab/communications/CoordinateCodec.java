@@ -0,0 +1,145 @@
+package be.groept.emedialab.communications;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import be.groept.emedialab.server.data.Position;
+
+/**
+ * Compact layout of a {@link DataHandler#DATA_TYPE_COORDINATES_COMPACT} payload.
+ *
+ * The payload starts with a byte holding the format version, followed by a varint with flags (bit 0 is set when the
+ * pattern was found) and x, y, z and the rotation as zigzag varints. The coordinates are stored in steps of 0.01 cm
+ * (0.1 mm) and the rotation in steps of 0.01 degrees, so a typical position takes about 11 bytes instead of the 33
+ * of the legacy {@link DataHandler#DATA_TYPE_COORDINATES} payload.
+ * When flag bit 1 is set, a varint with the timestamp of the position in ms follows. Readers that do not know the
+ * flag ignore it along with the rest of the frame, so it did not need a new format version.
+ */
+public class CoordinateCodec {
+
+    /**
+     * Version of the layout written by {@link #write}. Readers refuse payloads with another version.
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    /**
+     * Steps per cm of x, y and z.
+     */
+    public static final double POSITION_SCALE = 100;
+    /**
+     * Steps per degree of the rotation.
+     */
+    public static final double ROTATION_SCALE = 100;
+
+    private static final int FLAG_FOUND_PATTERN = 1;
+    private static final int FLAG_TIMESTAMP = 2;
+
+    public static void write(DataOutput output, Position position) throws IOException {
+        write(output, position.getX(), position.getY(), position.getZ(), position.getRotation(), position.getFoundPattern(), position.getTimestamp());
+    }
+
+    public static void write(DataOutput output, double x, double y, double z, double rotation, boolean foundPattern) throws IOException {
+        write(output, x, y, z, rotation, foundPattern, 0);
+    }
+
+    /**
+     * @param timestamp Time in ms, left out when 0.
+     */
+    public static void write(DataOutput output, double x, double y, double z, double rotation, boolean foundPattern, long timestamp) throws IOException {
+        output.writeByte(FORMAT_VERSION);
+        writeVarint(output, (foundPattern ? FLAG_FOUND_PATTERN : 0) | (timestamp != 0 ? FLAG_TIMESTAMP : 0));
+        writeSignedVarint(output, Math.round(x * POSITION_SCALE));
+        writeSignedVarint(output, Math.round(y * POSITION_SCALE));
+        writeSignedVarint(output, Math.round(z * POSITION_SCALE));
+        writeSignedVarint(output, Math.round(rotation * ROTATION_SCALE));
+        if(timestamp != 0)
+            writeSignedVarint(output, timestamp);
+    }
+
+    /**
+     * @throws IOException If the payload has an unknown format version or ends too soon.
+     */
+    public static Position read(DataInput input) throws IOException {
+        long flags = readFlags(input);
+        double x = readCoordinate(input);
+        double y = readCoordinate(input);
+        double z = readCoordinate(input);
+        double rotation = readRotation(input);
+        Position position = new Position(x, y, z, rotation, isFoundPattern(flags));
+        position.setTimestamp(readTimestamp(input, flags));
+        return position;
+    }
+
+    /**
+     * Read the start of the payload. Together with the other read methods, called in the order of the payload, this
+     * reads a position without creating a Position.
+     * @return The flags, for {@link #isFoundPattern(long)} and {@link #readTimestamp(DataInput, long)}.
+     * @throws IOException If the payload has an unknown format version or ends too soon.
+     */
+    public static long readFlags(DataInput input) throws IOException {
+        int version = input.readUnsignedByte();
+        if(version != FORMAT_VERSION)
+            throw new IOException("Unknown coordinate format version " + version);
+        return readVarint(input);
+    }
+
+    /**
+     * @return The next of x, y and z in cm.
+     */
+    public static double readCoordinate(DataInput input) throws IOException {
+        return readSignedVarint(input) / POSITION_SCALE;
+    }
+
+    /**
+     * @return The rotation in degrees, after z.
+     */
+    public static double readRotation(DataInput input) throws IOException {
+        return readSignedVarint(input) / ROTATION_SCALE;
+    }
+
+    public static boolean isFoundPattern(long flags){
+        return (flags & FLAG_FOUND_PATTERN) != 0;
+    }
+
+    /**
+     * @return The timestamp in ms after the rotation, 0 if the payload has none.
+     */
+    public static long readTimestamp(DataInput input, long flags) throws IOException {
+        return (flags & FLAG_TIMESTAMP) != 0 ? readSignedVarint(input) : 0;
+    }
+
+    /**
+     * Write 7 bits per byte, lowest first, with the high bit set on every byte but the last.
+     */
+    static void writeVarint(DataOutput output, long value) throws IOException {
+        while((value & ~0x7FL) != 0){
+            output.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte((int) value);
+    }
+
+    static long readVarint(DataInput input) throws IOException {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7){
+            int b = input.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Varint is too long");
+    }
+
+    /**
+     * Zigzag encoding maps small negative numbers to small positive ones: 0, -1, 1, -2, ... become 0, 1, 2, 3, ...
+     */
+    static void writeSignedVarint(DataOutput output, long value) throws IOException {
+        writeVarint(output, (value << 1) ^ (value >> 63));
+    }
+
+    static long readSignedVarint(DataInput input) throws IOException {
+        long value = readVarint(input);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -13,7 +13,6 @@ import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Map;
 
-import be.groept.emedialab.server.data.Device;
 import be.groept.emedialab.server.data.Position;
 import be.groept.emedialab.util.GlobalResources;
 
@@ -38,15 +37,60 @@ public class DataHandler {
     public static final int DATA_TYPE_DEVICE_CONNECTED = 6;
     public static final int DATA_TYPE_DEVICE_DISCONNECTED = 7;
     public static final int DATA_TYPE_OWN_POS_UPDATED = 8;
+    /**
+     * Only sent to the handler, the object is an {@link be.groept.emedialab.math.ArrangementEngine.Event}.
+     */
+    public static final int DATA_TYPE_ARRANGEMENT_CHANGED = 9;
+    /**
+     * Only sent to the handler, the object is a {@link be.groept.emedialab.movement.StillnessTracker.Event}.
+     */
+    public static final int DATA_TYPE_STILLNESS_CHANGED = 10;
+    /**
+     * Sent once by both sides right after connecting, with the highest {@link Protocol} version they support.
+     */
+    public static final int DATA_TYPE_HELLO = 11;
+    /**
+     * Coordinates in the layout of {@link CoordinateCodec}, only sent once both sides support it.
+     */
+    public static final int DATA_TYPE_COORDINATES_COMPACT = 12;
+    /**
+     * Data packet written by the {@link CodecRegistry}, only sent once both sides support it.
+     */
+    public static final int DATA_TYPE_DATA_PACKET_BINARY = 13;
+    /**
+     * Sent by a client to synchronise its {@link ClockSync}, with the time it was written.
+     */
+    public static final int DATA_TYPE_TIME_REQUEST = 14;
+    /**
+     * Answer of the server to a {@link #DATA_TYPE_TIME_REQUEST}: the time of the request, the time it arrived and the
+     * time the answer was written.
+     */
+    public static final int DATA_TYPE_TIME_RESPONSE = 15;
+    /**
+     * Only sent to the handler, the object is a {@link be.groept.emedialab.server.data.Position} of this device
+     * predicted by the sensors between two camera frames. It is never sent to the other devices.
+     */
+    public static final int DATA_TYPE_OWN_POS_PREDICTED = 16;
+
+    /**
+     * Handles the frame that was just read, ignoring a hello of the other side.
+     * @see #readFrame(FrameReader, String, Protocol)
+     */
+    public static void readFrame(FrameReader frameReader, String deviceAddress){
+        readFrame(frameReader, deviceAddress, null);
+    }
 
     /**
-     * Reads in data from the provided DataInputStream and handles it
-     * @param dataInputStream The stream that needs to be read
+     * Handles the frame that was just read. Each frame holds one message, so a message that can not be read
+     * does not affect the ones after it.
+     * @param frameReader Reader positioned at the frame that needs to be handled
      * @param deviceAddress The device address, needed for handling the provided data
+     * @param protocol Protocol of the connection, told about the hello of the other side. Can be null.
      */
-    public static void readData(DataInputStream dataInputStream, String deviceAddress){
+    public static void readFrame(FrameReader frameReader, String deviceAddress, Protocol protocol){
         try{
-            int dataType = dataInputStream.readInt();
+            int dataType = frameReader.getType();
+            DataInputStream dataInputStream = frameReader.getPayloadStream();
             Log.d(TAG, "Read in DataType: " + dataType);
             switch(dataType){
 
@@ -56,16 +100,51 @@ public class DataHandler {
                     double z = dataInputStream.readDouble();
                     double rotation = dataInputStream.readDouble();
                     boolean foundPattern = dataInputStream.readBoolean();
-                    Position pos = new Position(x, y, z, rotation);
-                    pos.setFoundPattern(foundPattern);
-                    GlobalResources.getInstance().updateDevicePosition(deviceAddress, pos);
+                    GlobalResources.getInstance().updateDevicePosition(deviceAddress, x, y, z, rotation, foundPattern);
                     Log.d(TAG, "Read in data type coordinates: x[" + x + "] y[" + y + "] z[" + z + "] rot[" + rotation + "] + found[" + foundPattern + "] for device " + deviceAddress);
                     break;
 
+                case DataHandler.DATA_TYPE_COORDINATES_COMPACT:
+                    long flags = CoordinateCodec.readFlags(dataInputStream);
+                    double compactX = CoordinateCodec.readCoordinate(dataInputStream);
+                    double compactY = CoordinateCodec.readCoordinate(dataInputStream);
+                    double compactZ = CoordinateCodec.readCoordinate(dataInputStream);
+                    double compactRotation = CoordinateCodec.readRotation(dataInputStream);
+                    long timestamp = CoordinateCodec.readTimestamp(dataInputStream, flags);
+                    //Positions without a timestamp get the time they arrived
+                    if(timestamp == 0)
+                        timestamp = ClockSync.currentTimeMillis();
+                    GlobalResources.getInstance().updateDevicePosition(deviceAddress, compactX, compactY, compactZ, compactRotation, CoordinateCodec.isFoundPattern(flags), timestamp);
+                    Log.d(TAG, "Read in data type compact coordinates: x[" + compactX + "] y[" + compactY + "] z[" + compactZ + "] rot[" + compactRotation + "] for device " + deviceAddress);
+                    break;
+
+                case DataHandler.DATA_TYPE_HELLO:
+                    if(protocol != null)
+                        protocol.onHello(dataInputStream.readInt());
+                    break;
+
+                case DataHandler.DATA_TYPE_TIME_REQUEST:
+                    long received = ClockSync.localTime();
+                    GlobalResources.getInstance().sendData(deviceAddress, DataHandler.DATA_TYPE_TIME_RESPONSE, new long[]{dataInputStream.readLong(), received});
+                    break;
+
+                case DataHandler.DATA_TYPE_TIME_RESPONSE:
+                    long requested = dataInputStream.readLong();
+                    long requestReceived = dataInputStream.readLong();
+                    long responded = dataInputStream.readLong();
+                    GlobalResources.getInstance().getClockSync().addSample(requested, requestReceived, responded, ClockSync.localTime());
+                    break;
+
                 case DataHandler.DATA_TYPE_DATA_PACKET:
-                    String serializedObject = dataInputStream.readUTF();
-                    GlobalResources.getInstance().writeDataToInputBuffer(serializableFromString(serializedObject));
-                    Log.d(TAG, "Read in dataPacket: " + serializableFromString(serializedObject).toString());
+                    Serializable serializable = serializableFromString(dataInputStream.readUTF());
+                    Log.d(TAG, "Read in dataPacket: " + serializable);
+                    GlobalResources.getInstance().writeDataToInputBuffer(serializable);
+                    break;
+
+                case DataHandler.DATA_TYPE_DATA_PACKET_BINARY:
+                    Serializable decoded = CodecRegistry.getInstance().read(dataInputStream);
+                    Log.d(TAG, "Read in binary dataPacket: " + decoded);
+                    GlobalResources.getInstance().writeDataToInputBuffer(decoded);
                     break;
 
                 default:
@@ -79,49 +158,100 @@ public class DataHandler {
     }
 
     /**
-     * Sends an empty DataPacket to the provided DataOutputStream
-     * @param dataOutputStream Stream to write to
+     * Adds an empty DataPacket to the provided FrameWriter
+     * @param frameWriter Writer of the connection
      * @param dataType Type of data that needs to be sent
      */
-    public static void sendData(DataOutputStream dataOutputStream, int dataType){
-        sendData(dataOutputStream, new DataPacket(dataType, null));
+    public static void sendData(FrameWriter frameWriter, int dataType){
+        sendData(frameWriter, new DataPacket(dataType, null));
+    }
+
+    /**
+     * @see #sendData(FrameWriter, DataPacket, Protocol)
+     */
+    public static void sendData(FrameWriter frameWriter, int dataType, Protocol protocol){
+        sendData(frameWriter, new DataPacket(dataType, null), protocol);
+    }
+
+    /**
+     * Adds the DataPacket in the legacy layout.
+     * @see #sendData(FrameWriter, DataPacket, Protocol)
+     */
+    public static void sendData(FrameWriter frameWriter, DataPacket dataPacket){
+        sendData(frameWriter, dataPacket, null);
     }
 
     /**
-     * Given a DataPacket sends certain values to the provided DataOutputStream.
-     * @param dataOutputStream Stream to which it needs to be written
+     * Given a DataPacket adds a frame with certain values to the provided FrameWriter.
+     * Nothing is sent until the writer is flushed, so several packets go out in one write.
+     * @param frameWriter Writer of the connection
      * @param dataPacket Packet with the DataType that needs to be sent
+     * @param protocol Protocol of the connection, decides the layout of the coordinates. Null for the legacy layout.
      */
-    public static void sendData(DataOutputStream dataOutputStream, DataPacket dataPacket){
+    public static void sendData(FrameWriter frameWriter, DataPacket dataPacket, Protocol protocol){
         try{
-            // Always write the DataType int
-            dataOutputStream.writeInt(dataPacket.getDataType());
+            int dataType = dataPacket.getDataType();
+            if(dataType == DataHandler.DATA_TYPE_COORDINATES && protocol != null && protocol.getVersion() >= Protocol.VERSION_COMPACT_COORDINATES)
+                dataType = DataHandler.DATA_TYPE_COORDINATES_COMPACT;
+            else if(dataType == DataHandler.DATA_TYPE_DATA_PACKET && protocol != null && protocol.getVersion() >= Protocol.VERSION_CLOCK_SYNC)
+                dataType = DataHandler.DATA_TYPE_DATA_PACKET_BINARY;
+            Log.d(TAG, "Sending dataType " + dataType);
 
-            Log.d(TAG, "Sending dataType " + dataPacket.getDataType());
+            // Coordinates carry the position they were queued with, otherwise the current one is sent
+            Position position = dataPacket.getOptionalData() instanceof Position ? (Position) dataPacket.getOptionalData() : null;
+            if(position == null && (dataType == DataHandler.DATA_TYPE_COORDINATES || dataType == DataHandler.DATA_TYPE_COORDINATES_COMPACT))
+                position = GlobalResources.getInstance().getDevice().getPosition();
 
             // In certain cases, also write some additional data
-            switch (dataPacket.getDataType()) {
+            DataOutputStream payloadOutputStream = frameWriter.beginFrame(dataType);
+            try{
+                switch (dataType) {
 
-                case DataHandler.DATA_TYPE_DATA_PACKET:
-                    Log.d(TAG, "Sending data packet!");
-                    dataOutputStream.writeUTF(serializableToString(dataPacket.getOptionalData()));
-                    dataOutputStream.flush();
-                    break;
+                    case DataHandler.DATA_TYPE_DATA_PACKET:
+                        Log.d(TAG, "Sending data packet!");
+                        payloadOutputStream.writeUTF(serializableToString(dataPacket.getOptionalData()));
+                        break;
 
-                case DataHandler.DATA_TYPE_COORDINATES:
-                    Device device = GlobalResources.getInstance().getDevice();
-                    Log.d(TAG, "Sending coordinates x[" + device.getPosition().getX() + "] y[" + device.getPosition().getY() + "] z[" + device.getPosition().getZ() + "] rot[" + device.getPosition().getRotation() + "] found[" + device.getPosition().getFoundPattern() + "]");
-                    dataOutputStream.writeDouble(device.getPosition().getX());
-                    dataOutputStream.writeDouble(device.getPosition().getY());
-                    dataOutputStream.writeDouble(device.getPosition().getZ());
-                    dataOutputStream.writeDouble(device.getPosition().getRotation());
-                    dataOutputStream.writeBoolean(device.getPosition().getFoundPattern());
-                    break;
+                    case DataHandler.DATA_TYPE_DATA_PACKET_BINARY:
+                        CodecRegistry.getInstance().write(payloadOutputStream, dataPacket.getOptionalData());
+                        break;
 
-                default:
-                    break;
+                    case DataHandler.DATA_TYPE_COORDINATES:
+                        Log.d(TAG, "Sending coordinates x[" + position.getX() + "] y[" + position.getY() + "] z[" + position.getZ() + "] rot[" + position.getRotation() + "] found[" + position.getFoundPattern() + "]");
+                        payloadOutputStream.writeDouble(position.getX());
+                        payloadOutputStream.writeDouble(position.getY());
+                        payloadOutputStream.writeDouble(position.getZ());
+                        payloadOutputStream.writeDouble(position.getRotation());
+                        payloadOutputStream.writeBoolean(position.getFoundPattern());
+                        break;
+
+                    case DataHandler.DATA_TYPE_COORDINATES_COMPACT:
+                        Log.d(TAG, "Sending compact coordinates " + position);
+                        CoordinateCodec.write(payloadOutputStream, position);
+                        break;
+
+                    // Stamped as late as possible, right before the frame is flushed
+                    case DataHandler.DATA_TYPE_TIME_REQUEST:
+                        payloadOutputStream.writeLong(ClockSync.localTime());
+                        break;
+
+                    case DataHandler.DATA_TYPE_TIME_RESPONSE:
+                        long[] times = (long[]) dataPacket.getOptionalData();
+                        payloadOutputStream.writeLong(times[0]);
+                        payloadOutputStream.writeLong(times[1]);
+                        payloadOutputStream.writeLong(ClockSync.localTime());
+                        break;
+
+                    default:
+                        break;
 
+                }
+            }catch(Exception e){
+                // Leave out the half written frame, the other frames are still sent
+                frameWriter.cancelFrame();
+                throw e;
             }
+            frameWriter.endFrame();
         }catch(Exception e){
             e.printStackTrace();
         }
@@ -10,8 +10,19 @@ import java.io.Serializable;
  */
 public class DataPacket implements Serializable {
 
+    /**
+     * Lifecycle and game messages, sent before bulk packets.
+     */
+    public static final int PRIORITY_CONTROL = 0;
+    /**
+     * Streams like positions, sent when no control packets are waiting and now and then in between them.
+     */
+    public static final int PRIORITY_BULK = 1;
+
     private int dataType;
     private Serializable optionalData;
+    //Only used by the sending side, transient so the serialized form stays the same
+    private transient int priority;
 
     public DataPacket(int dataType){
         this(dataType, null);
@@ -22,8 +33,18 @@ public class DataPacket implements Serializable {
     }
 
     public DataPacket(int dataType, Serializable optionalData){
+        this(dataType, optionalData, dataType == DataHandler.DATA_TYPE_COORDINATES ? PRIORITY_BULK : PRIORITY_CONTROL);
+    }
+
+    /**
+     * @param priority {@link #PRIORITY_CONTROL} or {@link #PRIORITY_BULK}.
+     */
+    public DataPacket(int dataType, Serializable optionalData, int priority){
+        if(priority != PRIORITY_CONTROL && priority != PRIORITY_BULK)
+            throw new IllegalArgumentException("Invalid value: " + priority);
         this.dataType = dataType;
         this.optionalData = optionalData;
+        this.priority = priority;
     }
 
     /**
@@ -42,4 +63,12 @@ public class DataPacket implements Serializable {
         return optionalData;
     }
 
+    /**
+     * Getter for priority
+     * @return the lane the packet is sent in, {@link #PRIORITY_CONTROL} after deserialization
+     */
+    public int getPriority(){
+        return priority;
+    }
+
 }
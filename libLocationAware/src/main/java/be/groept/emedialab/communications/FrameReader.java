@@ -0,0 +1,131 @@
+package be.groept.emedialab.communications;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the frames of a connection: an int with the data type, an int with the length of the payload and the payload.
+ *
+ * {@link #next()} blocks until a whole frame arrived, so a reading thread does not use any CPU while the connection
+ * is idle. Closing the stream (or the socket) from another thread ends the wait.
+ * The payload is kept in a buffer that is reused for the next frame.
+ */
+public class FrameReader {
+
+    /**
+     * Size in bytes of the type and the length in front of every payload.
+     */
+    public static final int HEADER_LENGTH = 8;
+
+    /**
+     * Frames with a longer payload are treated as a broken connection.
+     */
+    public static final int MAX_PAYLOAD_LENGTH = 1 << 20;
+
+    private final InputStream inputStream;
+    private final DataInputStream dataInputStream;
+    private byte[] payload = new byte[256];
+    private int type = -1;
+    private int length = 0;
+
+    private final PayloadInputStream payloadInputStream = new PayloadInputStream();
+    private final DataInputStream payloadDataInputStream = new DataInputStream(payloadInputStream);
+
+    public FrameReader(InputStream inputStream){
+        this.inputStream = inputStream;
+        this.dataInputStream = new DataInputStream(inputStream);
+    }
+
+    /**
+     * Wait for the next frame and read it completely.
+     * @return False if the stream ended between two frames.
+     * @throws EOFException If the stream ended in the middle of a frame.
+     * @throws IOException If the stream was closed or broke, or the frame is too long.
+     */
+    public boolean next() throws IOException {
+        //Only the first byte may hit the end of the stream, anything after it is a broken frame
+        int first = inputStream.read();
+        if(first < 0)
+            return false;
+        type = (first << 24) | (dataInputStream.readUnsignedByte() << 16) | (dataInputStream.readUnsignedShort());
+        length = dataInputStream.readInt();
+        if(length < 0 || length > MAX_PAYLOAD_LENGTH)
+            throw new IOException("Invalid frame length " + length + " for data type " + type);
+
+        if(payload.length < length)
+            payload = new byte[Math.max(length, payload.length * 2)];
+        dataInputStream.readFully(payload, 0, length);
+        payloadInputStream.reset(payload, length);
+        return true;
+    }
+
+    /**
+     * @return The data type of the current frame.
+     */
+    public int getType(){
+        return type;
+    }
+
+    /**
+     * @return Length in bytes of the payload of the current frame.
+     */
+    public int getLength(){
+        return length;
+    }
+
+    /**
+     * @return Buffer with the payload of the current frame in its first {@link #getLength()} bytes.
+     * Overwritten by the next frame.
+     */
+    public byte[] getPayload(){
+        return payload;
+    }
+
+    /**
+     * @return Stream over the payload of the current frame, positioned at its start. Reused for every frame.
+     */
+    public DataInputStream getPayloadStream(){
+        return payloadDataInputStream;
+    }
+
+    public void close() throws IOException {
+        inputStream.close();
+    }
+
+    /**
+     * Stream over the payload buffer that can be pointed at the next frame without creating a new stream.
+     */
+    private static class PayloadInputStream extends InputStream {
+        private byte[] buffer;
+        private int position;
+        private int limit;
+
+        void reset(byte[] buffer, int limit){
+            this.buffer = buffer;
+            this.position = 0;
+            this.limit = limit;
+        }
+
+        @Override
+        public int read(){
+            return position < limit ? buffer[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] destination, int offset, int count){
+            if(position >= limit)
+                return -1;
+            int read = Math.min(count, limit - position);
+            System.arraycopy(buffer, position, destination, offset, read);
+            position += read;
+            return read;
+        }
+
+        @Override
+        public int available(){
+            return limit - position;
+        }
+    }
+}
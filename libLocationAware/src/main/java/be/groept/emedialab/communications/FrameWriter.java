@@ -0,0 +1,166 @@
+package be.groept.emedialab.communications;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes frames in the layout read by {@link FrameReader}: an int with the data type, an int with the length of the
+ * payload and the payload.
+ *
+ * Frames are assembled in a buffer that is reused, and {@link #flush()} hands all of them to the stream in a single
+ * write, so several messages share one RFCOMM packet. A frame is written either by filling the stream returned by
+ * {@link #beginFrame(int)} and calling {@link #endFrame()}, or at once with {@link #writeFrame(int, byte[], int, int)},
+ * which lets a payload that was just read be passed on without decoding it.
+ * Not thread safe, every connection has one writing thread.
+ */
+public class FrameWriter {
+
+    private final OutputStream outputStream;
+    private final BufferOutputStream buffer = new BufferOutputStream();
+    private final DataOutputStream dataOutputStream = new DataOutputStream(buffer);
+    //Start of the header of the frame being written, -1 between frames
+    private int frameStart = -1;
+
+    public FrameWriter(OutputStream outputStream){
+        this.outputStream = outputStream;
+    }
+
+    /**
+     * Start a frame. The payload is written to the returned stream, which is reused for every frame.
+     * @throws IllegalStateException If the previous frame was not ended.
+     */
+    public DataOutputStream beginFrame(int dataType) throws IOException {
+        if(frameStart >= 0)
+            throw new IllegalStateException("Frame of type " + buffer.getInt(frameStart) + " was not ended");
+        frameStart = buffer.size();
+        dataOutputStream.writeInt(dataType);
+        //Filled in by endFrame
+        dataOutputStream.writeInt(0);
+        return dataOutputStream;
+    }
+
+    /**
+     * Fill in the length of the frame started by {@link #beginFrame(int)}.
+     * @throws IOException If the payload is too long, the frame is dropped.
+     */
+    public void endFrame() throws IOException {
+        if(frameStart < 0)
+            throw new IllegalStateException("No frame was started");
+        int length = buffer.size() - frameStart - FrameReader.HEADER_LENGTH;
+        int start = frameStart;
+        frameStart = -1;
+        if(length > FrameReader.MAX_PAYLOAD_LENGTH){
+            int dataType = buffer.getInt(start);
+            buffer.truncate(start);
+            throw new IOException("Payload of " + length + " bytes is too long for data type " + dataType);
+        }
+        buffer.putInt(start + 4, length);
+    }
+
+    /**
+     * Drop the frame started by {@link #beginFrame(int)}, for example when writing its payload failed.
+     */
+    public void cancelFrame(){
+        if(frameStart >= 0){
+            buffer.truncate(frameStart);
+            frameStart = -1;
+        }
+    }
+
+    /**
+     * Add a whole frame with the given payload.
+     */
+    public void writeFrame(int dataType, byte[] payload, int offset, int length) throws IOException {
+        if(length < 0 || length > FrameReader.MAX_PAYLOAD_LENGTH)
+            throw new IOException("Invalid frame length " + length + " for data type " + dataType);
+        beginFrame(dataType);
+        dataOutputStream.write(payload, offset, length);
+        endFrame();
+    }
+
+    /**
+     * @return Number of bytes waiting for {@link #flush()}.
+     */
+    public int getPendingLength(){
+        return buffer.size();
+    }
+
+    /**
+     * Write all ended frames to the stream at once and flush it.
+     */
+    public void flush() throws IOException {
+        int end = frameStart < 0 ? buffer.size() : frameStart;
+        if(end > 0){
+            outputStream.write(buffer.getBuffer(), 0, end);
+            buffer.discard(end);
+            if(frameStart >= 0)
+                frameStart = 0;
+        }
+        outputStream.flush();
+    }
+
+    public void close() throws IOException {
+        outputStream.close();
+    }
+
+    /**
+     * Growing byte buffer that allows overwriting the length of a frame after its payload was written.
+     */
+    private static class BufferOutputStream extends OutputStream {
+        private byte[] bytes = new byte[1024];
+        private int size = 0;
+
+        private void ensureCapacity(int capacity){
+            if(capacity > bytes.length){
+                byte[] grown = new byte[Math.max(capacity, bytes.length * 2)];
+                System.arraycopy(bytes, 0, grown, 0, size);
+                bytes = grown;
+            }
+        }
+
+        @Override
+        public void write(int b){
+            ensureCapacity(size + 1);
+            bytes[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] source, int offset, int length){
+            ensureCapacity(size + length);
+            System.arraycopy(source, offset, bytes, size, length);
+            size += length;
+        }
+
+        int size(){
+            return size;
+        }
+
+        byte[] getBuffer(){
+            return bytes;
+        }
+
+        int getInt(int position){
+            return (bytes[position] << 24) | ((bytes[position + 1] & 0xFF) << 16) | ((bytes[position + 2] & 0xFF) << 8) | (bytes[position + 3] & 0xFF);
+        }
+
+        void putInt(int position, int value){
+            bytes[position] = (byte) (value >>> 24);
+            bytes[position + 1] = (byte) (value >>> 16);
+            bytes[position + 2] = (byte) (value >>> 8);
+            bytes[position + 3] = (byte) value;
+        }
+
+        void truncate(int newSize){
+            size = newSize;
+        }
+
+        /**
+         * Remove the first bytes, keeping the ones after them.
+         */
+        void discard(int count){
+            System.arraycopy(bytes, count, bytes, 0, size - count);
+            size -= count;
+        }
+    }
+}
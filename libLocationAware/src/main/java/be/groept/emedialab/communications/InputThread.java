@@ -4,7 +4,6 @@ package be.groept.emedialab.communications;
 import android.os.Handler;
 import android.util.Log;
 
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -16,32 +15,40 @@ public class InputThread extends Thread {
 
     protected InputStream inputStream;
     protected String deviceAddress;
+    protected final Protocol protocol;
     protected volatile boolean running = true;
     protected Handler mHandler = null;
 
     public InputThread(InputStream inputStream, String deviceAddress){
+        this(inputStream, deviceAddress, new Protocol());
+    }
+
+    /**
+     * @param protocol Protocol of the connection, shared with the output thread of the same connection.
+     */
+    public InputThread(InputStream inputStream, String deviceAddress, Protocol protocol){
         this.inputStream = inputStream;
         this.deviceAddress = deviceAddress;
+        this.protocol = protocol;
     }
 
     @Override
     public void run() {
-        DataInputStream dataInputStream = new DataInputStream(inputStream);
+        FrameReader frameReader = new FrameReader(inputStream);
         Log.i(TAG, "Listening for data");
 
         try {
-            while (running) {
-                while(dataInputStream.available() > 0) {
-                    Log.d(TAG, "Data available");
-                    DataHandler.readData(dataInputStream, deviceAddress);
-                }
+            //Blocks until a whole frame arrived, stopRunning closes the stream to end the wait
+            while (running && frameReader.next()) {
+                DataHandler.readFrame(frameReader, deviceAddress, protocol);
             }
-        } catch(Exception e) {
-            e.printStackTrace();
+        } catch(IOException e) {
+            if(running)
+                e.printStackTrace();
         }
 
         try {
-            dataInputStream.close();
+            frameReader.close();
             Log.i(TAG, "[Closed]");
         } catch (IOException e) {
             e.printStackTrace();
@@ -57,8 +64,16 @@ public class InputThread extends Thread {
         stopRunning();
     }
 
+    /**
+     * Stop reading. Closes the stream, which also closes the socket it belongs to.
+     */
     public void stopRunning(){
         running = false;
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
 }
@@ -0,0 +1,172 @@
+package be.groept.emedialab.communications;
+
+import java.util.Random;
+
+/**
+ * Conditions of a simulated link, used by {@link SimulatedTransport}: the delay of every write, the bandwidth, stalls
+ * of the whole link and the size of the send buffer. The default is a link without any delay.
+ */
+public class LinkConditions {
+
+    /**
+     * Every write takes exactly the latency.
+     */
+    public static final int DISTRIBUTION_CONSTANT = 0;
+    /**
+     * Latency plus or minus at most the jitter.
+     */
+    public static final int DISTRIBUTION_UNIFORM = 1;
+    /**
+     * Normal distribution around the latency with the jitter as standard deviation, never below 0.
+     */
+    public static final int DISTRIBUTION_NORMAL = 2;
+    /**
+     * Latency plus an exponential delay with the jitter as mean: mostly fast, with a long tail.
+     */
+    public static final int DISTRIBUTION_EXPONENTIAL = 3;
+
+    private double latency = 0;
+    private double jitter = 0;
+    private int distribution = DISTRIBUTION_CONSTANT;
+    private long bandwidth = 0;
+    private double stallProbability = 0;
+    private double stallDuration = 0;
+    private int bufferSize = 0;
+    private long seed = 0;
+
+    /**
+     * Roughly the Bluetooth link between the phones measured in the README: 55 ms on average in one direction,
+     * round-trips from 20 up to 200 ms, and now and then a stall while the Bluetooth thread is not allowed to run.
+     */
+    public static LinkConditions bluetooth(){
+        LinkConditions conditions = new LinkConditions();
+        conditions.setLatency(10, 45, DISTRIBUTION_EXPONENTIAL);
+        conditions.setBandwidth(100 * 1024);
+        conditions.setStalls(0.01, 150);
+        conditions.setBufferSize(8 * 1024);
+        return conditions;
+    }
+
+    /**
+     * @param latency Delay in ms of a write.
+     * @param jitter Variation of the delay in ms, its meaning depends on the distribution.
+     * @param distribution One of the DISTRIBUTION_ constants.
+     */
+    public void setLatency(double latency, double jitter, int distribution){
+        if(latency < 0)
+            throw new IllegalArgumentException("Invalid value: " + latency);
+        if(jitter < 0)
+            throw new IllegalArgumentException("Invalid value: " + jitter);
+        if(distribution < DISTRIBUTION_CONSTANT || distribution > DISTRIBUTION_EXPONENTIAL)
+            throw new IllegalArgumentException("Invalid value: " + distribution);
+        this.latency = latency;
+        this.jitter = jitter;
+        this.distribution = distribution;
+    }
+
+    /**
+     * @param bandwidth Bytes per second the link can send, 0 for no limit.
+     */
+    public void setBandwidth(long bandwidth){
+        if(bandwidth < 0)
+            throw new IllegalArgumentException("Invalid value: " + bandwidth);
+        this.bandwidth = bandwidth;
+    }
+
+    /**
+     * @param probability Chance that the link stalls before a write, between 0 and 1.
+     * @param duration Time in ms nothing gets through during a stall, the writes after it wait as well.
+     */
+    public void setStalls(double probability, double duration){
+        if(probability < 0 || probability > 1)
+            throw new IllegalArgumentException("Invalid value: " + probability);
+        if(duration < 0)
+            throw new IllegalArgumentException("Invalid value: " + duration);
+        this.stallProbability = probability;
+        this.stallDuration = duration;
+    }
+
+    /**
+     * @param bufferSize Number of bytes that can be on their way before a write waits, 0 for no limit.
+     */
+    public void setBufferSize(int bufferSize){
+        if(bufferSize < 0)
+            throw new IllegalArgumentException("Invalid value: " + bufferSize);
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @param seed Seed of the random delays, 0 for different delays on every run.
+     */
+    public void setSeed(long seed){
+        this.seed = seed;
+    }
+
+    public double getLatency(){
+        return latency;
+    }
+
+    public double getJitter(){
+        return jitter;
+    }
+
+    public int getDistribution(){
+        return distribution;
+    }
+
+    public long getBandwidth(){
+        return bandwidth;
+    }
+
+    public double getStallProbability(){
+        return stallProbability;
+    }
+
+    public double getStallDuration(){
+        return stallDuration;
+    }
+
+    public int getBufferSize(){
+        return bufferSize;
+    }
+
+    public long getSeed(){
+        return seed;
+    }
+
+    /**
+     * @return A delay in ns drawn from the distribution.
+     */
+    long sampleDelay(Random random){
+        double delay;
+        switch(distribution){
+            case DISTRIBUTION_UNIFORM:
+                delay = latency + (random.nextDouble() * 2 - 1) * jitter;
+                break;
+            case DISTRIBUTION_NORMAL:
+                delay = latency + random.nextGaussian() * jitter;
+                break;
+            case DISTRIBUTION_EXPONENTIAL:
+                delay = latency - Math.log(1 - random.nextDouble()) * jitter;
+                break;
+            default:
+                delay = latency;
+                break;
+        }
+        return Math.round(Math.max(0, delay) * 1000000);
+    }
+
+    /**
+     * @return Time in ns the link needs to send the given number of bytes.
+     */
+    long transmissionTime(int length){
+        return bandwidth == 0 ? 0 : length * 1000000000L / bandwidth;
+    }
+
+    /**
+     * @return Time in ns the link stalls before the next write, usually 0.
+     */
+    long sampleStall(Random random){
+        return stallProbability > 0 && random.nextDouble() < stallProbability ? Math.round(stallDuration * 1000000) : 0;
+    }
+}
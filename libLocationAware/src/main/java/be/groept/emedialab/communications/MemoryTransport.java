@@ -0,0 +1,236 @@
+package be.groept.emedialab.communications;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connections through pipes within one process, to run the whole protocol without Bluetooth or a network, in tests
+ * and benchmarks on the JVM.
+ *
+ * A transport is one listening device. Others connect with its name as address and are given the addresses
+ * "memory-1", "memory-2", ... on the accepting side. Every direction of a connection is a bounded pipe: a writer waits
+ * while the pipe is full, like a socket whose send buffer is full.
+ */
+public class MemoryTransport implements Transport {
+
+    public static final int DEFAULT_PIPE_SIZE = 64 * 1024;
+
+    private static final String ADDRESS_PREFIX = "memory-";
+
+    //Marks the end of the queue when the transport is closed
+    private static final MemoryConnection CLOSED = new MemoryConnection(null, null, null);
+
+    private final String name;
+    private final int pipeSize;
+    private final BlockingQueue<MemoryConnection> pending = new LinkedBlockingQueue<>();
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    public MemoryTransport(String name){
+        this(name, DEFAULT_PIPE_SIZE);
+    }
+
+    /**
+     * @param pipeSize Number of bytes that can be written in each direction before the reader takes them.
+     */
+    public MemoryTransport(String name, int pipeSize){
+        if(pipeSize < 1)
+            throw new IllegalArgumentException("Invalid value: " + pipeSize);
+        this.name = name;
+        this.pipeSize = pipeSize;
+    }
+
+    public String getName(){
+        return name;
+    }
+
+    @Override
+    public Connection accept() throws IOException {
+        try{
+            MemoryConnection connection = pending.take();
+            if(connection == CLOSED){
+                pending.offer(CLOSED);
+                throw new IOException("Transport " + name + " is closed");
+            }
+            return connection;
+        }catch(InterruptedException e){
+            throw new InterruptedIOException("Interrupted while accepting on " + name);
+        }
+    }
+
+    /**
+     * @param address Name of this transport.
+     */
+    @Override
+    public Connection connect(String address) throws IOException {
+        if(!name.equals(address))
+            throw new IOException("No transport listening on " + address);
+        if(closed)
+            throw new IOException("Transport " + name + " is closed");
+        Pipe toServer = new Pipe(pipeSize);
+        Pipe toClient = new Pipe(pipeSize);
+        pending.offer(new MemoryConnection(ADDRESS_PREFIX + connectionCount.incrementAndGet(), toServer, toClient));
+        return new MemoryConnection(name, toClient, toServer);
+    }
+
+    @Override
+    public void close(){
+        closed = true;
+        pending.offer(CLOSED);
+    }
+
+    private static class MemoryConnection implements Connection {
+        private final String remoteAddress;
+        private final Pipe in;
+        private final Pipe out;
+
+        MemoryConnection(String remoteAddress, Pipe in, Pipe out){
+            this.remoteAddress = remoteAddress;
+            this.in = in;
+            this.out = out;
+        }
+
+        @Override
+        public InputStream getInputStream(){
+            return in.inputStream;
+        }
+
+        @Override
+        public OutputStream getOutputStream(){
+            return out.outputStream;
+        }
+
+        @Override
+        public String getRemoteAddress(){
+            return remoteAddress;
+        }
+
+        @Override
+        public String getRemoteName(){
+            return remoteAddress;
+        }
+
+        @Override
+        public void close(){
+            in.close();
+            out.close();
+        }
+    }
+
+    /**
+     * Ring buffer with one writing and one reading side. Once closed, the reader gets the bytes that are left and then
+     * the end of the stream, and the writer gets an exception.
+     */
+    private static class Pipe {
+        private final byte[] buffer;
+        private int readPosition = 0;
+        private int count = 0;
+        private boolean closed = false;
+
+        Pipe(int size){
+            this.buffer = new byte[size];
+        }
+
+        synchronized int read(byte[] destination, int offset, int length) throws IOException {
+            if(length == 0)
+                return 0;
+            try{
+                while(count == 0 && !closed)
+                    wait();
+            }catch(InterruptedException e){
+                throw new InterruptedIOException();
+            }
+            if(count == 0)
+                return -1;
+            int read = 0;
+            //At most two copies when the bytes wrap around the end of the buffer
+            while(read < length && count > 0){
+                int chunk = Math.min(Math.min(length - read, count), buffer.length - readPosition);
+                System.arraycopy(buffer, readPosition, destination, offset + read, chunk);
+                readPosition = (readPosition + chunk) % buffer.length;
+                count -= chunk;
+                read += chunk;
+            }
+            notifyAll();
+            return read;
+        }
+
+        synchronized void write(byte[] source, int offset, int length) throws IOException {
+            while(length > 0){
+                try{
+                    while(count == buffer.length && !closed)
+                        wait();
+                }catch(InterruptedException e){
+                    throw new InterruptedIOException();
+                }
+                if(closed)
+                    throw new IOException("Pipe closed");
+                int writePosition = (readPosition + count) % buffer.length;
+                int chunk = Math.min(Math.min(length, buffer.length - count), buffer.length - writePosition);
+                System.arraycopy(source, offset, buffer, writePosition, chunk);
+                count += chunk;
+                offset += chunk;
+                length -= chunk;
+                notifyAll();
+            }
+        }
+
+        synchronized int available(){
+            return count;
+        }
+
+        synchronized void close(){
+            closed = true;
+            notifyAll();
+        }
+
+        final InputStream inputStream = new InputStream() {
+            private final byte[] single = new byte[1];
+
+            @Override
+            public int read() throws IOException {
+                return Pipe.this.read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return Pipe.this.read(b, off, len);
+            }
+
+            @Override
+            public int available(){
+                return Pipe.this.available();
+            }
+
+            @Override
+            public void close(){
+                Pipe.this.close();
+            }
+        };
+
+        final OutputStream outputStream = new OutputStream() {
+            private final byte[] single = new byte[1];
+
+            @Override
+            public void write(int b) throws IOException {
+                single[0] = (byte) b;
+                Pipe.this.write(single, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                Pipe.this.write(b, off, len);
+            }
+
+            @Override
+            public void close(){
+                Pipe.this.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,270 @@
+package be.groept.emedialab.communications;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Packets waiting to be sent over one connection, added by any thread and taken by the output thread of the
+ * connection without locks.
+ *
+ * Packets go into one of two lanes depending on {@link DataPacket#getPriority()}. Control packets are taken first,
+ * but after {@link #BULK_INTERVAL} control packets in a row a waiting bulk packet gets its turn, so a flood of
+ * control packets can not hold back the positions forever. Within a lane packets are taken in the order they were
+ * added, except for coordinates: those go into a slot of the bulk lane that holds only the latest packet, so when the
+ * connection stalls newer positions replace the ones that were not sent yet instead of queueing up behind them.
+ *
+ * Each lane keeps its packets in a ring of fixed capacity; what happens when it is full depends on the overflow
+ * policy.
+ */
+public class OutgoingQueue {
+
+    /**
+     * When full, drop the oldest packet to make room for the new one.
+     */
+    public static final int OVERFLOW_DROP_OLDEST = 0;
+    /**
+     * When full, wait until the output thread made room, up to the block timeout, and reject after that.
+     */
+    public static final int OVERFLOW_BLOCK = 1;
+    /**
+     * When full, refuse the new packet.
+     */
+    public static final int OVERFLOW_REJECT = 2;
+
+    public static final int DEFAULT_CAPACITY = 256;
+    public static final int DEFAULT_OVERFLOW_POLICY = OVERFLOW_REJECT;
+    public static final long DEFAULT_BLOCK_TIMEOUT = 100;
+
+    /**
+     * Number of control packets taken in a row before a waiting bulk packet is taken.
+     */
+    public static final int BULK_INTERVAL = 8;
+
+    //Time a blocked producer sleeps before looking again
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    /**
+     * Ring of fixed capacity. Every cell has a sequence number that tells whether it is free for the producer at a
+     * position or filled for the consumer at a position, and the positions are claimed with a compare-and-set.
+     */
+    private static class Ring {
+        private final int mask;
+        private final AtomicReferenceArray<DataPacket> cells;
+        private final AtomicLongArray sequences;
+        //Next position to add at and to take from
+        private final AtomicLong tail = new AtomicLong();
+        private final AtomicLong head = new AtomicLong();
+
+        Ring(int size){
+            this.mask = size - 1;
+            this.cells = new AtomicReferenceArray<>(size);
+            this.sequences = new AtomicLongArray(size);
+            for(int i = 0; i < size; i++)
+                sequences.set(i, i);
+        }
+
+        boolean offer(DataPacket dataPacket){
+            while(true){
+                long position = tail.get();
+                int index = (int) position & mask;
+                long difference = sequences.get(index) - position;
+                if(difference == 0){
+                    if(tail.compareAndSet(position, position + 1)){
+                        cells.set(index, dataPacket);
+                        //Publishes the packet to the consumer
+                        sequences.set(index, position + 1);
+                        return true;
+                    }
+                }else if(difference < 0){
+                    //The consumer did not free this cell yet: full
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * Also used by producers that drop the oldest packet, so the position is claimed with a compare-and-set as well.
+         */
+        DataPacket take(){
+            while(true){
+                long position = head.get();
+                int index = (int) position & mask;
+                long difference = sequences.get(index) - (position + 1);
+                if(difference == 0){
+                    if(head.compareAndSet(position, position + 1)){
+                        DataPacket dataPacket = cells.get(index);
+                        cells.set(index, null);
+                        //Frees the cell for the producer one round later
+                        sequences.set(index, position + mask + 1);
+                        return dataPacket;
+                    }
+                }else if(difference < 0){
+                    //Nothing was published at this position yet: empty
+                    return null;
+                }
+            }
+        }
+
+        int size(){
+            return (int) Math.min(Math.max(0, tail.get() - head.get()), mask + 1);
+        }
+    }
+
+    private final Ring control;
+    private final Ring bulk;
+    private final AtomicReference<DataPacket> coordinates = new AtomicReference<>();
+    private final int capacity;
+
+    private final int overflowPolicy;
+    private volatile long blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_BLOCK_TIMEOUT);
+
+    private final AtomicInteger replacedCoordinates = new AtomicInteger();
+    private final AtomicInteger overflowCount = new AtomicInteger();
+
+    //Only used by the consumer
+    private int controlInARow = 0;
+
+    public OutgoingQueue(){
+        this(DEFAULT_CAPACITY, DEFAULT_OVERFLOW_POLICY);
+    }
+
+    /**
+     * @param capacity Number of packets per lane besides the coordinates that can wait, rounded up to a power of two.
+     * @param overflowPolicy {@link #OVERFLOW_DROP_OLDEST}, {@link #OVERFLOW_BLOCK} or {@link #OVERFLOW_REJECT}.
+     */
+    public OutgoingQueue(int capacity, int overflowPolicy){
+        if(capacity < 1 || capacity > 1 << 20)
+            throw new IllegalArgumentException("Invalid value: " + capacity);
+        if(overflowPolicy < OVERFLOW_DROP_OLDEST || overflowPolicy > OVERFLOW_REJECT)
+            throw new IllegalArgumentException("Invalid value: " + overflowPolicy);
+        int size = Integer.highestOneBit(capacity);
+        if(size < capacity)
+            size <<= 1;
+        this.capacity = size;
+        this.control = new Ring(size);
+        this.bulk = new Ring(size);
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * @param timeout Time in ms {@link #OVERFLOW_BLOCK} waits for room.
+     */
+    public void setBlockTimeout(long timeout){
+        blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+    }
+
+    /**
+     * Add a packet to the lane of its priority. Can be called from any thread.
+     * @return False if the packet was refused because its lane is full.
+     */
+    public boolean add(DataPacket dataPacket){
+        if(dataPacket.getDataType() == DataHandler.DATA_TYPE_COORDINATES){
+            if(coordinates.getAndSet(dataPacket) != null)
+                replacedCoordinates.incrementAndGet();
+            return true;
+        }
+        Ring ring = dataPacket.getPriority() == DataPacket.PRIORITY_BULK ? bulk : control;
+        if(ring.offer(dataPacket))
+            return true;
+
+        switch(overflowPolicy){
+            case OVERFLOW_DROP_OLDEST:
+                do{
+                    if(ring.take() != null)
+                        overflowCount.incrementAndGet();
+                }while(!ring.offer(dataPacket));
+                return true;
+
+            case OVERFLOW_BLOCK:
+                long deadline = System.nanoTime() + blockTimeoutNanos;
+                do{
+                    if(System.nanoTime() - deadline >= 0){
+                        overflowCount.incrementAndGet();
+                        return false;
+                    }
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                }while(!ring.offer(dataPacket));
+                return true;
+
+            default:
+                overflowCount.incrementAndGet();
+                return false;
+        }
+    }
+
+    /**
+     * Take the next packet, only called by the output thread of the connection.
+     * @return A control packet, unless none is waiting or a bulk packet is due. Null if empty.
+     */
+    public DataPacket poll(){
+        if(controlInARow < BULK_INTERVAL){
+            DataPacket dataPacket = control.take();
+            if(dataPacket != null){
+                controlInARow++;
+                return dataPacket;
+            }
+        }
+        controlInARow = 0;
+        DataPacket dataPacket = takeBulk();
+        return dataPacket != null ? dataPacket : control.take();
+    }
+
+    /**
+     * @return The latest coordinates if they were not sent yet, otherwise the oldest other bulk packet.
+     */
+    private DataPacket takeBulk(){
+        DataPacket latest = coordinates.getAndSet(null);
+        return latest != null ? latest : bulk.take();
+    }
+
+    /**
+     * @return Number of packets waiting, at most one of them coordinates. Only an estimate while packets are added.
+     */
+    public int size(){
+        return control.size() + bulk.size() + (coordinates.get() != null ? 1 : 0);
+    }
+
+    /**
+     * @return Number of control packets waiting.
+     */
+    public int getControlSize(){
+        return control.size();
+    }
+
+    /**
+     * @return Number of packets per lane besides the coordinates that can wait.
+     */
+    public int getCapacity(){
+        return capacity;
+    }
+
+    public int getOverflowPolicy(){
+        return overflowPolicy;
+    }
+
+    /**
+     * @return Number of packets that were dropped or refused because their lane was full.
+     */
+    public int getOverflowCount(){
+        return overflowCount.get();
+    }
+
+    /**
+     * @return Number of coordinates that were replaced by newer ones before they were sent.
+     */
+    public int getReplacedCoordinates(){
+        return replacedCoordinates.get();
+    }
+
+    public void clear(){
+        coordinates.set(null);
+        while(control.take() != null || bulk.take() != null){
+            //Empty the rings
+        }
+    }
+}
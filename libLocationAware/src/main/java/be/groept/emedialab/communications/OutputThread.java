@@ -8,20 +8,61 @@ public class OutputThread extends Thread {
 
     protected volatile boolean keepRunning = true;
     protected OutputStream outputStream;
-    private Handler handler = null;
+    protected final Protocol protocol;
+    //Told when the thread ended, set by stopRunning
+    protected volatile Handler handler = null;
 
     public OutputThread(OutputStream outputStream){
+        this(outputStream, new Protocol());
+    }
+
+    /**
+     * @param protocol Protocol of the connection, shared with the input thread of the same connection.
+     */
+    public OutputThread(OutputStream outputStream, Protocol protocol){
         this.outputStream = outputStream;
+        this.protocol = protocol;
     }
 
+    //Set when data was added since the thread last looked, so a notify before the wait is not lost
+    private boolean dataPending = false;
+
     public void sendData(){
         synchronized (this){
+            dataPending = true;
             notify();
         }
     }
 
+    /**
+     * Wait until data was added since the last call, or until the thread is stopped.
+     */
+    protected synchronized void waitForData() throws InterruptedException {
+        while(!dataPending && keepRunning)
+            wait();
+        dataPending = false;
+    }
+
+    /**
+     * Same as {@link #waitForData()}, but gives up after the timeout.
+     * @param timeout Time in ms, at least 1.
+     */
+    protected synchronized void waitForData(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        long remaining = timeout;
+        while(!dataPending && keepRunning && remaining > 0){
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+        dataPending = false;
+    }
+
+    /**
+     * Stop after the current round. Wakes the thread, which would otherwise wait for the next packet.
+     */
     public void stopRunning(){
         keepRunning = false;
+        sendData();
     }
 
     public void stopRunning(Handler handler){
@@ -0,0 +1,79 @@
+package be.groept.emedialab.communications;
+
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * Protocol version of one connection, shared by its input and output thread.
+ *
+ * Right after connecting both sides send a {@link DataHandler#DATA_TYPE_HELLO} with the highest version they
+ * support, and both use the lowest of the two from then on. Until the hello of the other side arrived, or when it
+ * never arrives because the other side is older, the legacy layout is used.
+ */
+public class Protocol {
+
+    private static final String TAG = "Protocol";
+
+    /**
+     * Coordinates as four doubles and a boolean, data packets as Base64 encoded serialized objects.
+     */
+    public static final int VERSION_LEGACY = 0;
+    /**
+     * Coordinates in the layout of {@link CoordinateCodec}.
+     */
+    public static final int VERSION_COMPACT_COORDINATES = 1;
+    /**
+     * Data packets written by the {@link CodecRegistry}. The codec of {@link be.groept.emedialab.server.data.Position}
+     * changed in {@link #VERSION_CLOCK_SYNC}, so a side of this version gets legacy data packets.
+     */
+    public static final int VERSION_CODEC_REGISTRY = 2;
+    /**
+     * Clock synchronisation by {@link ClockSync}, coordinates and positions in data packets stamped with the time of
+     * their camera frame.
+     */
+    public static final int VERSION_CLOCK_SYNC = 3;
+    /**
+     * Highest version this side supports.
+     */
+    public static final int VERSION = VERSION_CLOCK_SYNC;
+
+    private final int ownVersion;
+    private volatile int peerVersion = VERSION_LEGACY;
+
+    public Protocol(){
+        this(VERSION);
+    }
+
+    /**
+     * @param ownVersion Highest version this side offers, lower than {@link #VERSION} to force an older layout.
+     */
+    public Protocol(int ownVersion){
+        if(ownVersion < VERSION_LEGACY || ownVersion > VERSION)
+            throw new IllegalArgumentException("Invalid value: " + ownVersion);
+        this.ownVersion = ownVersion;
+    }
+
+    /**
+     * Add a frame with the version this side supports. Does not flush.
+     */
+    public void sendHello(FrameWriter frameWriter) throws IOException {
+        frameWriter.beginFrame(DataHandler.DATA_TYPE_HELLO).writeInt(ownVersion);
+        frameWriter.endFrame();
+    }
+
+    /**
+     * Called when the hello of the other side arrived.
+     */
+    void onHello(int version){
+        Log.d(TAG, "Other side supports protocol version " + version + ", using " + Math.min(ownVersion, version));
+        peerVersion = Math.max(VERSION_LEGACY, version);
+    }
+
+    /**
+     * @return The version both sides support.
+     */
+    public int getVersion(){
+        return Math.min(ownVersion, peerVersion);
+    }
+}
@@ -0,0 +1,53 @@
+package be.groept.emedialab.communications;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Connection over a Bluetooth RFCOMM socket.
+ */
+public class RfcommConnection implements Connection {
+
+    private final BluetoothSocket socket;
+
+    public RfcommConnection(BluetoothSocket socket){
+        this.socket = socket;
+    }
+
+    public BluetoothSocket getSocket(){
+        return socket;
+    }
+
+    public BluetoothDevice getBluetoothDevice(){
+        return socket.getRemoteDevice();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return socket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return socket.getOutputStream();
+    }
+
+    @Override
+    public String getRemoteAddress(){
+        return socket.getRemoteDevice().getAddress();
+    }
+
+    @Override
+    public String getRemoteName(){
+        return socket.getRemoteDevice().getName();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,54 @@
+package be.groept.emedialab.communications;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothServerSocket;
+import android.bluetooth.BluetoothSocket;
+
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Bluetooth RFCOMM, the transport between the phones. Assumes Bluetooth is available and enabled.
+ */
+public class RfcommTransport implements Transport {
+
+    public static final UUID SERVICE_UUID = UUID.fromString("fa87c0d0-afac-11de-8a39-0800200c9a66");
+    public static final String SERVICE_NAME = "BluetoothApp";
+
+    private final BluetoothAdapter adapter;
+    private volatile BluetoothServerSocket serverSocket = null;
+
+    public RfcommTransport(BluetoothAdapter adapter){
+        this.adapter = adapter;
+    }
+
+    /**
+     * Register the service so other devices can connect, before the first {@link #accept()}.
+     */
+    public synchronized void listen() throws IOException {
+        if(serverSocket == null)
+            serverSocket = adapter.listenUsingRfcommWithServiceRecord(SERVICE_NAME, SERVICE_UUID);
+    }
+
+    @Override
+    public Connection accept() throws IOException {
+        listen();
+        return new RfcommConnection(serverSocket.accept());
+    }
+
+    /**
+     * @param address MAC address of the device.
+     */
+    @Override
+    public Connection connect(String address) throws IOException {
+        BluetoothSocket socket = adapter.getRemoteDevice(address).createRfcommSocketToServiceRecord(SERVICE_UUID);
+        socket.connect();
+        return new RfcommConnection(socket);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(serverSocket != null)
+            serverSocket.close();
+    }
+}
@@ -0,0 +1,216 @@
+package be.groept.emedialab.communications;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Puts the {@link LinkConditions} of a slow wireless link on the connections of another transport, such as
+ * {@link TcpTransport} over loopback, to measure the protocol under Bluetooth-like conditions without the phones.
+ *
+ * Every write on a connection is handed to the underlying stream by a thread of the link once its delay passed. The
+ * writes keep their order as on an RFCOMM channel, so a slow write holds back the ones after it. Both sides of a
+ * connection made through this transport are delayed, so a round-trip takes two delays.
+ * The conditions should be set before connecting.
+ */
+public class SimulatedTransport implements Transport {
+
+    private final Transport transport;
+    private final LinkConditions conditions;
+    private final AtomicLong linkCount = new AtomicLong();
+
+    public SimulatedTransport(Transport transport, LinkConditions conditions){
+        this.transport = transport;
+        this.conditions = conditions;
+    }
+
+    public LinkConditions getConditions(){
+        return conditions;
+    }
+
+    @Override
+    public Connection accept() throws IOException {
+        return new SimulatedConnection(transport.accept(), newRandom());
+    }
+
+    @Override
+    public Connection connect(String address) throws IOException {
+        return new SimulatedConnection(transport.connect(address), newRandom());
+    }
+
+    @Override
+    public void close() throws IOException {
+        transport.close();
+    }
+
+    private Random newRandom(){
+        long seed = conditions.getSeed();
+        return seed == 0 ? new Random() : new Random(seed + linkCount.getAndIncrement());
+    }
+
+    private class SimulatedConnection implements Connection {
+        private final Connection connection;
+        private final Random random;
+        private Link link = null;
+
+        SimulatedConnection(Connection connection, Random random){
+            this.connection = connection;
+            this.random = random;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return connection.getInputStream();
+        }
+
+        @Override
+        public synchronized OutputStream getOutputStream() throws IOException {
+            if(link == null)
+                link = new Link(connection.getOutputStream(), random);
+            return link;
+        }
+
+        @Override
+        public String getRemoteAddress(){
+            return connection.getRemoteAddress();
+        }
+
+        @Override
+        public String getRemoteName(){
+            return connection.getRemoteName();
+        }
+
+        /**
+         * Data still on its way is lost, like when the radio link drops.
+         */
+        @Override
+        public void close() throws IOException {
+            synchronized(this){
+                if(link != null)
+                    link.close();
+            }
+            connection.close();
+        }
+    }
+
+    private static class Chunk {
+        final byte[] data;
+        final long deliveryTime;
+
+        Chunk(byte[] data, long deliveryTime){
+            this.data = data;
+            this.deliveryTime = deliveryTime;
+        }
+    }
+
+    /**
+     * One direction of a connection: writes are queued with the time they arrive, the thread of the link passes them
+     * on at that time.
+     */
+    private class Link extends OutputStream implements Runnable {
+        private final OutputStream outputStream;
+        private final Random random;
+        private final ArrayDeque<Chunk> chunks = new ArrayDeque<>();
+        private int queuedBytes = 0;
+        //Time in ns the link is done sending the previous writes
+        private long freeTime = 0;
+        private long lastDeliveryTime = 0;
+        private boolean closed = false;
+        private IOException failure = null;
+
+        Link(OutputStream outputStream, Random random){
+            this.outputStream = outputStream;
+            this.random = random;
+            Thread thread = new Thread(this, "SimulatedLink");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            if(len == 0)
+                return;
+            int bufferSize = conditions.getBufferSize();
+            try{
+                //A write that is larger than the buffer waits until the buffer is empty
+                while(bufferSize > 0 && queuedBytes > 0 && queuedBytes + len > bufferSize && !closed && failure == null)
+                    wait();
+            }catch(InterruptedException e){
+                throw new InterruptedIOException();
+            }
+            if(failure != null)
+                throw failure;
+            if(closed)
+                throw new IOException("Link closed");
+
+            long start = Math.max(System.nanoTime(), freeTime) + conditions.sampleStall(random);
+            freeTime = start + conditions.transmissionTime(len);
+            long deliveryTime = Math.max(freeTime + conditions.sampleDelay(random), lastDeliveryTime);
+            lastDeliveryTime = deliveryTime;
+
+            byte[] data = new byte[len];
+            System.arraycopy(b, off, data, 0, len);
+            chunks.add(new Chunk(data, deliveryTime));
+            queuedBytes += len;
+            notifyAll();
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized(this){
+                closed = true;
+                chunks.clear();
+                queuedBytes = 0;
+                notifyAll();
+            }
+            outputStream.close();
+        }
+
+        @Override
+        public void run(){
+            try{
+                while(true){
+                    Chunk chunk;
+                    synchronized(this){
+                        while(chunks.isEmpty() && !closed)
+                            wait();
+                        if(closed)
+                            break;
+                        chunk = chunks.peek();
+                    }
+                    long remaining;
+                    while((remaining = chunk.deliveryTime - System.nanoTime()) > 0)
+                        LockSupport.parkNanos(this, remaining);
+
+                    //Not under the lock, closing must not wait for a write that blocks
+                    outputStream.write(chunk.data);
+                    outputStream.flush();
+                    synchronized(this){
+                        if(closed)
+                            break;
+                        chunks.poll();
+                        queuedBytes -= chunk.data.length;
+                        notifyAll();
+                    }
+                }
+            }catch(InterruptedException e){
+                //Stop the link
+            }catch(IOException e){
+                synchronized(this){
+                    failure = e;
+                    notifyAll();
+                }
+            }
+        }
+    }
+}
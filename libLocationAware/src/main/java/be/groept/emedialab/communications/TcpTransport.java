@@ -0,0 +1,106 @@
+package be.groept.emedialab.communications;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Plain TCP sockets, to run the protocol between processes or machines without Bluetooth.
+ * Nagle's algorithm is turned off, the frame writer already batches the messages.
+ */
+public class TcpTransport implements Transport {
+
+    private final ServerSocket serverSocket;
+
+    /**
+     * A transport that can only connect to others.
+     */
+    public TcpTransport(){
+        this.serverSocket = null;
+    }
+
+    /**
+     * A transport that accepts connections on the given port of the loopback interface.
+     * @param port Port to listen on, 0 for any free port.
+     */
+    public TcpTransport(int port) throws IOException {
+        this(InetAddress.getByName("127.0.0.1"), port);
+    }
+
+    public TcpTransport(InetAddress bindAddress, int port) throws IOException {
+        this.serverSocket = new ServerSocket(port, 50, bindAddress);
+    }
+
+    /**
+     * @return Address to connect to, as "host:port".
+     */
+    public String getAddress(){
+        return serverSocket.getInetAddress().getHostAddress() + ":" + serverSocket.getLocalPort();
+    }
+
+    @Override
+    public Connection accept() throws IOException {
+        if(serverSocket == null)
+            throw new IOException("Transport does not accept connections");
+        return new TcpConnection(serverSocket.accept());
+    }
+
+    /**
+     * @param address "host:port" of the other device.
+     */
+    @Override
+    public Connection connect(String address) throws IOException {
+        int separator = address.lastIndexOf(':');
+        if(separator < 0)
+            throw new IOException("Invalid address " + address);
+        Socket socket = new Socket();
+        socket.connect(new InetSocketAddress(address.substring(0, separator), Integer.parseInt(address.substring(separator + 1))));
+        return new TcpConnection(socket);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(serverSocket != null)
+            serverSocket.close();
+    }
+
+    private static class TcpConnection implements Connection {
+        private final Socket socket;
+        private final String remoteAddress;
+
+        TcpConnection(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            this.remoteAddress = socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return socket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return socket.getOutputStream();
+        }
+
+        @Override
+        public String getRemoteAddress(){
+            return remoteAddress;
+        }
+
+        @Override
+        public String getRemoteName(){
+            return remoteAddress;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
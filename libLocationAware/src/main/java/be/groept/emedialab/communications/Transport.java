@@ -0,0 +1,27 @@
+package be.groept.emedialab.communications;
+
+import java.io.IOException;
+
+/**
+ * Way of connecting devices: Bluetooth RFCOMM on the phones ({@link RfcommTransport}), TCP sockets
+ * ({@link TcpTransport}) or pipes within one process ({@link MemoryTransport}) to run the protocol off the device.
+ */
+public interface Transport {
+
+    /**
+     * Wait for the next device that connects to this one.
+     * @throws IOException If waiting failed or the transport was closed.
+     */
+    Connection accept() throws IOException;
+
+    /**
+     * Connect to a device that is waiting in {@link #accept()}.
+     * @param address Address of that device, its format depends on the transport.
+     */
+    Connection connect(String address) throws IOException;
+
+    /**
+     * Stop accepting connections, which ends a blocked {@link #accept()}. Connections that were made stay open.
+     */
+    void close() throws IOException;
+}
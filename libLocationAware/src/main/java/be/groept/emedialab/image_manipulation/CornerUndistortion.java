@@ -0,0 +1,106 @@
+package be.groept.emedialab.image_manipulation;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.imgproc.Imgproc;
+
+import be.groept.emedialab.math.CameraConstants;
+
+/**
+ * Corrects the lens distortion of the four corners of the detected pattern, instead of undistorting
+ * the full camera frame. The calibration matrices and the point buffers are created once and reused
+ * for every frame.
+ *
+ * The corners are undistorted back into pixel coordinates of the same frame, so the result can be
+ * given to {@link be.groept.emedialab.math.PositionCalculation} directly.
+ * OpenCV must be loaded before an instance is created.
+ */
+public class CornerUndistortion {
+
+    private final Mat cameraMatrix;
+    private final MatOfDouble distortionCoefficients;
+    private final Mat rectification = new Mat();
+
+    private final MatOfPoint2f distorted = new MatOfPoint2f();
+    private final MatOfPoint2f undistorted = new MatOfPoint2f();
+    private final float[] buffer = new float[8];
+
+    /**
+     * @param fx Focal length in pixels along the x-axis of the frame.
+     * @param fy Focal length in pixels along the y-axis of the frame.
+     * @param cx x-coordinate of the principal point in pixels.
+     * @param cy y-coordinate of the principal point in pixels.
+     * @param distortionCoefficients Distortion coefficients in OpenCV order (k1, k2, p1, p2[, k3]).
+     */
+    public CornerUndistortion(double fx, double fy, double cx, double cy, double[] distortionCoefficients){
+        cameraMatrix = new Mat(3, 3, CvType.CV_64F);
+        cameraMatrix.put(0, 0,
+                fx, 0, cx,
+                0, fy, cy,
+                0, 0, 1);
+        this.distortionCoefficients = new MatOfDouble(distortionCoefficients);
+        distorted.alloc(4);
+    }
+
+    /**
+     * Creates the undistortion for the lens calibration in {@link CameraConstants}, scaled from the
+     * calibration resolution to the given frame size.
+     * @param width Width in pixels of the frames the corners will be in.
+     * @param height Height in pixels of the frames the corners will be in.
+     * @param mirrored True if the frames are flipped around both axes with Core.flip before the pattern is
+     *                 detected, like {@link PatternDetector} does for the front facing camera.
+     * @return The undistortion, or null if this phone has no lens calibration.
+     */
+    public static CornerUndistortion fromCameraConstants(double width, double height, boolean mirrored){
+        CameraConstants constants = CameraConstants.getInstance();
+        if(!constants.hasLensCalibration())
+            return null;
+        double scaleX = width / CameraConstants.CALIBRATION_WIDTH;
+        double scaleY = height / CameraConstants.CALIBRATION_HEIGHT;
+        double cx = constants.getCx() * scaleX;
+        double cy = constants.getCy() * scaleY;
+        double[] coefficients = constants.getDistortionCoefficients().clone();
+        if(mirrored){
+            //Flipping both axes turns the frame around its centre: the principal point turns with it and
+            //the tangential distortion changes sign, the radial distortion stays the same.
+            //Core.flip moves pixel x to width - 1 - x.
+            cx = width - 1 - cx;
+            cy = height - 1 - cy;
+            coefficients[2] = -coefficients[2];
+            coefficients[3] = -coefficients[3];
+        }
+        return new CornerUndistortion(constants.getFx() * scaleX, constants.getFy() * scaleY, cx, cy, coefficients);
+    }
+
+    /**
+     * Undistorts the corners in place.
+     * @param corners x and y of the four corners: x1, y1, x2, y2, x3, y3, x4, y4.
+     */
+    public synchronized void undistort(double[] corners){
+        for(int i = 0; i < 8; i++){
+            buffer[i] = (float) corners[i];
+        }
+        distorted.put(0, 0, buffer);
+
+        // Passing the camera matrix as the new projection keeps the result in pixels
+        Imgproc.undistortPoints(distorted, undistorted, cameraMatrix, distortionCoefficients, rectification, cameraMatrix);
+
+        undistorted.get(0, 0, buffer);
+        for(int i = 0; i < 8; i++){
+            corners[i] = buffer[i];
+        }
+    }
+
+    /**
+     * Releases the native memory of the matrices.
+     */
+    public void release(){
+        cameraMatrix.release();
+        distortionCoefficients.release();
+        rectification.release();
+        distorted.release();
+        undistorted.release();
+    }
+}
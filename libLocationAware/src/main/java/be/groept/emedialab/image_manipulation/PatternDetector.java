@@ -3,15 +3,18 @@ package be.groept.emedialab.image_manipulation;
 import android.content.Context;
 import android.util.Log;
 
+import be.groept.emedialab.communications.ClockSync;
 import be.groept.emedialab.math.PositionCalculation;
 import be.groept.emedialab.movement.MovementAccelerometer;
+import be.groept.emedialab.movement.SensorFusion;
 import be.groept.emedialab.server.data.Position;
 import be.groept.emedialab.util.GlobalResources;
-import be.groept.emedialab.util.Point3D;
 import be.groept.emedialab.util.Tuple;
 
 import org.opencv.core.Core;
 import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
 import org.opencv.highgui.Highgui;
 import org.opencv.highgui.VideoCapture;
 import org.opencv.imgproc.Imgproc;
@@ -34,7 +37,10 @@ import java.util.concurrent.TimeUnit;
 public class PatternDetector {
 
     private static final String TAG = "PatternDetector";
-    private static final long sampleRate = 200;
+    /**
+     * Time in ms between two camera frames.
+     */
+    private long sampleRate = 200;
     private final static boolean DEBUG = false;
 
     private PositionCalculation calc;
@@ -50,6 +56,30 @@ public class PatternDetector {
      */
     private int camera = 1;
 
+    /**
+     * Resolution the camera frames are grabbed in. The detected corners are rescaled to the
+     * frame geometry of the {@link PositionCalculation}, so this can be lower than that resolution
+     * to trade accuracy for frame rate. '0' means the default resolution of the camera.
+     */
+    private int captureWidth = 0;
+    private int captureHeight = 0;
+
+    /**
+     * Optional lens distortion correction of the corners, null when the phone is not calibrated.
+     */
+    private CornerUndistortion undistortion = null;
+    private final double[] corners = new double[8];
+
+    /**
+     * Tilt and movement of the device, null when no sensors are used.
+     */
+    private MovementAccelerometer movementAccelerometer = null;
+
+    /**
+     * Predicts the position between camera frames, null when no sensors are used.
+     */
+    private volatile SensorFusion sensorFusion = null;
+
     private Runnable cameraRunnable = new Runnable() {
         @Override
         public void run() {
@@ -59,11 +89,21 @@ public class PatternDetector {
                     if(DEBUG)
                         startTime = System.currentTimeMillis();
                     if (mCamera.grab()){
+                        //The frame was taken by the grab, the positions found in it carry this time
+                        long captureTime = ClockSync.localTime();
                         Mat rgba = new Mat();
                         Mat gray = new Mat();
                         Mat binary = new Mat();
                         mCamera.retrieve(rgba, Highgui.CV_CAP_ANDROID_COLOR_FRAME_RGB);
 
+                        //Reject frames that are too tilted to compensate before doing any image processing
+                        if(GlobalResources.getInstance().getTilted()){
+                            Core.putText(rgba, "Device tilted!", new Point(50, 250), Core.FONT_HERSHEY_SIMPLEX, 1, new Scalar(0, 255, 255));
+                            GlobalResources.getInstance().updateImage(rgba);
+                            GlobalResources.getInstance().updateOwnPosition(new Position(), captureTime);
+                            return;
+                        }
+
                         if(camera == 1) {
                             //Flip the image around the openCv x-axis (== Calc y-axis) if the front facing camera is used.
                             //See: http://answers.opencv.org/question/8804/ipad-camera-input-is-rotated-180-degrees/
@@ -90,7 +130,7 @@ public class PatternDetector {
                         }
                         GlobalResources.getInstance().updateImage(patternAndImagePair.element2);
 
-                        calculateCoordinates(patternAndImagePair.element1);
+                        calculateCoordinates(patternAndImagePair.element1, rgba.cols(), rgba.rows(), captureTime);
                         if(DEBUG){
                             long thisTime = (System.currentTimeMillis() - startTime);
                             if(thisTime < 300){
@@ -126,14 +166,48 @@ public class PatternDetector {
     public PatternDetector(int camera, boolean newAlgorithm, Context mContext) {
         this(camera, newAlgorithm);
         // TODO: currently this object lives here, but it shouldn't. It should be in a runnable? Not a runnable, runnable gets executed at fixed time intervals
-        new MovementAccelerometer(mContext);
+        movementAccelerometer = new MovementAccelerometer(mContext);
+        sensorFusion = new SensorFusion(mContext);
     }
 
-    private void calculateCoordinates(PatternCoordinates patternCoordinates) {
-        Point3D deviceCoordinates = calc.patternToReal(patternCoordinates); //Calculate the position of this device.
-        Position devicePosition = new Position(deviceCoordinates.getX(), deviceCoordinates.getY(), deviceCoordinates.getZ(), calc.calculateRotation(patternCoordinates));
+    /**
+     * @param frameWidth Width in pixels of the frame the pattern was detected in.
+     * @param frameHeight Height in pixels of the frame the pattern was detected in.
+     * @param captureTime Time in us of {@link ClockSync#localTime()} the frame was taken.
+     */
+    private void calculateCoordinates(PatternCoordinates patternCoordinates, int frameWidth, int frameHeight, long captureTime) {
+        //Rescale the corners from the captured frame to the frame geometry of the calculation
+        double scaleX = calc.getWidth() / frameWidth;
+        double scaleY = calc.getHeight() / frameHeight;
+        for(int i = 0; i < 4; i++){
+            Point corner = patternCoordinates.getNum(i + 1);
+            corners[2 * i] = corner.x * scaleX;
+            corners[2 * i + 1] = corner.y * scaleY;
+        }
+
+        //Only the four corners are undistorted, not the full frame
+        if(undistortion != null && patternCoordinates.getPatternFound())
+            undistortion.undistort(corners);
+
+        //The camera sensor is mounted with its long side (image x) along the device y-axis.
+        //Raising the positive side of a device axis tips the front camera towards the negative side.
+        GlobalResources resources = GlobalResources.getInstance();
+        calc.setTilt(-resources.getTiltY(), -resources.getTiltX());
+
+        Position devicePosition = new Position();
+        //Calculate the position and rotation of this device.
+        calc.patternToReal(corners[0], corners[1], corners[2], corners[3], corners[4], corners[5], corners[6], corners[7], devicePosition);
         devicePosition.setFoundPattern(patternCoordinates.getPatternFound());
-        GlobalResources.getInstance().updateOwnPosition(devicePosition);
+        //The other devices get the camera position, the prediction is only shown locally
+        GlobalResources.getInstance().updateOwnPosition(devicePosition, captureTime);
+        SensorFusion fusion = sensorFusion;
+        if(fusion != null){
+            //Continue the prediction from the fused estimate so it does not jump when a frame arrives
+            fusion.correct(devicePosition);
+            Position fusedPosition = fusion.getPrediction();
+            if(fusedPosition != null)
+                GlobalResources.getInstance().updatePredictedPosition(fusedPosition);
+        }
     }
 
     /**
@@ -148,6 +222,11 @@ public class PatternDetector {
         }
 
         mCamera = new VideoCapture(camera);
+        if(captureWidth > 0 && captureHeight > 0){
+            //The camera picks the closest supported preview size, the real size is read from every frame.
+            mCamera.set(Highgui.CV_CAP_PROP_FRAME_WIDTH, captureWidth);
+            mCamera.set(Highgui.CV_CAP_PROP_FRAME_HEIGHT, captureHeight);
+        }
         isPaused = false;
         ScheduledExecutorService executor = Executors.newScheduledThreadPool(1);
         executor.scheduleAtFixedRate(cameraRunnable, 0, sampleRate, TimeUnit.MILLISECONDS);
@@ -161,6 +240,14 @@ public class PatternDetector {
             mCamera.release();
             mCamera = null;
         }
+        if(movementAccelerometer != null){
+            movementAccelerometer.release();
+            movementAccelerometer = null;
+        }
+        if(sensorFusion != null){
+            sensorFusion.release();
+            sensorFusion = null;
+        }
         isPaused = true;
         // TODO stop executorService
     }
@@ -169,10 +256,39 @@ public class PatternDetector {
         return isPaused;
     }
 
+    /**
+     * Set the time between two camera frames. Takes effect on the next {@link #setup()}.
+     * With sensor fusion the position keeps updating between frames, so this can be increased to save battery.
+     * @param sampleRate Time in ms.
+     */
+    public void setSampleRate(long sampleRate){
+        this.sampleRate = sampleRate;
+    }
+
     public void setCalc(PositionCalculation calc) {
         this.calc = calc;
     }
 
+    /**
+     * Sets the resolution the camera frames are grabbed in. Takes effect on the next {@link #setup()}.
+     * @param width Width in pixels, '0' to use the default resolution of the camera.
+     * @param height Height in pixels, '0' to use the default resolution of the camera.
+     */
+    public void setCaptureSize(int width, int height){
+        captureWidth = width;
+        captureHeight = height;
+    }
+
+    /**
+     * @param undistortion Lens distortion correction for the corners, in the frame geometry of the
+     *                     {@link PositionCalculation} and mirrored for the front facing camera, whose
+     *                     frames are flipped. Null to disable.
+     * @see CornerUndistortion#fromCameraConstants(double, double, boolean)
+     */
+    public void setUndistortion(CornerUndistortion undistortion){
+        this.undistortion = undistortion;
+    }
+
     public int getCamera() {
         return camera;
     }
@@ -110,12 +110,6 @@ public class PatternDetectorAlgorithm implements PatternDetectorAlgorithmInterfa
             Imgproc.drawContours(this.backgroundMatrix, bigSquareContours, -1, orange, 4);
         }
 
-        // Return error if device is tilted
-        if(GlobalResources.getInstance().getTilted()) {
-            putText("Device tilted!", new Point(50, 250), light_blue);
-            return new Tuple<>(noPatternFoundPattern, this.backgroundMatrix);
-        }
-
         // Get the actual pattern (takes smallest pattern if multiple are found)
         double smallestOuterSquare = Double.POSITIVE_INFINITY;
         MatOfPoint outerRect = null;
@@ -235,7 +229,8 @@ public class PatternDetectorAlgorithm implements PatternDetectorAlgorithmInterfa
                 finalCoordinates.getNum(ii).y += allCoordinates.get(i).getNum(ii).y;
             }
 
-            //Update angle
+            //Update angle, the distance from corner 1 to the inner square (see reorderPoints) and not a direction,
+            //so it is averaged like the corners. The rotation follows from the averaged corners.
             finalCoordinates.setAngle(finalCoordinates.getAngle() + allCoordinates.get(i).getAngle());
         }
 
@@ -4,11 +4,13 @@ import android.app.Activity;
 import android.content.SharedPreferences;
 import android.hardware.Camera;
 import android.preference.PreferenceManager;
+import android.util.Log;
 
 import org.opencv.android.BaseLoaderCallback;
 import org.opencv.android.LoaderCallbackInterface;
 import org.opencv.android.OpenCVLoader;
 
+import be.groept.emedialab.math.CameraConstants;
 import be.groept.emedialab.math.PositionCalculation;
 import be.groept.emedialab.util.GlobalResources;
 
@@ -17,6 +19,8 @@ import be.groept.emedialab.util.GlobalResources;
  */
 public class RunPatternDetector {
 
+    private static final String TAG = "RunPatternDetector";
+
     private Activity activity;
 
     public RunPatternDetector(Activity activity){
@@ -52,6 +56,7 @@ public class RunPatternDetector {
             SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(activity);
             double patternWidthCm = Double.parseDouble(sharedPref.getString("pattern_size", "18"));
             boolean newAlgorithm = sharedPref.getBoolean("new_algorithm", true);
+            double captureScale = Double.parseDouble(sharedPref.getString("capture_scale", "1.0"));
 
             //Select camera
             //If there is no front facing camera, use back camera
@@ -66,6 +71,15 @@ public class RunPatternDetector {
 
             patternDetector = new PatternDetector(cameraSelection, newAlgorithm, activity.getApplicationContext());
             patternDetector.setCalc(positionCalculation);
+            try{
+                CameraConstants.getInstance().setLensCalibration(sharedPref.getString("lens_calibration", ""));
+            }catch(IllegalArgumentException e){
+                Log.e(TAG, "Lens calibration ignored: " + e.getMessage());
+            }
+            //The front facing camera frames are flipped before the detection
+            patternDetector.setUndistortion(CornerUndistortion.fromCameraConstants(imageSize.width, imageSize.height, cameraSelection == 1));
+            if(captureScale < 1.0)
+                patternDetector.setCaptureSize((int) (imageSize.width * captureScale), (int) (imageSize.height * captureScale));
             GlobalResources.getInstance().setPatternDetector(patternDetector);
         } catch (RuntimeException e){
             e.printStackTrace();
@@ -0,0 +1,85 @@
+package be.groept.emedialab.math;
+
+/**
+ * Statistics of angles in degrees, treating them as directions so that 350 and 10 degrees average to 0 and not 180.
+ *
+ * Every angle is added as a unit vector; the mean is the direction of the sum, the length of the sum tells how much
+ * the angles agree. Angles can be added and removed one at a time.
+ */
+public class AngleStatistics {
+
+    private double sumCos = 0;
+    private double sumSin = 0;
+    private int count = 0;
+
+    public void add(double angle){
+        double radians = Math.toRadians(angle);
+        sumCos += Math.cos(radians);
+        sumSin += Math.sin(radians);
+        count++;
+    }
+
+    /**
+     * Remove an angle that was added before.
+     */
+    public void remove(double angle){
+        double radians = Math.toRadians(angle);
+        sumCos -= Math.cos(radians);
+        sumSin -= Math.sin(radians);
+        count--;
+    }
+
+    public void clear(){
+        sumCos = sumSin = 0;
+        count = 0;
+    }
+
+    public int getCount(){
+        return count;
+    }
+
+    /**
+     * @return The mean direction in degrees from 0 up to 360, NaN without angles.
+     */
+    public double getMean(){
+        if(count == 0)
+            return Double.NaN;
+        return normalize(Math.toDegrees(Math.atan2(sumSin, sumCos)));
+    }
+
+    /**
+     * @return Length of the mean vector: 1 if all angles are equal, near 0 if they point in all directions.
+     */
+    public double getResultantLength(){
+        if(count == 0)
+            return 0;
+        return Math.min(1, Math.sqrt(sumCos * sumCos + sumSin * sumSin) / count);
+    }
+
+    /**
+     * @return 1 - {@link #getResultantLength()}, 0 if all angles are equal and at most 1.
+     */
+    public double getCircularVariance(){
+        return 1 - getResultantLength();
+    }
+
+    /**
+     * @return The angle in degrees from 0 up to 360.
+     */
+    public static double normalize(double angle){
+        angle %= 360;
+        return angle < 0 ? angle + 360 : angle;
+    }
+
+    /**
+     * @return The angle in degrees to turn from the second angle to the first, from -180 up to 180.
+     */
+    public static double difference(double angle1, double angle2){
+        double difference = (angle1 - angle2) % 360;
+        if(difference >= 180)
+            difference -= 360;
+        else if(difference < -180)
+            difference += 360;
+        return difference;
+    }
+}
@@ -0,0 +1,332 @@
+package be.groept.emedialab.math;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import be.groept.emedialab.server.data.Position;
+
+/**
+ * Watches a set of {@link ArrangementSpec}s while the positions of the devices change.
+ *
+ * Positions go into a {@link RelationMatrix} and a {@link LineArrangement}, which only recalculate what changed.
+ * Specs that only depend on the relations between devices are evaluated again when a relation changed, lines on every
+ * update. The listener is told when a spec becomes satisfied or stops being satisfied, not on every update.
+ */
+public class ArrangementEngine {
+
+    public interface Listener {
+        /**
+         * Called on the thread that updated the positions.
+         */
+        void onArrangementChanged(Event event);
+    }
+
+    /**
+     * A spec that became satisfied or stopped being satisfied.
+     */
+    public static class Event {
+        private final ArrangementSpec spec;
+        private final boolean satisfied;
+        private final List<String> devices;
+
+        Event(ArrangementSpec spec, boolean satisfied, List<String> devices){
+            this.spec = spec;
+            this.satisfied = satisfied;
+            this.devices = devices;
+        }
+
+        public ArrangementSpec getSpec(){
+            return spec;
+        }
+
+        public boolean isSatisfied(){
+            return satisfied;
+        }
+
+        /**
+         * @return The devices in the arrangement, or the devices that were in it when it stopped being satisfied.
+         */
+        public List<String> getDevices(){
+            return devices;
+        }
+
+        @Override
+        public String toString(){
+            return "Event(" + spec.getName() + ", satisfied " + satisfied + ", devices " + devices + ")";
+        }
+    }
+
+    /**
+     * Last outcome of a spec.
+     */
+    private static class State {
+        final ArrangementSpec spec;
+        boolean satisfied = false;
+        List<String> devices = Collections.emptyList();
+
+        State(ArrangementSpec spec){
+            this.spec = spec;
+        }
+    }
+
+    private final RelationMatrix relations = new RelationMatrix();
+    private final LineArrangement lineArrangement = new LineArrangement(LineArrangement.FIT_ORDINARY);
+    private final LinkedHashMap<String, State> states = new LinkedHashMap<>();
+    private Listener listener = null;
+
+    //Devices in the order they were added, with their index
+    private final ArrayList<String> keys = new ArrayList<>();
+    private final HashMap<String, Integer> indices = new HashMap<>();
+
+    //Change count of the relations at the last evaluation
+    private long evaluatedChanges = -1;
+
+    public synchronized void setListener(Listener listener){
+        this.listener = listener;
+    }
+
+    /**
+     * @return Relations between all the devices given to {@link #update}, only to be read: the engine keeps it up to
+     * date.
+     */
+    public RelationMatrix getRelations(){
+        return relations;
+    }
+
+    /**
+     * Start watching a spec, replacing the spec with the same name. It is evaluated right away,
+     * so the listener hears about it at once if it is already satisfied.
+     */
+    public void addSpec(ArrangementSpec spec){
+        List<Event> events = new ArrayList<>();
+        Listener current;
+        synchronized(this){
+            State state = new State(spec);
+            states.put(spec.getName(), state);
+            evaluate(state, spec.getType() == ArrangementSpec.TYPE_LINE ? lineArrangement.arrange() : null, events);
+            current = listener;
+        }
+        notify(current, events);
+    }
+
+    public synchronized void removeSpec(String name){
+        states.remove(name);
+    }
+
+    /**
+     * @return True if the spec with the given name was satisfied at the last update.
+     */
+    public synchronized boolean isSatisfied(String name){
+        State state = states.get(name);
+        return state != null && state.satisfied;
+    }
+
+    public void update(String key, Position position){
+        if(position == null)
+            update(key, 0, 0, 0, 0, false);
+        else
+            update(key, position.getX(), position.getY(), position.getZ(), position.getRotation(), position.getFoundPattern());
+    }
+
+    /**
+     * Set the position of a device, adding it if it is unknown, and evaluate the specs it can affect.
+     */
+    public void update(String key, double x, double y, double z, double rotation, boolean foundPattern){
+        List<Event> events = new ArrayList<>();
+        Listener current;
+        synchronized(this){
+            if(!indices.containsKey(key)){
+                indices.put(key, keys.size());
+                keys.add(key);
+            }
+            relations.update(key, x, y, z, rotation, foundPattern);
+            lineArrangement.update(key, x, y, rotation, foundPattern);
+            evaluate(events);
+            current = listener;
+        }
+        notify(current, events);
+    }
+
+    public void remove(String key){
+        List<Event> events = new ArrayList<>();
+        Listener current;
+        synchronized(this){
+            Integer index = indices.remove(key);
+            if(index == null)
+                return;
+            //Move the last device into the gap
+            String last = keys.remove(keys.size() - 1);
+            if(index < keys.size()){
+                keys.set(index, last);
+                indices.put(last, index);
+            }
+            relations.remove(key);
+            lineArrangement.remove(key);
+            evaluate(events);
+            current = listener;
+        }
+        notify(current, events);
+    }
+
+    private void evaluate(List<Event> events){
+        if(states.isEmpty())
+            return;
+        long changes = relations.getChangeCount();
+        boolean relationsChanged = changes != evaluatedChanges;
+        evaluatedChanges = changes;
+
+        LineArrangement.Arrangement line = null;
+        for(State state : states.values()){
+            if(state.spec.getType() == ArrangementSpec.TYPE_LINE){
+                if(line == null)
+                    line = lineArrangement.arrange();
+                evaluate(state, line, events);
+            }else if(relationsChanged){
+                evaluate(state, null, events);
+            }
+        }
+    }
+
+    /**
+     * Evaluate one spec and add an event if its outcome flipped.
+     */
+    private void evaluate(State state, LineArrangement.Arrangement line, List<Event> events){
+        List<String> devices;
+        switch(state.spec.getType()){
+            case ArrangementSpec.TYPE_LINE:
+                devices = findLine(state.spec, line);
+                break;
+            case ArrangementSpec.TYPE_CLUSTER:
+                devices = findCluster(state.spec);
+                break;
+            case ArrangementSpec.TYPE_GRID:
+                devices = findGrid(state.spec);
+                break;
+            default:
+                devices = findFacingPair(state.spec);
+                break;
+        }
+
+        boolean satisfied = devices != null;
+        if(satisfied != state.satisfied){
+            state.satisfied = satisfied;
+            if(satisfied)
+                state.devices = devices;
+            events.add(new Event(state.spec, satisfied, state.devices));
+        }else if(satisfied){
+            state.devices = devices;
+        }
+    }
+
+    private List<String> findLine(ArrangementSpec spec, LineArrangement.Arrangement line){
+        if(line.size() < spec.getSize())
+            return null;
+        List<String> order = spec.getDevices();
+        if(!order.isEmpty()){
+            if(line.size() != order.size())
+                return null;
+            for(int i = 0; i < order.size(); i++){
+                if(!order.get(i).equals(line.getKey(i)))
+                    return null;
+            }
+        }
+        List<String> devices = new ArrayList<>(line.size());
+        for(int i = 0; i < line.size(); i++)
+            devices.add(line.getKey(i));
+        return devices;
+    }
+
+    private List<String> findCluster(ArrangementSpec spec){
+        int size = keys.size();
+        DisjointSet set = new DisjointSet(size);
+        for(int first = 0; first < size; first++){
+            for(String other : relations.getRelated(keys.get(first), RelationMatrix.NEXT_TO_HORIZONTAL))
+                set.union(first, indices.get(other));
+        }
+
+        //The first group of the right size that contains all members
+        List<String> members = spec.getDevices();
+        for(int root = 0; root < size; root++){
+            if(set.find(root) != root || set.getSetSize(root) != spec.getSize())
+                continue;
+            List<String> group = new ArrayList<>(spec.getSize());
+            for(int i = 0; i < size; i++){
+                if(set.find(i) == root)
+                    group.add(keys.get(i));
+            }
+            if(group.containsAll(members))
+                return group;
+        }
+        return null;
+    }
+
+    private List<String> findGrid(ArrangementSpec spec){
+        for(String topLeft : keys){
+            List<String> grid = buildGrid(topLeft, spec.getRows(), spec.getColumns());
+            if(grid != null)
+                return grid;
+        }
+        return null;
+    }
+
+    /**
+     * Walk to the right along every row and down along the first column.
+     * @return The devices row by row, null if the grid is not complete.
+     */
+    private List<String> buildGrid(String topLeft, int rows, int columns){
+        List<String> grid = new ArrayList<>(rows * columns);
+        String rowStart = topLeft;
+        for(int row = 0; row < rows; row++){
+            String cell = rowStart;
+            for(int column = 0; column < columns; column++){
+                if(column > 0)
+                    cell = next(cell, RelationMatrix.IN_LINE_HORIZONTAL);
+                if(cell == null || grid.contains(cell))
+                    return null;
+                //Every cell below the first row has to be below the cell above it
+                if(row > 0 && !relations.is(grid.get(grid.size() - columns), cell, RelationMatrix.IN_LINE_VERTICAL))
+                    return null;
+                grid.add(cell);
+            }
+            if(row < rows - 1){
+                rowStart = next(rowStart, RelationMatrix.IN_LINE_VERTICAL);
+                if(rowStart == null)
+                    return null;
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * @return The only device the given device has the relation with, null if there is none or more than one.
+     */
+    private String next(String key, int relation){
+        List<String> related = relations.getRelated(key, relation);
+        return related.size() == 1 ? related.get(0) : null;
+    }
+
+    private List<String> findFacingPair(ArrangementSpec spec){
+        List<String> members = spec.getDevices();
+        List<String> candidates = members.isEmpty() ? keys : members.subList(0, 1);
+        for(String first : candidates){
+            for(String second : relations.getRelated(first, RelationMatrix.FACING)){
+                List<String> pair = new ArrayList<>(2);
+                pair.add(first);
+                pair.add(second);
+                if(pair.containsAll(members))
+                    return pair;
+            }
+        }
+        return null;
+    }
+
+    private static void notify(Listener listener, List<Event> events){
+        if(listener == null)
+            return;
+        for(Event event : events)
+            listener.onArrangementChanged(event);
+    }
+}
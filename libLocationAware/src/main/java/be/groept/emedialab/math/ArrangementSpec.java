@@ -0,0 +1,133 @@
+package be.groept.emedialab.math;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Description of an arrangement of devices that an {@link ArrangementEngine} watches for.
+ * Specs are created with the static methods and can not be changed afterwards.
+ */
+public class ArrangementSpec {
+
+    /**
+     * Devices in a line, see {@link #line(String, int)} and {@link #orderedLine(String, List)}.
+     */
+    public static final int TYPE_LINE = 0;
+    /**
+     * Group of devices next to each other, see {@link #cluster(String, int, String...)}.
+     */
+    public static final int TYPE_CLUSTER = 1;
+    /**
+     * Devices in rows and columns, see {@link #grid(String, int, int)}.
+     */
+    public static final int TYPE_GRID = 2;
+    /**
+     * Two devices next to each other pointing in opposite directions, see {@link #facingPair(String, String...)}.
+     */
+    public static final int TYPE_FACING_PAIR = 3;
+
+    private final String name;
+    private final int type;
+    private final int size;
+    private final int rows;
+    private final int columns;
+    private final List<String> devices;
+
+    private ArrangementSpec(String name, int type, int size, int rows, int columns, List<String> devices){
+        if(name == null)
+            throw new IllegalArgumentException("Invalid value: a spec needs a name.");
+        this.name = name;
+        this.type = type;
+        this.size = size;
+        this.rows = rows;
+        this.columns = columns;
+        this.devices = Collections.unmodifiableList(new ArrayList<>(devices));
+    }
+
+    /**
+     * At least the given number of devices in a line, as found by {@link DistanceCalculation#getLine(java.util.Map)}.
+     * The devices of the events are in the order of the line.
+     */
+    public static ArrangementSpec line(String name, int size){
+        if(size < 2)
+            throw new IllegalArgumentException("Invalid value: a line needs at least 2 devices, not " + size + ".");
+        return new ArrangementSpec(name, TYPE_LINE, size, 1, size, Collections.<String>emptyList());
+    }
+
+    /**
+     * Exactly the given devices in a line, in the given order.
+     */
+    public static ArrangementSpec orderedLine(String name, List<String> order){
+        if(order.size() < 2)
+            throw new IllegalArgumentException("Invalid value: a line needs at least 2 devices, not " + order.size() + ".");
+        return new ArrangementSpec(name, TYPE_LINE, order.size(), 1, order.size(), order);
+    }
+
+    /**
+     * A group of exactly the given number of devices, connected through devices next to each other like in
+     * {@link DistanceCalculation#getGroups(java.util.Map)}. A group of 1 is a device without neighbours.
+     * @param members Devices that have to be in the group.
+     */
+    public static ArrangementSpec cluster(String name, int size, String... members){
+        if(size < 1 || members.length > size)
+            throw new IllegalArgumentException("Invalid value: a cluster of " + size + " with " + members.length + " members.");
+        return new ArrangementSpec(name, TYPE_CLUSTER, size, 0, 0, Arrays.asList(members));
+    }
+
+    /**
+     * Devices in rows next to each other and columns below each other, all pointing in the same direction.
+     * The devices of the events are row by row, starting at the top left.
+     */
+    public static ArrangementSpec grid(String name, int rows, int columns){
+        if(rows < 1 || columns < 1 || rows * columns < 2)
+            throw new IllegalArgumentException("Invalid value: a grid of " + rows + " by " + columns + ".");
+        return new ArrangementSpec(name, TYPE_GRID, rows * columns, rows, columns, Collections.<String>emptyList());
+    }
+
+    /**
+     * Two devices next to each other, pointing in opposite directions.
+     * @param members At most 2 devices that have to be in the pair.
+     */
+    public static ArrangementSpec facingPair(String name, String... members){
+        if(members.length > 2)
+            throw new IllegalArgumentException("Invalid value: a pair with " + members.length + " members.");
+        return new ArrangementSpec(name, TYPE_FACING_PAIR, 2, 1, 2, Arrays.asList(members));
+    }
+
+    public String getName(){
+        return name;
+    }
+
+    public int getType(){
+        return type;
+    }
+
+    /**
+     * @return Number of devices in the arrangement, the minimum for a {@link #line(String, int)}.
+     */
+    public int getSize(){
+        return size;
+    }
+
+    public int getRows(){
+        return rows;
+    }
+
+    public int getColumns(){
+        return columns;
+    }
+
+    /**
+     * @return The devices that have to take part, in order for an ordered line.
+     */
+    public List<String> getDevices(){
+        return devices;
+    }
+
+    @Override
+    public String toString(){
+        return "ArrangementSpec(" + name + ", type " + type + ", size " + size + ", devices " + devices + ")";
+    }
+}
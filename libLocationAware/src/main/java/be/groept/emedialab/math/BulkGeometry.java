@@ -0,0 +1,278 @@
+package be.groept.emedialab.math;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import be.groept.emedialab.server.data.PositionStore;
+
+/**
+ * Pairwise geometry over primitive position arrays, for large numbers of (simulated) devices.
+ *
+ * The rows of every kernel are split in blocks that run on a fixed pool of threads, the calling thread computes the
+ * first block itself. Below {@link #SERIAL_THRESHOLD} devices everything runs on the calling thread, splitting costs
+ * more than it gains there.
+ * Devices that are not valid (pattern not found, free slot) have no distance and no neighbours.
+ */
+public class BulkGeometry {
+
+    /**
+     * Number of devices below which the kernels do not split the work.
+     */
+    public static final int SERIAL_THRESHOLD = 128;
+
+    private final int threads;
+    private final ExecutorService executor;
+
+    /**
+     * @param threads Number of threads to split the work over, including the calling thread. 1 runs everything serial.
+     */
+    public BulkGeometry(int threads){
+        if(threads < 1)
+            throw new IllegalArgumentException("Invalid value: " + threads);
+        this.threads = threads;
+        if(threads == 1){
+            executor = null;
+        }else{
+            executor = Executors.newFixedThreadPool(threads - 1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "BulkGeometry");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    public int getThreads(){
+        return threads;
+    }
+
+    /**
+     * Stop the threads of the pool. The kernels can not be used afterwards.
+     */
+    public void shutdown(){
+        if(executor != null)
+            executor.shutdown();
+    }
+
+    /**
+     * @see #distanceMatrix(double[], double[], boolean[], int, double[])
+     */
+    public double[] distanceMatrix(PositionStore.Snapshot snapshot, double[] result){
+        return distanceMatrix(snapshot.x, snapshot.y, snapshot.found, snapshot.size(), result);
+    }
+
+    /**
+     * Distance between every pair of devices.
+     * @param valid Devices to take into account, null for all.
+     * @param result Array to reuse, a new one is created if it is null or smaller than size * size.
+     * @return result[first * size + second] holds the distance in cm, {@link Double#POSITIVE_INFINITY} if either
+     * device is not valid.
+     */
+    public double[] distanceMatrix(final double[] x, final double[] y, final boolean[] valid, final int size, double[] result){
+        final double[] matrix = result != null && result.length >= size * size ? result : new double[size * size];
+        forRows(size, new RowTask() {
+            @Override
+            public void run(int from, int to) {
+                for(int first = from; first < to; first++){
+                    int row = first * size;
+                    boolean firstValid = valid == null || valid[first];
+                    for(int second = 0; second < size; second++){
+                        if(firstValid && (valid == null || valid[second])){
+                            double dx = x[second] - x[first];
+                            double dy = y[second] - y[first];
+                            matrix[row + second] = Math.sqrt(dx * dx + dy * dy);
+                        }else{
+                            matrix[row + second] = Double.POSITIVE_INFINITY;
+                        }
+                    }
+                }
+            }
+        });
+        return matrix;
+    }
+
+    /**
+     * @see #neighbours(double[], double[], boolean[], int, double, Neighbours)
+     */
+    public Neighbours neighbours(PositionStore.Snapshot snapshot, double radius, Neighbours reuse){
+        return neighbours(snapshot.x, snapshot.y, snapshot.found, snapshot.size(), radius, reuse);
+    }
+
+    /**
+     * Neighbours of every device: the other valid devices within the radius.
+     * @param valid Devices to take into account, null for all.
+     * @param radius Distance in cm.
+     * @param reuse Lists of an earlier call to fill in, or null to create new ones.
+     * @return The filled in lists.
+     */
+    public Neighbours neighbours(final double[] x, final double[] y, final boolean[] valid, final int size, double radius, Neighbours reuse){
+        final Neighbours neighbours = reuse == null ? new Neighbours() : reuse;
+        final double radiusSquared = radius * radius;
+        if(neighbours.offsets.length < size + 1)
+            neighbours.offsets = new int[size + 1];
+        final int[] offsets = neighbours.offsets;
+
+        //Count the neighbours of every row, so they can be written in one array without locking
+        forRows(size, new RowTask() {
+            @Override
+            public void run(int from, int to) {
+                for(int first = from; first < to; first++){
+                    int count = 0;
+                    if(valid == null || valid[first]){
+                        for(int second = 0; second < size; second++){
+                            if(isNeighbour(x, y, valid, first, second, radiusSquared))
+                                count++;
+                        }
+                    }
+                    offsets[first + 1] = count;
+                }
+            }
+        });
+        offsets[0] = 0;
+        for(int i = 0; i < size; i++)
+            offsets[i + 1] += offsets[i];
+
+        if(neighbours.indices.length < offsets[size])
+            neighbours.indices = new int[offsets[size]];
+        final int[] indices = neighbours.indices;
+        forRows(size, new RowTask() {
+            @Override
+            public void run(int from, int to) {
+                for(int first = from; first < to; first++){
+                    int index = offsets[first];
+                    if(index == offsets[first + 1])
+                        continue;
+                    for(int second = 0; second < size; second++){
+                        if(isNeighbour(x, y, valid, first, second, radiusSquared))
+                            indices[index++] = second;
+                    }
+                }
+            }
+        });
+        neighbours.size = size;
+        return neighbours;
+    }
+
+    /**
+     * @see #groupLabels(double[], double[], boolean[], int, double, int[])
+     */
+    public int[] groupLabels(PositionStore.Snapshot snapshot, double radius, int[] result){
+        return groupLabels(snapshot.x, snapshot.y, snapshot.found, snapshot.size(), radius, result);
+    }
+
+    /**
+     * Label the groups of devices that are connected through neighbours within the radius.
+     * The neighbour lists are computed in parallel, joining them is nearly linear in the number of pairs.
+     * @param valid Devices to take into account, null for all.
+     * @param radius Distance in cm.
+     * @param result Array to reuse, a new one is created if it is null or smaller than size.
+     * @return result[device] holds the lowest index in the group of the device, -1 if the device is not valid.
+     */
+    public int[] groupLabels(double[] x, double[] y, boolean[] valid, int size, double radius, int[] result){
+        int[] labels = result != null && result.length >= size ? result : new int[size];
+        Neighbours neighbours = neighbours(x, y, valid, size, radius, null);
+        DisjointSet set = new DisjointSet(size);
+        for(int first = 0; first < size; first++){
+            for(int i = neighbours.offsets[first]; i < neighbours.offsets[first + 1]; i++){
+                //Every pair is in both lists, join it once
+                if(neighbours.indices[i] > first)
+                    set.union(first, neighbours.indices[i]);
+            }
+        }
+
+        //Labels go to the root first, so the lowest index of every group is found in one pass
+        int[] lowest = new int[size];
+        for(int i = size - 1; i >= 0; i--)
+            lowest[set.find(i)] = i;
+        for(int i = 0; i < size; i++)
+            labels[i] = valid == null || valid[i] ? lowest[set.find(i)] : -1;
+        return labels;
+    }
+
+    private static boolean isNeighbour(double[] x, double[] y, boolean[] valid, int first, int second, double radiusSquared){
+        if(first == second || (valid != null && !valid[second]))
+            return false;
+        double dx = x[second] - x[first];
+        double dy = y[second] - y[first];
+        return dx * dx + dy * dy <= radiusSquared;
+    }
+
+    /**
+     * Run the task over the rows 0 to size - 1, split in one block per thread.
+     */
+    private void forRows(int size, RowTask task){
+        if(executor == null || size < SERIAL_THRESHOLD){
+            task.run(0, size);
+            return;
+        }
+
+        int block = (size + threads - 1) / threads;
+        Future<?>[] futures = new Future<?>[threads - 1];
+        for(int i = 1; i < threads; i++){
+            final int from = Math.min(i * block, size);
+            final int to = Math.min(from + block, size);
+            final RowTask rowTask = task;
+            futures[i - 1] = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    rowTask.run(from, to);
+                }
+            });
+        }
+        task.run(0, Math.min(block, size));
+
+        try{
+            for(Future<?> future : futures)
+                future.get();
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the other rows", e);
+        }catch(ExecutionException e){
+            throw new IllegalStateException("Computing the rows failed", e.getCause());
+        }
+    }
+
+    private interface RowTask {
+        /**
+         * @param from First row, inclusive.
+         * @param to Last row, exclusive.
+         */
+        void run(int from, int to);
+    }
+
+    /**
+     * Neighbour lists of all devices in two arrays: the neighbours of device i are
+     * indices[offsets[i]] up to indices[offsets[i + 1]], in increasing order.
+     */
+    public static class Neighbours {
+        private int size = 0;
+        public int[] offsets = new int[1];
+        public int[] indices = new int[0];
+
+        /**
+         * @return Number of devices.
+         */
+        public int size(){
+            return size;
+        }
+
+        /**
+         * @return Number of neighbours of the device.
+         */
+        public int count(int device){
+            return offsets[device + 1] - offsets[device];
+        }
+
+        /**
+         * @return The index of the n-th neighbour of the device.
+         */
+        public int get(int device, int n){
+            return indices[offsets[device] + n];
+        }
+    }
+}
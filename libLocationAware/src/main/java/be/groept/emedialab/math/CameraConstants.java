@@ -9,6 +9,10 @@ public class CameraConstants {
 
     private static CameraConstants instance = null;
 
+    //Resolution in pixels of the frames the ex and ey values were measured in
+    public static final double CALIBRATION_WIDTH = 640;
+    public static final double CALIBRATION_HEIGHT = 480;
+
     //Value in pixels
     private double ex;
     //Value in pixels
@@ -18,6 +22,13 @@ public class CameraConstants {
     //ID on the back of the phone
     private int id;
 
+    //Lens calibration in pixels of the calibration resolution, no correction when the coefficients are null
+    private double fx;
+    private double fy;
+    private double cx;
+    private double cy;
+    private double[] distortionCoefficients = null;
+
     private int counter = -30;
     private int cameraFrames = 0;
     private int maxCameraFrames = 5;
@@ -98,4 +109,69 @@ public class CameraConstants {
     public int getId(){
         return id;
     }
+
+    /**
+     * Sets the lens calibration of this phone, as measured with OpenCV's calibrateCamera in frames of
+     * {@link #CALIBRATION_WIDTH} by {@link #CALIBRATION_HEIGHT}.
+     * @param distortionCoefficients Distortion coefficients in OpenCV order (k1, k2, p1, p2[, k3]),
+     *                               null to disable the correction.
+     */
+    public void setLensCalibration(double fx, double fy, double cx, double cy, double[] distortionCoefficients){
+        if(distortionCoefficients != null && distortionCoefficients.length != 4 && distortionCoefficients.length != 5)
+            throw new IllegalArgumentException("Invalid value: " + distortionCoefficients.length + " distortion coefficients");
+        this.fx = fx;
+        this.fy = fy;
+        this.cx = cx;
+        this.cy = cy;
+        this.distortionCoefficients = distortionCoefficients;
+    }
+
+    /**
+     * Sets the lens calibration from a preference.
+     * @param calibration "fx, fy, cx, cy, k1, k2, p1, p2[, k3]" as in {@link #setLensCalibration(double, double, double, double, double[])},
+     *                    empty or null to disable the correction.
+     */
+    public void setLensCalibration(String calibration){
+        if(calibration == null || calibration.trim().isEmpty()){
+            setLensCalibration(0, 0, 0, 0, null);
+            return;
+        }
+        String[] values = calibration.split(",");
+        if(values.length != 8 && values.length != 9)
+            throw new IllegalArgumentException("Invalid value: " + calibration);
+        double[] numbers = new double[values.length];
+        try{
+            for(int i = 0; i < values.length; i++)
+                numbers[i] = Double.parseDouble(values[i].trim());
+        }catch(NumberFormatException e){
+            throw new IllegalArgumentException("Invalid value: " + calibration);
+        }
+        double[] distortionCoefficients = new double[values.length - 4];
+        System.arraycopy(numbers, 4, distortionCoefficients, 0, distortionCoefficients.length);
+        setLensCalibration(numbers[0], numbers[1], numbers[2], numbers[3], distortionCoefficients);
+    }
+
+    public boolean hasLensCalibration(){
+        return distortionCoefficients != null;
+    }
+
+    public double getFx(){
+        return fx;
+    }
+
+    public double getFy(){
+        return fy;
+    }
+
+    public double getCx(){
+        return cx;
+    }
+
+    public double getCy(){
+        return cy;
+    }
+
+    public double[] getDistortionCoefficients(){
+        return distortionCoefficients;
+    }
 }
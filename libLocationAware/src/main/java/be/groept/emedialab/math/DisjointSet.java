@@ -0,0 +1,83 @@
+package be.groept.emedialab.math;
+
+/**
+ * Disjoint-set (union-find) over the elements 0 to size - 1.
+ * Uses union by size and path compression, so every operation takes nearly constant time.
+ */
+public class DisjointSet {
+
+    private final int[] parent;
+    private final int[] size;
+    private int count;
+
+    public DisjointSet(int size){
+        parent = new int[size];
+        this.size = new int[size];
+        count = size;
+        for(int i = 0; i < size; i++){
+            parent[i] = i;
+            this.size[i] = 1;
+        }
+    }
+
+    /**
+     * @return The representative of the set containing the element.
+     */
+    public int find(int element){
+        int root = element;
+        while(parent[root] != root)
+            root = parent[root];
+
+        //Point every element on the path directly to the root
+        while(parent[element] != root){
+            int next = parent[element];
+            parent[element] = root;
+            element = next;
+        }
+        return root;
+    }
+
+    /**
+     * Merge the sets containing both elements.
+     * @return False if the elements were already in the same set.
+     */
+    public boolean union(int first, int second){
+        int firstRoot = find(first);
+        int secondRoot = find(second);
+        if(firstRoot == secondRoot)
+            return false;
+
+        //Attach the smaller tree to the larger one
+        if(size[firstRoot] < size[secondRoot]){
+            int swap = firstRoot;
+            firstRoot = secondRoot;
+            secondRoot = swap;
+        }
+        parent[secondRoot] = firstRoot;
+        size[firstRoot] += size[secondRoot];
+        count--;
+        return true;
+    }
+
+    public boolean connected(int first, int second){
+        return find(first) == find(second);
+    }
+
+    /**
+     * @return Number of disjoint sets.
+     */
+    public int getCount(){
+        return count;
+    }
+
+    public int getSize(){
+        return parent.length;
+    }
+
+    /**
+     * @return Number of elements in the set containing the element.
+     */
+    public int getSetSize(int element){
+        return size[find(element)];
+    }
+}
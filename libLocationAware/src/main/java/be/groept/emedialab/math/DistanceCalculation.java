@@ -6,19 +6,9 @@ import org.opencv.core.Core;
 import org.opencv.core.Point;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.ConcurrentModificationException;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
-import java.util.SortedSet;
-import java.util.TreeMap;
-import java.util.TreeSet;
 
 import be.groept.emedialab.server.data.Device;
 import be.groept.emedialab.server.data.Position;
@@ -35,9 +25,14 @@ public class DistanceCalculation {
     public static final double MARGIN_MIDDLE = 3.0;
     public static final double MARGIN_WIDE = 8.0;
 
-    private static final double DISTANCE_TOLERATION = 5.0;
-    private static final double DISTANCE_BETWEEN_TOLERATION = 12.0;
-    private static final double ANGLE_TOLERATION = 45;
+    static final double DISTANCE_TOLERATION = 5.0;
+    static final double DISTANCE_BETWEEN_TOLERATION = 12.0;
+    static final double ANGLE_TOLERATION = 45;
+
+    /**
+     * Largest distance in cm at which any of the proximity checks considers two devices neighbours.
+     */
+    public static final double MAX_NEIGHBOUR_DISTANCE = DISTANCE_BETWEEN_TOLERATION;
 
     public static double getDistance(Point point1, Point point2){
         return Math.sqrt(Math.pow(point1.x - point2.x, 2) + Math.pow(point1.y - point2.y, 2));
@@ -69,24 +64,41 @@ public class DistanceCalculation {
     public static boolean isNextToAndOriented(Position position1, Position position2){
         double rotation1 = position1.getRotation();
         double rotation2 = position2.getRotation();
-        double rotationDiff = Math.abs(rotation1 - rotation2);
-        return ( isNextTo(position1, position2) && rotationDiff < 20 && Math.abs(position1.getZ() - position2.getZ()) <= 5);
+        return ( isNextTo(position1, position2) && isOriented(rotation1, rotation2) && isSameHeight(position1.getZ(), position2.getZ()));
+    }
+
+    /**
+     * @return True if the rotations in degrees differ less than 20 degrees, also across 0 degrees.
+     */
+    static boolean isOriented(double rotation1, double rotation2){
+        return Math.abs(AngleStatistics.difference(rotation1, rotation2)) < 20;
+    }
+
+    /**
+     * @return True if the rotations in degrees point in opposite directions, within 20 degrees.
+     */
+    static boolean isFacing(double rotation1, double rotation2){
+        return Math.abs(AngleStatistics.difference(rotation1, rotation2)) > 160;
+    }
+
+    /**
+     * @return True if the distances to the camera differ at most 5 cm.
+     */
+    static boolean isSameHeight(double z1, double z2){
+        return Math.abs(z1 - z2) <= 5;
     }
 
     public static boolean isNextToHorizontal(Position position1, Position position2, double margin){
-        double rotation1 = position1.getRotation();
-        double rotation2 = position2.getRotation();
-        //Rotate the position back to the coordinate system of the phone
-        Point coordinates1 = new Point(
-                position1.getX() * Math.cos(Math.toRadians(rotation1)) - position1.getY() * Math.sin(Math.toRadians(rotation1)),
-                position1.getX() * Math.sin(Math.toRadians(rotation1)) + position1.getY() * Math.cos(Math.toRadians(rotation1))
-        );
-        Point coordinates2 = new Point(
-                position2.getX() * Math.cos(Math.toRadians(rotation2)) - position2.getY() * Math.sin(Math.toRadians(rotation2)),
-                position2.getX() * Math.sin(Math.toRadians(rotation2)) + position2.getY() * Math.cos(Math.toRadians(rotation2))
-        );
-
-        return Math.abs(coordinates1.y - coordinates2.y) <= 10 && Math.abs(coordinates1.x - coordinates2.x) <= margin;
+        //Rotated back to the coordinate system of the phone, cached in the positions
+        return isNextToHorizontal(position1.getPhoneX(), position1.getPhoneY(), position2.getPhoneX(), position2.getPhoneY(), margin);
+    }
+
+    /**
+     * Same as {@link #isNextToHorizontal(Position, Position, double)}, with the positions already rotated
+     * back to the coordinate system of the phone.
+     */
+    static boolean isNextToHorizontal(double x1, double y1, double x2, double y2, double margin){
+        return Math.abs(y1 - y2) <= 10 && Math.abs(x1 - x2) <= margin;
     }
 
     /**
@@ -102,22 +114,20 @@ public class DistanceCalculation {
     public static boolean isNextInLineHorizontal(Position position1, Position position2, double margin){
         double rotation1 = position1.getRotation();
         double rotation2 = position2.getRotation();
-        if(Math.abs(rotation1 - rotation2) >= 20)
+        if(!isOriented(rotation1, rotation2))
             return false;
 
-        //Rotate the position back to the coordinate system of the phone
-        Point coordinates1 = new Point(
-                position1.getX() * Math.cos(Math.toRadians(rotation1)) - position1.getY() * Math.sin(Math.toRadians(rotation1)),
-                position1.getX() * Math.sin(Math.toRadians(rotation1)) + position1.getY() * Math.cos(Math.toRadians(rotation1))
-        );
-        Point coordinates2 = new Point(
-                position2.getX() * Math.cos(Math.toRadians(rotation2)) - position2.getY() * Math.sin(Math.toRadians(rotation2)),
-                position2.getX() * Math.sin(Math.toRadians(rotation2)) + position2.getY() * Math.cos(Math.toRadians(rotation2))
-        );
-        Log.d(TAG, "Position 1: " + coordinates1.x + ", " + coordinates1.y);
-        Log.d(TAG, "Position 2: " + coordinates2.x + ", " + coordinates2.y);
+        //Rotated back to the coordinate system of the phone, cached in the positions
+        return isNextInLineHorizontal(position1.getPhoneX(), position1.getPhoneY(), position2.getPhoneX(), position2.getPhoneY(), margin);
+    }
+
+    /**
+     * Same as {@link #isNextInLineHorizontal(Position, Position, double)} without the rotation check,
+     * with the positions already rotated back to the coordinate system of the phone.
+     */
+    static boolean isNextInLineHorizontal(double x1, double y1, double x2, double y2, double margin){
         //Coordinates 2 needs to be to the right of coordinates1
-        return Math.abs(coordinates1.x - coordinates2.x) <= margin && coordinates1.y - coordinates2.y > 0 && coordinates1.y - coordinates2.y <= 10;
+        return Math.abs(x1 - x2) <= margin && y1 - y2 > 0 && y1 - y2 <= 10;
     }
 
     /**
@@ -152,22 +162,20 @@ public class DistanceCalculation {
     public static boolean isNextInLineVertical(Position position1, Position position2, int margin){
         double rotation1 = position1.getRotation();
         double rotation2 = position2.getRotation();
-        if(Math.abs(rotation1 - rotation2) >= 20)
+        if(!isOriented(rotation1, rotation2))
             return false;
 
-        //Rotate the position back to the coordinate system of the phone
-        Point coordinates1 = new Point(
-                position1.getX() * Math.cos(Math.toRadians(rotation1)) - position1.getY() * Math.sin(Math.toRadians(rotation1)),
-                position1.getX() * Math.sin(Math.toRadians(rotation1)) + position1.getY() * Math.cos(Math.toRadians(rotation1))
-        );
-        Point coordinates2 = new Point(
-                position2.getX() * Math.cos(Math.toRadians(rotation2)) - position2.getY() * Math.sin(Math.toRadians(rotation2)),
-                position2.getX() * Math.sin(Math.toRadians(rotation2)) + position2.getY() * Math.cos(Math.toRadians(rotation2))
-        );
-        Log.d(TAG, "Position 1: " + coordinates1.x + ", " + coordinates1.y);
-        Log.d(TAG, "Position 2: " + coordinates2.x + ", " + coordinates2.y);
+        //Rotated back to the coordinate system of the phone, cached in the positions
+        return isNextInLineVertical(position1.getPhoneX(), position1.getPhoneY(), position2.getPhoneX(), position2.getPhoneY(), margin);
+    }
+
+    /**
+     * Same as {@link #isNextInLineVertical(Position, Position, int)} without the rotation check,
+     * with the positions already rotated back to the coordinate system of the phone.
+     */
+    static boolean isNextInLineVertical(double x1, double y1, double x2, double y2, double margin){
         //Assuming that coordinates1 needs to be above coordinates2:
-        return Math.abs(coordinates1.y - coordinates2.y) <= margin && coordinates2.x - coordinates1.x > 0 && coordinates2.x - coordinates1.x <= 12;
+        return Math.abs(y1 - y2) <= margin && x2 - x1 > 0 && x2 - x1 <= 12;
     }
 
     /**
@@ -185,276 +193,86 @@ public class DistanceCalculation {
         return isNextInLineVertical(device1.getPosition(), device2.getPosition(), margin);
     }
 
-    public static ArrayList<ArrayList<Device>> getGroups(ArrayList<Device> allDevices){
-        ArrayList<ArrayList<Device>> allGroups = new ArrayList<>();
-        int iteration = 0;
-        for(Device device: allDevices){
-            Log.d(TAG, "Device id " + device.getId());
-            if(iteration == 0) {
-                ArrayList<Device> group = new ArrayList<>();
-                group.add(device);
-                allGroups.add(group);
-                iteration++;
-            } else{
-                boolean foundGroup = false;
-                int numberOfGroups = 0;
-                ArrayList<ArrayList<Device>> foundGroups = new ArrayList<>();
-                for (ArrayList<Device> devices: allGroups) {
-                    for(Device otherDevice: devices){
-                        if(isNextTo(otherDevice, device)) {
-                            devices.add(device);
-                            foundGroup = true;
-                            foundGroups.add(devices);
-                            numberOfGroups++;
-                        }
-
-                    }
-                }
-                if(numberOfGroups > 1){
-                    ArrayList<Device> mergeGroup = new ArrayList<>();
-                    for(ArrayList<Device> otherGroup: foundGroups){
-                        for (Device groupDevice: otherGroup) {
-                            mergeGroup.add(groupDevice);
-                        }
-                        allGroups.remove(otherGroup);
-                    }
-                    allGroups.add(mergeGroup);
-                }
-                if(!foundGroup){
-                    ArrayList<Device> newGroup = new ArrayList<>();
-                    newGroup.add(device);
-                    allGroups.add(newGroup);
-                }
-            }
+    /**
+     * Devices are next to each other according to {@link #isNextTo(Device, Device)}.
+     */
+    private static final Proximity<Device> DEVICE_PROXIMITY = new Proximity<Device>() {
+        @Override
+        public boolean isNear(Device first, Device second) {
+            return isNextTo(first, second);
         }
-        return allGroups;
+    };
+
+    /**
+     * Devices are next to each other according to {@link #isNextToHorizontal(Position, Position, double)},
+     * devices without pattern are never next to anything.
+     */
+    private static final Proximity<Map.Entry<String, Position>> POSITION_PROXIMITY = new Proximity<Map.Entry<String, Position>>() {
+        @Override
+        public boolean isNear(Map.Entry<String, Position> first, Map.Entry<String, Position> second) {
+            Position position1 = first.getValue();
+            Position position2 = second.getValue();
+            return isFound(position1) && isFound(position2) && isNextToHorizontal(position1, position2, MARGIN_MIDDLE);
+        }
+    };
+
+    private static boolean isFound(Position position){
+        return position != null && position.getFoundPattern();
+    }
+
+    /**
+     * Group devices that are connected through a chain of devices next to each other.
+     * @return The groups, in the order of their first device in the list.
+     */
+    public static ArrayList<ArrayList<Device>> getGroups(ArrayList<Device> allDevices){
+        //Devices further apart than 10 cm along the x-axis can never be next to each other
+        double[] keys = new double[allDevices.size()];
+        for(int i = 0; i < keys.length; i++)
+            keys[i] = allDevices.get(i).getPosition().getX();
+        return ProximityClustering.cluster(allDevices, keys, 10, DEVICE_PROXIMITY);
     }
 
+    /**
+     * Group devices that are connected through a chain of devices next to each other horizontally.
+     * Devices whose pattern is not found end up in a group on their own.
+     * @param allDevices Positions of the devices by their address.
+     * @return The groups, in the order of their first device in the map.
+     */
     public static ArrayList<HashMap<String, Position>> getGroups(Map<String, Position> allDevices){
-        ArrayList<HashMap<String, Position>> allGroups = new ArrayList<>();
-        int iteration = 0;
-        for(String key: allDevices.keySet()){
-            if(iteration == 0){
-                HashMap<String, Position> group = new HashMap<>();
-                if(allDevices.get(key) != null && allDevices.get(key).getFoundPattern()) {
-                    group.put(key, allDevices.get(key));
-                    allGroups.add(group);
-                    iteration++;
-                }
-            } else{
-                boolean foundGroup = false;
-                int numberOfGroups = 0;
-                ArrayList<HashMap<String, Position>> foundGroups = new ArrayList<>();
-                for(HashMap<String, Position> devices: allGroups){
-                    try {
-                        for (String mac : devices.keySet()) {
-                            if(devices.get(mac) != null && allDevices.get(key) != null && devices.get(mac).getFoundPattern() && allDevices.get(key).getFoundPattern()) {
-                                if (isNextToHorizontal(devices.get(mac), allDevices.get(key), 3)) {
-                                    devices.put(key, allDevices.get(key));
-                                    foundGroup = true;
-                                    foundGroups.add(devices);
-                                    numberOfGroups++;
-                                }
-                            }
-                        }
-                    }
-                    catch(ConcurrentModificationException e){
-                        e.printStackTrace();
-                    }
-                }
-                if(numberOfGroups > 1){
-                    HashMap<String, Position> mergeGroup = new HashMap<>();
-                    for(HashMap<String, Position> otherGroup: foundGroups){
-                        for(String macAddress: otherGroup.keySet())
-                            mergeGroup.put(macAddress, otherGroup.get(macAddress));
-                        allGroups.remove(otherGroup);
-                    }
-                    allGroups.add(mergeGroup);
-                }
-                if(!foundGroup){
-                    HashMap<String, Position> newGroup = new HashMap<>();
-                    newGroup.put(key, allDevices.get(key));
-                    allGroups.add(newGroup);
-                }
-            }
+        ArrayList<Map.Entry<String, Position>> entries = new ArrayList<>(allDevices.entrySet());
+
+        //Devices further apart than the margin along the x-axis of the phone can never be next to each other
+        double[] keys = new double[entries.size()];
+        for(int i = 0; i < keys.length; i++){
+            Position position = entries.get(i).getValue();
+            keys[i] = isFound(position) ? position.getPhoneX() : 0;
+        }
+        ArrayList<ArrayList<Map.Entry<String, Position>>> entryGroups = ProximityClustering.cluster(entries, keys, MARGIN_MIDDLE, POSITION_PROXIMITY);
+
+        ArrayList<HashMap<String, Position>> allGroups = new ArrayList<>(entryGroups.size());
+        for(ArrayList<Map.Entry<String, Position>> entryGroup : entryGroups){
+            HashMap<String, Position> group = new HashMap<>();
+            for(Map.Entry<String, Position> entry : entryGroup)
+                group.put(entry.getKey(), entry.getValue());
+            allGroups.add(group);
         }
         return allGroups;
     }
 
     /**
      * Based on http://hotmath.com/hotmath_help/topics/line-of-best-fit.html
+     * Fits a line through the devices whose pattern is found and returns the devices close to that line,
+     * ordered along it. Games that call this on every update should keep a {@link LineArrangement} instead.
+     * @return The devices in line with their position projected on the line, empty if there is a gap in the line.
      */
     public static LinkedHashMap<String, Point> getLine(Map<String, Position> devices){
-        //TODO: check for NaN
-        Map<String, Point> devicesInRow = new TreeMap<>();
         Log.d(TAG, "Getting best line for " + devices.size() + " devices.");
-
+        LineArrangement lineArrangement = new LineArrangement(LineArrangement.FIT_ORDINARY);
         for(Map.Entry<String, Position> entry : devices.entrySet()){
-            Log.d(TAG, "Device " + entry.getKey() + ", values " + entry.getValue());
-        }
-
-        //Remove devices without position
-        Iterator it = devices.entrySet().iterator();
-        while(it.hasNext()){
-            Map.Entry entry = (Map.Entry) it.next();
-            Position pos = (Position) entry.getValue();
-            if(!pos.getFoundPattern()){
-                it.remove();
-                Log.e(TAG, "Device " + entry.getKey() + "'s pattern is not found.");
-            }
-        }
-
-        double xAverage = 0.0;
-        double yAverage = 0.0;
-        double rotAverage = 0.0;
-        for(Position position : devices.values()){
-            xAverage += position.getX();
-            yAverage += position.getY();
-            rotAverage += position.getRotation();
+            lineArrangement.update(entry.getKey(), entry.getValue());
         }
-        xAverage /= devices.size();
-        yAverage /= devices.size();
-        rotAverage /= devices.size();
-
-        Log.d(TAG, "xAverage[" + xAverage +"] yAverage[" + yAverage + "] rotAverage[" + rotAverage + "]");
-
-        double numerator = 0.0;
-        double denominator = 0.0;
-        for(Position position : devices.values()){
-            numerator += ( position.getX() - xAverage ) * ( position.getY() - yAverage );
-            denominator += Math.pow((position.getX() - xAverage), 2);
-        }
-
-        double slope = numerator / denominator;
-
-        double yIntercept = yAverage - slope * xAverage;
-
-        final double A = slope;
-        double B = -1;
-        double C = yIntercept;
-        Log.d(TAG, "Line: Ax + By + C = 0 -> " + A + "*x + " + B + "*y + " + C + " = 0");
-
-        boolean angleUnderflow = false;
-        boolean angleOverflow = false;
-        double minAngle = rotAverage - ( ANGLE_TOLERATION / 2 );
-        if(minAngle < 0) {
-            minAngle += 360;
-            angleUnderflow = true;
-        }
-        double maxAngle = rotAverage + ( ANGLE_TOLERATION / 2 );
-        if(maxAngle > 360) {
-            maxAngle -= 360;
-            angleOverflow = true;
-        }
-
-        boolean invertOrder = false;
-        if(Double.isNaN(A)){
-            if(rotAverage < 90 && rotAverage > 270)
-                invertOrder = true;
-        }else{
-            if(rotAverage < 180)
-                invertOrder = true;
-        }
-
-        for(Map.Entry<String, Position> entry : devices.entrySet()){
-
-            double rotation = entry.getValue().getRotation();
-            boolean allowed = false;
-            if(!angleUnderflow && !angleOverflow){
-                if(rotation > minAngle && rotation < maxAngle){
-                    allowed = true;
-                }
-            }else{
-                if(rotation < maxAngle || rotation > minAngle){
-                    allowed = true;
-                }
-            }
-            if(allowed){
-                if(Double.isNaN(A)){ //A (rico) is NaN (Infinity) - perpendicular to x-axis (not a function!)
-                    if(Math.abs(entry.getValue().getX()) < DISTANCE_TOLERATION){ //TODO: change to entry.getValue().getX() - xAverage
-                        devicesInRow.put(entry.getKey(), new Point(xAverage, entry.getValue().getY()));
-                    }else{
-                        Log.e(TAG, "Device " + entry.getKey() + " is out of line!");
-                    }
-                }else{ // A exists!
-                    Log.d(TAG, "A is not NotANumber");
-                    double distance = Math.abs(A * entry.getValue().getX() + B * entry.getValue().getY() + C)/Math.sqrt(Math.pow(A, 2) + Math.pow(B, 2));
-                    //double distance = crossProduct(pointOne, pointTwo, new Point(entry.getValue().getX(), entry.getValue().getY())) / distance(pointOne, pointTwo);
-                    if(distance < DISTANCE_TOLERATION){
-                        Point pointOne = new Point(0, yIntercept);
-                        Point pointTwo = new Point(1, yIntercept + slope);
-
-                        //Store point on line
-                        double apx = entry.getValue().getX() - pointOne.x;
-                        double apy = entry.getValue().getY() - pointOne.y;
-                        double abx = pointTwo.x - pointOne.x;
-                        double aby = pointTwo.y - pointOne.y;
-
-                        double ab2 = abx * abx + aby * aby;
-                        double ap_ab = apx * abx + apy * aby;
-                        double t = ap_ab / ab2;
-                        Point point = new Point(pointOne.x + abx * t, pointOne.y + aby * t);
-                        Log.d(TAG, "Point: " + point);
-                        devicesInRow.put(entry.getKey(), point);
-                    }else{
-                        Log.e(TAG, "Device " + entry.getKey() + " is out of line!");
-                    }
-                }
-            }else{
-                Log.e(TAG, "Device " + entry.getKey() + " doesn't have the right orientation!");
-            }
-        }
-
-        //Sort map TODO: filter map for DISTANCE_ON_AXIS_MIN and DISTANCE_ON_AXIS_MAX
-        List<Map.Entry<String, Point>> entries = new LinkedList<>(devicesInRow.entrySet());
-        Collections.sort(entries, new Comparator<Map.Entry<String, Point>>() {
-            @Override
-            public int compare(Map.Entry<String, Point> o1, Map.Entry<String, Point> o2){
-                Double returner;
-                if(Double.isNaN(A)){ //parallel with y-axis - only y counts
-                    returner = o1.getValue().y - o2.getValue().y;
-                }else{
-                    returner = o1.getValue().x - o2.getValue().x;
-                }
-                return returner.intValue();
-            }
-        });
-        LinkedHashMap<String, Point> sortedMap = new LinkedHashMap<>();
-        for(Map.Entry<String, Point> entry: entries){
-            sortedMap.put(entry.getKey(), entry.getValue());
-        }
-        Log.d(TAG, "Sorted: " + sortedMap.toString());
-
-        // Check that the distance between the devices is small enough
-        Iterator iterator = sortedMap.entrySet().iterator();
-        Map.Entry<String, Point> previousEntry = null;
-        while(iterator.hasNext()){
-            Map.Entry<String, Point> entry = (Map.Entry) iterator.next();
-            if(previousEntry != null){
-                if(getDistance(previousEntry.getValue(), entry.getValue()) > DISTANCE_BETWEEN_TOLERATION){
-                    Log.d(TAG, "Distance toleration exceeded, returning empty list! " + getDistance(previousEntry.getValue(), entry.getValue()));
-                    return new LinkedHashMap<>();
-                }
-            }
-            previousEntry = entry;
-        }
-
-        // Optional inverting of order
-        LinkedHashMap<String, Point> finalMap;
-        if(invertOrder){
-            finalMap = new LinkedHashMap<>();
-            ListIterator<Map.Entry<String, Point>> iter = new ArrayList<>(sortedMap.entrySet()).listIterator(sortedMap.size());
-            while(iter.hasPrevious()){
-                Map.Entry<String, Point> entry = iter.previous();
-                finalMap.put(entry.getKey(), entry.getValue());
-            }
-            Log.d(TAG, "Inverting order!");
-        }else{
-            finalMap = sortedMap;
-        }
-
+        LinkedHashMap<String, Point> finalMap = lineArrangement.arrange().toMap();
         Log.d("FinalMap", finalMap.toString());
-
         return finalMap;
     }
 
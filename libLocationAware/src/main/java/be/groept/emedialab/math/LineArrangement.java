@@ -0,0 +1,431 @@
+package be.groept.emedialab.math;
+
+import org.opencv.core.Point;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import be.groept.emedialab.server.data.Position;
+
+/**
+ * Finds the devices that lie in a line and their order along that line, see {@link DistanceCalculation#getLine(Map)}.
+ *
+ * Devices are updated one at a time: the least-squares sums of the found devices are kept up to date incrementally,
+ * so an update costs O(1). The order along the line is remembered between calls to {@link #arrange()} and only
+ * repaired, which takes linear time when the devices moved a little.
+ * Not thread safe.
+ */
+public class LineArrangement {
+
+    /**
+     * Ordinary least squares of y on x, like the original getLine. Only exactly vertical lines are supported.
+     */
+    public static final int FIT_ORDINARY = 0;
+    /**
+     * Total least squares (principal axis), minimises the perpendicular distances and so works in every direction.
+     * Lines steeper than 45 degrees are ordered along the y-axis.
+     */
+    public static final int FIT_TOTAL = 1;
+    /**
+     * Total least squares over the largest set of devices that lie on a line through two of the devices.
+     * Devices far from the line don't pull the line away from the others.
+     */
+    public static final int FIT_RANSAC = 2;
+
+    private static final int RANSAC_ITERATIONS = 50;
+
+    /**
+     * The sums are recalculated from scratch after this many updates to get rid of rounding errors.
+     */
+    private static final int RECALCULATE_SUMS = 1000;
+
+    private final int fitMode;
+    private final Random random = new Random(0);
+
+    private final HashMap<String, Integer> slots = new HashMap<>();
+    private int size = 0;
+    private String[] keys = new String[8];
+    private double[] xs = new double[8];
+    private double[] ys = new double[8];
+    private double[] rotations = new double[8];
+    private boolean[] found = new boolean[8];
+
+    //Sums over the found devices
+    private int count = 0;
+    private double sumX, sumY, sumXX, sumXY, sumYY;
+    private final AngleStatistics rotationStatistics = new AngleStatistics();
+    private int updates = 0;
+
+    //Order of the slots along the line of the previous arrangement, kept to sort faster next time
+    private int[] order = new int[8];
+    private double[] projections = new double[8];
+    private boolean[] inlier = new boolean[8];
+
+    private final Arrangement arrangement = new Arrangement();
+
+    /**
+     * @param fitMode {@link #FIT_ORDINARY}, {@link #FIT_TOTAL} or {@link #FIT_RANSAC}.
+     */
+    public LineArrangement(int fitMode){
+        if(fitMode != FIT_ORDINARY && fitMode != FIT_TOTAL && fitMode != FIT_RANSAC)
+            throw new IllegalArgumentException("Invalid value: unknown fit mode " + fitMode + ".");
+        this.fitMode = fitMode;
+    }
+
+    /**
+     * Set the position of a device, adding it if it is unknown. Devices whose pattern is not found are ignored.
+     */
+    public void update(String key, Position position){
+        if(position == null)
+            update(key, 0, 0, 0, false);
+        else
+            update(key, position.getX(), position.getY(), position.getRotation(), position.getFoundPattern());
+    }
+
+    /**
+     * Same as {@link #update(String, Position)} without creating a Position.
+     */
+    public void update(String key, double x, double y, double rotation, boolean foundPattern){
+        Integer slot = slots.get(key);
+        if(slot == null){
+            slot = addSlot(key);
+        }else if(found[slot]){
+            if(foundPattern && xs[slot] == x && ys[slot] == y && rotations[slot] == rotation)
+                return;
+            subtract(slot);
+        }
+
+        found[slot] = foundPattern;
+        if(found[slot]){
+            xs[slot] = x;
+            ys[slot] = y;
+            rotations[slot] = rotation;
+            add(slot);
+        }
+
+        if(++updates >= RECALCULATE_SUMS)
+            recalculateSums();
+    }
+
+    public void remove(String key){
+        Integer slot = slots.remove(key);
+        if(slot == null)
+            return;
+        if(found[slot])
+            subtract(slot);
+
+        //Move the last slot into the gap, keeping the previous order of the others
+        int last = size - 1;
+        if(slot != last){
+            keys[slot] = keys[last];
+            xs[slot] = xs[last];
+            ys[slot] = ys[last];
+            rotations[slot] = rotations[last];
+            found[slot] = found[last];
+            slots.put(keys[slot], slot);
+        }
+        keys[last] = null;
+        int position = 0;
+        for(int i = 0; i < size; i++){
+            if(order[i] == slot)
+                continue;
+            order[position++] = order[i] == last ? slot : order[i];
+        }
+        size--;
+    }
+
+    /**
+     * Fit the line and order the devices along it.
+     * @return The arrangement, reused and overwritten by the next call.
+     */
+    public Arrangement arrange(){
+        arrangement.size = 0;
+        if(count == 0)
+            return arrangement;
+
+        //Mean direction, devices around 0 degrees do not average to 180
+        double rotationAverage = rotationStatistics.getMean();
+        switch(fitMode){
+            case FIT_ORDINARY:
+                fitOrdinary();
+                break;
+            case FIT_TOTAL:
+                fitTotal(sumX, sumY, sumXX, sumXY, sumYY, count);
+                break;
+            default:
+                fitRansac();
+        }
+
+        //Direction in which the devices are ordered, the same as getLine: along x, inverted if the devices point up
+        if(!arrangement.vertical && (arrangement.directionX < 0) != (rotationAverage < 180)){
+            arrangement.directionX = -arrangement.directionX;
+            arrangement.directionY = -arrangement.directionY;
+        }
+
+        //Project the devices on the line
+        double pointX = arrangement.pointX;
+        double pointY = arrangement.pointY;
+        double directionX = arrangement.directionX;
+        double directionY = arrangement.directionY;
+        for(int slot = 0; slot < size; slot++){
+            inlier[slot] = false;
+            if(!found[slot])
+                continue;
+            if(Math.abs(AngleStatistics.difference(rotations[slot], rotationAverage)) >= DistanceCalculation.ANGLE_TOLERATION / 2)
+                continue;
+            double dx = xs[slot] - pointX;
+            double dy = ys[slot] - pointY;
+            //Perpendicular distance to the line
+            if(Math.abs(dx * directionY - dy * directionX) < DistanceCalculation.DISTANCE_TOLERATION){
+                inlier[slot] = true;
+                projections[slot] = dx * directionX + dy * directionY;
+            }
+        }
+
+        //Insertion sort on the previous order, stable and linear when little changed
+        for(int i = 1; i < size; i++){
+            int slot = order[i];
+            double projection = inlier[slot] ? projections[slot] : Double.POSITIVE_INFINITY;
+            int j = i - 1;
+            while(j >= 0 && (inlier[order[j]] ? projections[order[j]] : Double.POSITIVE_INFINITY) > projection){
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = slot;
+        }
+
+        arrangement.ensureCapacity(size);
+        for(int i = 0; i < size; i++){
+            int slot = order[i];
+            if(!inlier[slot])
+                break;
+            if(arrangement.size > 0 && projections[slot] - arrangement.projections[arrangement.size - 1] > DistanceCalculation.DISTANCE_BETWEEN_TOLERATION){
+                //A gap in the line, nothing is arranged
+                arrangement.size = 0;
+                return arrangement;
+            }
+            arrangement.keys[arrangement.size] = keys[slot];
+            arrangement.projections[arrangement.size] = projections[slot];
+            arrangement.size++;
+        }
+        return arrangement;
+    }
+
+    private void fitOrdinary(){
+        double averageX = sumX / count;
+        double averageY = sumY / count;
+        double numerator = sumXY - sumX * averageY;
+        double denominator = sumXX - sumX * averageX;
+        arrangement.pointX = averageX;
+        arrangement.pointY = averageY;
+        if(denominator <= 0){
+            arrangement.vertical = true;
+            arrangement.directionX = 0;
+            arrangement.directionY = 1;
+        }else{
+            double slope = numerator / denominator;
+            double length = Math.sqrt(1 + slope * slope);
+            arrangement.vertical = false;
+            arrangement.directionX = 1 / length;
+            arrangement.directionY = slope / length;
+        }
+    }
+
+    private void fitTotal(double sumX, double sumY, double sumXX, double sumXY, double sumYY, int count){
+        double averageX = sumX / count;
+        double averageY = sumY / count;
+        double covarianceXX = sumXX / count - averageX * averageX;
+        double covarianceXY = sumXY / count - averageX * averageY;
+        double covarianceYY = sumYY / count - averageY * averageY;
+        //Angle of the eigenvector with the largest eigenvalue of the covariance matrix
+        double angle = 0.5 * Math.atan2(2 * covarianceXY, covarianceXX - covarianceYY);
+        arrangement.pointX = averageX;
+        arrangement.pointY = averageY;
+        arrangement.directionX = Math.cos(angle);
+        arrangement.directionY = Math.sin(angle);
+        //Steep lines are ordered along y, otherwise a small tilt of the line would reverse the order
+        arrangement.vertical = Math.abs(arrangement.directionX) < Math.abs(arrangement.directionY);
+        if(arrangement.vertical && arrangement.directionY < 0){
+            arrangement.directionX = -arrangement.directionX;
+            arrangement.directionY = -arrangement.directionY;
+        }
+    }
+
+    private void fitRansac(){
+        if(count < 3){
+            fitTotal(sumX, sumY, sumXX, sumXY, sumYY, count);
+            return;
+        }
+        int[] candidates = new int[count];
+        int candidate = 0;
+        for(int slot = 0; slot < size; slot++){
+            if(found[slot])
+                candidates[candidate++] = slot;
+        }
+
+        //Same seed every time, so the same positions always give the same line
+        random.setSeed(0);
+        int bestInliers = 0;
+        double bestSumX = 0, bestSumY = 0, bestSumXX = 0, bestSumXY = 0, bestSumYY = 0;
+        for(int iteration = 0; iteration < RANSAC_ITERATIONS; iteration++){
+            int first = candidates[random.nextInt(count)];
+            int second = candidates[random.nextInt(count)];
+            double directionX = xs[second] - xs[first];
+            double directionY = ys[second] - ys[first];
+            double length = Math.sqrt(directionX * directionX + directionY * directionY);
+            if(length == 0)
+                continue;
+            directionX /= length;
+            directionY /= length;
+
+            int inliers = 0;
+            double inlierX = 0, inlierY = 0, inlierXX = 0, inlierXY = 0, inlierYY = 0;
+            for(int i = 0; i < count; i++){
+                int slot = candidates[i];
+                double dx = xs[slot] - xs[first];
+                double dy = ys[slot] - ys[first];
+                if(Math.abs(dx * directionY - dy * directionX) < DistanceCalculation.DISTANCE_TOLERATION){
+                    inliers++;
+                    inlierX += xs[slot];
+                    inlierY += ys[slot];
+                    inlierXX += xs[slot] * xs[slot];
+                    inlierXY += xs[slot] * ys[slot];
+                    inlierYY += ys[slot] * ys[slot];
+                }
+            }
+            if(inliers > bestInliers){
+                bestInliers = inliers;
+                bestSumX = inlierX;
+                bestSumY = inlierY;
+                bestSumXX = inlierXX;
+                bestSumXY = inlierXY;
+                bestSumYY = inlierYY;
+            }
+        }
+
+        if(bestInliers == 0)
+            fitTotal(sumX, sumY, sumXX, sumXY, sumYY, count);
+        else
+            fitTotal(bestSumX, bestSumY, bestSumXX, bestSumXY, bestSumYY, bestInliers);
+    }
+
+    private int addSlot(String key){
+        if(size == keys.length){
+            int capacity = size * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            rotations = Arrays.copyOf(rotations, capacity);
+            found = Arrays.copyOf(found, capacity);
+            order = Arrays.copyOf(order, capacity);
+            projections = Arrays.copyOf(projections, capacity);
+            inlier = Arrays.copyOf(inlier, capacity);
+        }
+        int slot = size++;
+        keys[slot] = key;
+        found[slot] = false;
+        order[slot] = slot;
+        slots.put(key, slot);
+        return slot;
+    }
+
+    private void add(int slot){
+        count++;
+        sumX += xs[slot];
+        sumY += ys[slot];
+        sumXX += xs[slot] * xs[slot];
+        sumXY += xs[slot] * ys[slot];
+        sumYY += ys[slot] * ys[slot];
+        rotationStatistics.add(rotations[slot]);
+    }
+
+    private void subtract(int slot){
+        count--;
+        sumX -= xs[slot];
+        sumY -= ys[slot];
+        sumXX -= xs[slot] * xs[slot];
+        sumXY -= xs[slot] * ys[slot];
+        sumYY -= ys[slot] * ys[slot];
+        rotationStatistics.remove(rotations[slot]);
+    }
+
+    private void recalculateSums(){
+        count = 0;
+        sumX = sumY = sumXX = sumXY = sumYY = 0;
+        rotationStatistics.clear();
+        for(int slot = 0; slot < size; slot++){
+            if(found[slot])
+                add(slot);
+        }
+        updates = 0;
+    }
+
+    /**
+     * Devices in line, in order. Owned by the {@link LineArrangement} and reused between calls.
+     */
+    public static class Arrangement {
+        private int size = 0;
+        private String[] keys = new String[0];
+        private double[] projections = new double[0];
+
+        //The line: a point and the unit direction in which the devices are ordered
+        private double pointX, pointY;
+        private double directionX, directionY;
+        private boolean vertical;
+
+        /**
+         * @return Number of devices in line, 0 if there is a gap in the line.
+         */
+        public int size(){
+            return size;
+        }
+
+        /**
+         * @param index 0 for the first device along the line.
+         */
+        public String getKey(int index){
+            return keys[index];
+        }
+
+        /**
+         * @return The device projected on the line.
+         */
+        public Point getPoint(int index){
+            return new Point(pointX + projections[index] * directionX, pointY + projections[index] * directionY);
+        }
+
+        /**
+         * @return Distance in cm along the line, relative to the center of the found devices.
+         */
+        public double getProjection(int index){
+            return projections[index];
+        }
+
+        /**
+         * @return True if the devices are ordered along the y-axis instead of the x-axis.
+         */
+        public boolean isVertical(){
+            return vertical;
+        }
+
+        /**
+         * @return A copy in the format of {@link DistanceCalculation#getLine(Map)}.
+         */
+        public LinkedHashMap<String, Point> toMap(){
+            LinkedHashMap<String, Point> map = new LinkedHashMap<>();
+            for(int i = 0; i < size; i++)
+                map.put(keys[i], getPoint(i));
+            return map;
+        }
+
+        private void ensureCapacity(int capacity){
+            if(keys.length < capacity){
+                keys = new String[capacity];
+                projections = new double[capacity];
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package be.groept.emedialab.math;
 import android.util.Log;
 
 import be.groept.emedialab.image_manipulation.PatternCoordinates;
+import be.groept.emedialab.server.data.Position;
 import be.groept.emedialab.util.Point3D;
 import be.groept.emedialab.util.Vector;
 
@@ -27,10 +28,17 @@ public class PositionCalculation {
     //Canvas X Size
     private double canvasXSize;
 
+    //Canvas Y Size
+    private double canvasYSize;
+
     private double fieldOfViewX;
 
     private double scaleFactor;
 
+    //Tilt of the camera around the image axes in radians, see setTilt
+    private double tiltX = 0;
+    private double tiltY = 0;
+
     /**
      * @param patternSide The real life patternSide of the pattern in cm (The length of one of the sides of the square)
      * @param width Width in pixels of the full image in portrait.
@@ -41,7 +49,33 @@ public class PositionCalculation {
          this.patternSide = patternSide;
          this.phiX = phiX;
          canvasXSize = width;
-         double canvasYSize = height;
+         canvasYSize = height;
+    }
+
+    /**
+     * @return Width in pixels of the frames this calculation expects the corners in.
+     */
+    public double getWidth(){
+        return canvasXSize;
+    }
+
+    /**
+     * @return Height in pixels of the frames this calculation expects the corners in.
+     */
+    public double getHeight(){
+        return canvasYSize;
+    }
+
+    /**
+     * Set the attitude of the camera used for the next calculations.
+     * A tilted camera looks at the pattern under an angle, which shifts the pattern in the image
+     * and makes it look further away than it is. Both effects are compensated for.
+     * @param tiltX Rotation in radians of the optical axis towards the positive image x-axis.
+     * @param tiltY Rotation in radians of the optical axis towards the positive (flipped) image y-axis.
+     */
+    public void setTilt(double tiltX, double tiltY){
+        this.tiltX = tiltX;
+        this.tiltY = tiltY;
     }
 
     /**
@@ -51,68 +85,99 @@ public class PositionCalculation {
      * @param pattern Corner points of the pattern.
      *                Num1 is the point at the white inner square.
      *                Moving clockwise the points should correspond to Num2, Num3 and Num4.
-     *                X-axis is 480side, Y-axis is the 640side. Make sure the pattern is in the right coordinates!
+     *                The corners must be in pixels of a frame with the width and height passed to the constructor.
      * @return A new point representing the position of the device.
      */
     public Point3D patternToReal(PatternCoordinates pattern){
-        initPixelValues(pattern);
+        Position position = new Position();
+        patternToReal(pattern, position);
+
+        Log.d("Coordinates", position.getX() + ":" + position.getY() + ":" + position.getZ() + ":" + position.getRotation());
+
+        return new Point3D(position.getX(), position.getY(), position.getZ());
+    }
+
+    /**
+     * Same as {@link #patternToReal(PatternCoordinates)}, but writes the coordinates and the rotation
+     * into the provided Position instead of allocating a new point.
+     * @param pattern Corner points of the pattern, see {@link #patternToReal(PatternCoordinates)}.
+     * @param position Position that receives x, y, z and rotation. The found flag is left untouched.
+     */
+    public void patternToReal(PatternCoordinates pattern, Position position){
+        Point corner1 = pattern.getNum(1);
+        Point corner2 = pattern.getNum(2);
+        Point corner3 = pattern.getNum(3);
+        Point corner4 = pattern.getNum(4);
+        patternToReal(corner1.x, corner1.y, corner2.x, corner2.y, corner3.x, corner3.y, corner4.x, corner4.y, position);
+    }
+
+    /**
+     * Allocation free version of {@link #patternToReal(PatternCoordinates)}.
+     * The corners are passed as primitives in the same order as {@link PatternCoordinates#getNum(int)},
+     * the result (including the rotation) is written into the provided Position in a single pass.
+     * @param position Position that receives x, y, z and rotation. The found flag is left untouched.
+     */
+    public void patternToReal(double xa, double ya, double xb, double yb, double xc, double yc, double xd, double yd, Position position){
+        initPixelValues(xa, ya, xb, yb, xc, yc, xd, yd);
         calculateFieldOfView();
 
         //Calculate z using the field of view of y (higher accuracy than x-axis)
         double zCoordinate = fieldOfViewX / (2 * Math.tan(Math.toRadians(phiX / 2)));
 
-        Point centerPattern = calculateCenterPattern();
+        double centerX = (xap + xbp + xcp + xdp)/4;
+        double centerY = (yap + ybp + ycp + ydp)/4;
 
         //Set the origin of the coordinate system of the image in the center of the sensor
-        centerPattern.x -= 320;
-        centerPattern.y -= 240;
+        centerX -= canvasXSize / 2;
+        centerY -= canvasYSize / 2;
 
         //Flip over x-axis
-        centerPattern.y *= -1;
+        centerY *= -1;
+
+        //Rotate the ray through the center of the pattern back to a level camera
+        double tiltFactor = 1;
+        if(tiltX != 0 || tiltY != 0){
+            double focalLength = canvasXSize / (2 * Math.tan(Math.toRadians(phiX / 2)));
+            centerX = focalLength * Math.tan(Math.atan(centerX / focalLength) - tiltX);
+            centerY = focalLength * Math.tan(Math.atan(centerY / focalLength) - tiltY);
+            double tanX = Math.tan(tiltX);
+            double tanY = Math.tan(tiltY);
+            tiltFactor = 1 / Math.sqrt(1 + tanX * tanX + tanY * tanY);
+        }
 
         //Factor in screen offset
-        centerPattern.x -= (5.35 / scaleFactor);
-        centerPattern.y -= (2 / scaleFactor);
-
-        //Take the translated error of the camera into account
-        double ex = (CameraConstants.getInstance().getEx() / CameraConstants.getInstance().getHeight()) * zCoordinate;
-        double ey = (CameraConstants.getInstance().getEy() / CameraConstants.getInstance().getHeight()) * zCoordinate;
-        Point translated = new Point(
-                centerPattern.x + ex,
-                centerPattern.y + ey
-        );
-
-        double rotation = calculateRotation(pattern);
-        Point rotated = new Point(
-                translated.x * Math.cos(Math.toRadians(rotation)) + translated.y * Math.sin(Math.toRadians(rotation)),
-                -translated.x * Math.sin(Math.toRadians(rotation)) + translated.y * Math.cos(Math.toRadians(rotation))
-        );
+        centerX -= (5.35 / scaleFactor);
+        centerY -= (2 / scaleFactor);
 
-        //Convert pixel values to real values
-        double xCoordinate = rotated.x * scaleFactor;
-        double yCoordinate = rotated.y * scaleFactor;
-
-        Log.d("Coordinates", -xCoordinate + ":" + -yCoordinate + ":" + zCoordinate + ":" + rotation);
+        //Take the translated error of the camera into account, scaled from the calibration resolution to this frame
+        double ex = (CameraConstants.getInstance().getEx() / CameraConstants.getInstance().getHeight()) * zCoordinate * (canvasXSize / CameraConstants.CALIBRATION_WIDTH);
+        double ey = (CameraConstants.getInstance().getEy() / CameraConstants.getInstance().getHeight()) * zCoordinate * (canvasYSize / CameraConstants.CALIBRATION_HEIGHT);
+        double translatedX = centerX + ex;
+        double translatedY = centerY + ey;
 
-        return new Point3D(-xCoordinate, -yCoordinate, zCoordinate);
-    }
+        double rotation = calculateRotation(xap, yap, xbp, ybp, xcp, ycp, xdp, ydp);
+        double cos = Math.cos(Math.toRadians(rotation));
+        double sin = Math.sin(Math.toRadians(rotation));
+        double rotatedX = translatedX * cos + translatedY * sin;
+        double rotatedY = -translatedX * sin + translatedY * cos;
 
-    private void initPixelValues(PatternCoordinates patternCoordinates){
-        xap = patternCoordinates.getNum(1).x;
-        yap = patternCoordinates.getNum(1).y;
-        xbp = patternCoordinates.getNum(2).x;
-        ybp = patternCoordinates.getNum(2).y;
-        xcp = patternCoordinates.getNum(3).x;
-        ycp = patternCoordinates.getNum(3).y;
-        xdp = patternCoordinates.getNum(4).x;
-        ydp = patternCoordinates.getNum(4).y;
+        //Convert pixel values to real values
+        position.setX(-(rotatedX * scaleFactor));
+        position.setY(-(rotatedY * scaleFactor));
+        //The distance along the tilted optical axis is longer than the height above the pattern
+        position.setZ(zCoordinate * tiltFactor);
+        position.setRotation(rotation);
     }
 
-    private Point calculateCenterPattern(){
-        return new Point(
-                (xap + xbp + xcp + xdp)/4,
-                (yap + ybp + ycp + ydp)/4
-        );
+    private void initPixelValues(double xa, double ya, double xb, double yb, double xc, double yc, double xd, double yd){
+        xap = xa;
+        yap = ya;
+        xbp = xb;
+        ybp = yb;
+        xcp = xc;
+        ycp = yc;
+        xdp = xd;
+        ydp = yd;
     }
 
     private void calculateFieldOfView(){
@@ -128,38 +193,44 @@ public class PositionCalculation {
         fieldOfViewX = (patternSide / patternSidePx) * canvasXSize;
     }
 
-    //TODO: this is called twice every run (once by PositionCalculation.patternToReal, once by PatternDetector.calculateCoordinates)
     public double calculateRotation(PatternCoordinates pixelPatternCoordinates){
         Point corner1 = pixelPatternCoordinates.getNum(1);
         Point corner2 = pixelPatternCoordinates.getNum(2);
         Point corner3 = pixelPatternCoordinates.getNum(3);
         Point corner4 = pixelPatternCoordinates.getNum(4);
+        return calculateRotation(corner1.x, corner1.y, corner2.x, corner2.y, corner3.x, corner3.y, corner4.x, corner4.y);
+    }
 
+    /**
+     * Calculates the rotation of the pattern in degrees, using the corners in the order of {@link PatternCoordinates#getNum(int)}.
+     */
+    public static double calculateRotation(double x1, double y1, double x2, double y2, double x3, double y3, double x4, double y4){
+        //Only the direction of the axes matters, so this does not depend on the resolution of the frame.
         //Calculate rotation with the x-axis of the image coordinate system with the horizontal sides of the pattern
-        Vector xAxis = new Vector(640, 0);
-        Vector side14 = new Vector(corner4.x - corner1.x, corner4.y - corner1.y);
-        Vector side23 = new Vector(corner3.x - corner2.x, corner3.y - corner2.y);
-
-        double cos14 = side14.dotProduct(xAxis)/(side14.getLength() * xAxis.getLength());
-        double cos23 = side23.dotProduct(xAxis)/(side23.getLength() * xAxis.getLength());
+        double cos14 = cosWithAxis(x4 - x1, y4 - y1, 1, 0);
+        double cos23 = cosWithAxis(x3 - x2, y3 - y2, 1, 0);
 
         //Calculate rotation with the y-axis of the image coordinate system with the vertical sides of the pattern
-        //Needs to be -480 because we flipped the y-axis
-        Vector yAxis = new Vector(0, -480);
-        Vector side12 = new Vector(corner2.x - corner1.x, corner2.y - corner1.y);
-        Vector side43 = new Vector(corner3.x - corner4.x, corner3.y - corner4.y);
-
-        double cos12 = side12.dotProduct(yAxis)/(side12.getLength() * yAxis.getLength());
-        double cos43 = side43.dotProduct(yAxis)/(side43.getLength() * yAxis.getLength());
+        //Needs to be -1 because we flipped the y-axis
+        double cos12 = cosWithAxis(x2 - x1, y2 - y1, 0, -1);
+        double cos43 = cosWithAxis(x3 - x4, y3 - y4, 0, -1);
 
         double cos = (cos14 + cos23 + cos12 + cos43)/4;
 
         double rotationAngle;
-        if(corner4.y > corner1.y)
+        if(y4 > y1)
             rotationAngle = 360 - Math.toDegrees(Math.acos(cos));
         else
             rotationAngle = Math.toDegrees(Math.acos(cos));
 
         return rotationAngle;
     }
+
+    /**
+     * Cosine of the angle between a side of the pattern and an axis.
+     * Same arithmetic as {@link Vector#dotProduct(Vector)} and {@link Vector#getLength()}, without the objects.
+     */
+    private static double cosWithAxis(double sideX, double sideY, double axisX, double axisY){
+        return (sideX * axisX + sideY * axisY) / (Math.sqrt(sideX * sideX + sideY * sideY) * Math.sqrt(axisX * axisX + axisY * axisY));
+    }
 }
@@ -0,0 +1,10 @@
+package be.groept.emedialab.math;
+
+/**
+ * Decides whether two elements are close enough to belong to the same group.
+ * Implementations must be symmetric: isNear(a, b) == isNear(b, a).
+ */
+public interface Proximity<T> {
+
+    boolean isNear(T first, T second);
+}
@@ -0,0 +1,86 @@
+package be.groept.emedialab.math;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Groups elements that are connected through a chain of {@link Proximity} relations.
+ * Two elements end up in the same group if they are near each other, or both near a third element of the group.
+ */
+public class ProximityClustering {
+
+    /**
+     * Cluster the elements. The result is deterministic: groups are ordered by their first element
+     * and the elements within a group keep the order of the input list.
+     * @param elements Elements to cluster.
+     * @param proximity Symmetric relation that decides if two elements are next to each other.
+     * @return The groups, every element is in exactly one group.
+     */
+    public static <T> ArrayList<ArrayList<T>> cluster(List<T> elements, Proximity<T> proximity){
+        int size = elements.size();
+        DisjointSet sets = new DisjointSet(size);
+        for(int i = 0; i < size; i++){
+            T element = elements.get(i);
+            for(int j = i + 1; j < size; j++){
+                //Pairs that are already connected don't need to be checked
+                if(!sets.connected(i, j) && proximity.isNear(element, elements.get(j)))
+                    sets.union(i, j);
+            }
+        }
+        return toGroups(elements, sets);
+    }
+
+    /**
+     * Same as {@link #cluster(List, Proximity)}, but only checks pairs of elements whose keys differ at most
+     * the window. The elements are sorted on their key and swept, which makes the clustering close to linear
+     * when only few elements fall in each other's window.
+     * @param keys Key of every element, elements with keys further apart than the window are never near.
+     * @param window Largest key difference between two elements that can be near.
+     */
+    public static <T> ArrayList<ArrayList<T>> cluster(List<T> elements, final double[] keys, double window, Proximity<T> proximity){
+        int size = elements.size();
+        Integer[] order = new Integer[size];
+        for(int i = 0; i < size; i++)
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                return Double.compare(keys[first], keys[second]);
+            }
+        });
+
+        DisjointSet sets = new DisjointSet(size);
+        for(int i = 0; i < size; i++){
+            int first = order[i];
+            T element = elements.get(first);
+            for(int j = i + 1; j < size && keys[order[j]] - keys[first] <= window; j++){
+                int second = order[j];
+                if(!sets.connected(first, second) && proximity.isNear(element, elements.get(second)))
+                    sets.union(first, second);
+            }
+        }
+        return toGroups(elements, sets);
+    }
+
+    /**
+     * Collect the elements per set of the union-find.
+     * @param elements Elements, element i belongs to element i of the sets.
+     */
+    public static <T> ArrayList<ArrayList<T>> toGroups(List<T> elements, DisjointSet sets){
+        int size = elements.size();
+        int[] groupOfRoot = new int[size];
+        ArrayList<ArrayList<T>> groups = new ArrayList<>(sets.getCount());
+        for(int i = 0; i < size; i++){
+            int root = sets.find(i);
+            //Offset by one so 0 means the root has no group yet
+            if(groupOfRoot[root] == 0){
+                groups.add(new ArrayList<T>());
+                groupOfRoot[root] = groups.size();
+            }
+            groups.get(groupOfRoot[root] - 1).add(elements.get(i));
+        }
+        return groups;
+    }
+}
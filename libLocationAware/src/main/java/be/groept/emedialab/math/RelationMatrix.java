@@ -0,0 +1,314 @@
+package be.groept.emedialab.math;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import be.groept.emedialab.server.data.Position;
+
+/**
+ * Cache of the geometric relations between every ordered pair of devices.
+ *
+ * A position update only marks the device as dirty. The next read recomputes the row and the column of the dirty
+ * devices, all other pairs are reused. Reading a relation is a table lookup.
+ * Relations are only set when the pattern of both devices is found.
+ */
+public class RelationMatrix {
+
+    /**
+     * {@link DistanceCalculation#isNextTo(Position, Position)}.
+     */
+    public static final int NEXT_TO = 1;
+    /**
+     * {@link DistanceCalculation#isNextToAndOriented(Position, Position)}.
+     */
+    public static final int NEXT_TO_AND_ORIENTED = 1 << 1;
+    /**
+     * {@link DistanceCalculation#isNextInLineHorizontal(Position, Position, double)}: the second device is next in line
+     * to the right of the first device.
+     */
+    public static final int IN_LINE_HORIZONTAL = 1 << 2;
+    /**
+     * {@link DistanceCalculation#isNextInLineVertical(Position, Position, int)}: the second device is next in line
+     * below the first device.
+     */
+    public static final int IN_LINE_VERTICAL = 1 << 3;
+    /**
+     * {@link DistanceCalculation#isNextToHorizontal(Position, Position, double)} with {@link DistanceCalculation#MARGIN_MIDDLE},
+     * the proximity used by {@link DistanceCalculation#getGroups(java.util.Map)}.
+     */
+    public static final int NEXT_TO_HORIZONTAL = 1 << 4;
+    /**
+     * {@link #NEXT_TO} and pointing in opposite directions.
+     */
+    public static final int FACING = 1 << 5;
+
+    private final double horizontalMargin;
+    private final int verticalMargin;
+
+    private final HashMap<String, Integer> slots = new HashMap<>();
+    private final ArrayList<Integer> freeSlots = new ArrayList<>();
+    private int capacity;
+    private int used = 0;
+
+    private String[] keys;
+    private Position[] positions;
+    private boolean[] dirty;
+    private int[] dirtySlots;
+    private int dirtyCount = 0;
+
+    //Number of times a relation changed, to find out cheaply whether anything changed
+    private long changes = 0;
+
+    /**
+     * relations[first * capacity + second] holds the relation flags of the ordered pair.
+     */
+    private byte[] relations;
+
+    /**
+     * Uses {@link DistanceCalculation#MARGIN_NARROW} for the horizontal and {@link DistanceCalculation#MARGIN_MIDDLE} for the vertical line.
+     */
+    public RelationMatrix(){
+        this(DistanceCalculation.MARGIN_NARROW, (int) DistanceCalculation.MARGIN_MIDDLE);
+    }
+
+    /**
+     * @param horizontalMargin Margin of {@link #IN_LINE_HORIZONTAL} in cm.
+     * @param verticalMargin Margin of {@link #IN_LINE_VERTICAL} in cm.
+     */
+    public RelationMatrix(double horizontalMargin, int verticalMargin){
+        this.horizontalMargin = horizontalMargin;
+        this.verticalMargin = verticalMargin;
+        allocate(8);
+    }
+
+    /**
+     * Store the new position of a device, adding it if it is unknown. The relations are recomputed on the next read.
+     */
+    public void update(String key, Position position){
+        if(position == null)
+            update(key, 0, 0, 0, 0, false);
+        else
+            update(key, position.getX(), position.getY(), position.getZ(), position.getRotation(), position.getFoundPattern());
+    }
+
+    /**
+     * Same as {@link #update(String, Position)}, the values are copied into a Position owned by the matrix.
+     */
+    public synchronized void update(String key, double x, double y, double z, double rotation, boolean foundPattern){
+        Integer slot = slots.get(key);
+        if(slot == null){
+            slot = addSlot(key);
+        }
+        Position position = positions[slot];
+        if(position == null){
+            position = new Position();
+            positions[slot] = position;
+        }
+        position.setX(x);
+        position.setY(y);
+        position.setZ(z);
+        position.setRotation(rotation);
+        position.setFoundPattern(foundPattern);
+        if(!dirty[slot]){
+            dirty[slot] = true;
+            dirtySlots[dirtyCount++] = slot;
+        }
+    }
+
+    public synchronized void remove(String key){
+        Integer slot = slots.remove(key);
+        if(slot == null)
+            return;
+        //A pending recomputation would only clear the row again
+        positions[slot].setFoundPattern(false);
+        keys[slot] = null;
+        clear(slot);
+        changes++;
+        freeSlots.add(slot);
+        used--;
+    }
+
+    public synchronized void clear(){
+        slots.clear();
+        freeSlots.clear();
+        used = 0;
+        dirtyCount = 0;
+        changes++;
+        allocate(capacity);
+    }
+
+    /**
+     * @return Number of times any relation changed. Equal values mean that no relation changed in between.
+     */
+    public synchronized long getChangeCount(){
+        refresh();
+        return changes;
+    }
+
+    /**
+     * @return The relation flags from the first to the second device, 0 if either device is unknown.
+     */
+    public synchronized int getRelations(String first, String second){
+        Integer firstSlot = slots.get(first);
+        Integer secondSlot = slots.get(second);
+        if(firstSlot == null || secondSlot == null)
+            return 0;
+        refresh();
+        return relations[firstSlot * capacity + secondSlot];
+    }
+
+    /**
+     * @param relation One or more of the relation flags.
+     * @return True if all the given relations hold from the first to the second device.
+     */
+    public boolean is(String first, String second, int relation){
+        return (getRelations(first, second) & relation) == relation;
+    }
+
+    /**
+     * @param relation One of the relation flags.
+     * @return Keys of the devices the given device has the relation with, in no particular order.
+     */
+    public synchronized List<String> getRelated(String key, int relation){
+        List<String> related = new ArrayList<>();
+        Integer slot = slots.get(key);
+        if(slot == null)
+            return related;
+        refresh();
+        int row = slot * capacity;
+        for(int other = 0; other < capacity; other++){
+            if((relations[row + other] & relation) != 0)
+                related.add(keys[other]);
+        }
+        return related;
+    }
+
+    /**
+     * @param relation One of the relation flags.
+     * @return True if the given device has the relation with at least one other device, in either direction.
+     */
+    public synchronized boolean hasRelation(String key, int relation){
+        Integer slot = slots.get(key);
+        if(slot == null)
+            return false;
+        refresh();
+        for(int other = 0; other < capacity; other++){
+            if((relations[slot * capacity + other] & relation) != 0 || (relations[other * capacity + slot] & relation) != 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Recompute the row and the column of every dirty device.
+     */
+    private void refresh(){
+        for(int i = 0; i < dirtyCount; i++){
+            int slot = dirtySlots[i];
+            dirty[slot] = false;
+            if(keys[slot] == null)
+                continue;
+            for(int other = 0; other < capacity; other++){
+                if(other == slot || keys[other] == null)
+                    continue;
+                set(slot * capacity + other, calculate(slot, other));
+                set(other * capacity + slot, calculate(other, slot));
+            }
+        }
+        dirtyCount = 0;
+    }
+
+    private void set(int index, byte relation){
+        if(relations[index] != relation){
+            relations[index] = relation;
+            changes++;
+        }
+    }
+
+    private byte calculate(int first, int second){
+        Position position1 = positions[first];
+        Position position2 = positions[second];
+        if(position1 == null || position2 == null || !position1.getFoundPattern() || !position2.getFoundPattern())
+            return 0;
+
+        int result = 0;
+        if(DistanceCalculation.isNextTo(position1, position2)){
+            result |= NEXT_TO;
+            if(DistanceCalculation.isOriented(position1.getRotation(), position2.getRotation())
+                    && DistanceCalculation.isSameHeight(position1.getZ(), position2.getZ()))
+                result |= NEXT_TO_AND_ORIENTED;
+            if(DistanceCalculation.isFacing(position1.getRotation(), position2.getRotation()))
+                result |= FACING;
+        }
+
+        //Coordinates in the frame of the phone are cached in the positions
+        double x1 = position1.getPhoneX();
+        double y1 = position1.getPhoneY();
+        double x2 = position2.getPhoneX();
+        double y2 = position2.getPhoneY();
+        if(DistanceCalculation.isNextToHorizontal(x1, y1, x2, y2, DistanceCalculation.MARGIN_MIDDLE))
+            result |= NEXT_TO_HORIZONTAL;
+        if(DistanceCalculation.isOriented(position1.getRotation(), position2.getRotation())){
+            if(DistanceCalculation.isNextInLineHorizontal(x1, y1, x2, y2, horizontalMargin))
+                result |= IN_LINE_HORIZONTAL;
+            if(DistanceCalculation.isNextInLineVertical(x1, y1, x2, y2, verticalMargin))
+                result |= IN_LINE_VERTICAL;
+        }
+        return (byte) result;
+    }
+
+    private int addSlot(String key){
+        int slot;
+        if(!freeSlots.isEmpty()){
+            slot = freeSlots.remove(freeSlots.size() - 1);
+        }else{
+            if(used == capacity)
+                grow();
+            slot = used;
+        }
+        used++;
+        slots.put(key, slot);
+        keys[slot] = key;
+        return slot;
+    }
+
+    /**
+     * Clear the row and the column of a slot.
+     */
+    private void clear(int slot){
+        Arrays.fill(relations, slot * capacity, (slot + 1) * capacity, (byte) 0);
+        for(int other = 0; other < capacity; other++)
+            relations[other * capacity + slot] = 0;
+    }
+
+    private void allocate(int capacity){
+        this.capacity = capacity;
+        keys = new String[capacity];
+        positions = new Position[capacity];
+        dirty = new boolean[capacity];
+        dirtySlots = new int[capacity];
+        relations = new byte[capacity * capacity];
+    }
+
+    /**
+     * Double the capacity, keeping all slots and relations.
+     */
+    private void grow(){
+        int oldCapacity = capacity;
+        byte[] oldRelations = relations;
+        String[] oldKeys = keys;
+        Position[] oldPositions = positions;
+        boolean[] oldDirty = dirty;
+        int[] oldDirtySlots = dirtySlots;
+
+        allocate(oldCapacity * 2);
+        System.arraycopy(oldKeys, 0, keys, 0, oldCapacity);
+        System.arraycopy(oldPositions, 0, positions, 0, oldCapacity);
+        System.arraycopy(oldDirty, 0, dirty, 0, oldCapacity);
+        System.arraycopy(oldDirtySlots, 0, dirtySlots, 0, dirtyCount);
+        for(int row = 0; row < oldCapacity; row++)
+            System.arraycopy(oldRelations, row * oldCapacity, relations, row * capacity, oldCapacity);
+    }
+}
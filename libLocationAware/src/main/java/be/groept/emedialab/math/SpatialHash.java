@@ -0,0 +1,154 @@
+package be.groept.emedialab.math;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Uniform grid over the plane to find the elements near a point without checking all of them.
+ * Every element lives in one square cell. A query only visits the cells that overlap its radius, so with
+ * a radius up to the cell size a query visits 9 cells, no matter how many elements there are.
+ * Not thread safe.
+ * @param <K> Key of the elements, for example the address of a device.
+ */
+public class SpatialHash<K> {
+
+    private static class Entry<K> {
+        private final K key;
+        private double x;
+        private double y;
+        private long cell;
+
+        Entry(K key){
+            this.key = key;
+        }
+    }
+
+    private final double cellSize;
+    private final HashMap<Long, ArrayList<Entry<K>>> cells = new HashMap<>();
+    private final HashMap<K, Entry<K>> entries = new HashMap<>();
+
+    /**
+     * @param cellSize Side of a cell, best chosen as the largest radius that will be queried.
+     */
+    public SpatialHash(double cellSize){
+        if(cellSize <= 0)
+            throw new IllegalArgumentException("Invalid value: cellSize should be positive.");
+        this.cellSize = cellSize;
+    }
+
+    /**
+     * Insert an element or move it to its new coordinates.
+     */
+    public void put(K key, double x, double y){
+        long cell = cellOf(x, y);
+        Entry<K> entry = entries.get(key);
+        if(entry == null){
+            entry = new Entry<>(key);
+            entries.put(key, entry);
+            addToCell(cell, entry);
+        }else if(entry.cell != cell){
+            removeFromCell(entry.cell, entry);
+            addToCell(cell, entry);
+        }
+        entry.x = x;
+        entry.y = y;
+        entry.cell = cell;
+    }
+
+    /**
+     * @return False if the element was not in the grid.
+     */
+    public boolean remove(K key){
+        Entry<K> entry = entries.remove(key);
+        if(entry == null)
+            return false;
+        removeFromCell(entry.cell, entry);
+        return true;
+    }
+
+    public boolean contains(K key){
+        return entries.containsKey(key);
+    }
+
+    public int size(){
+        return entries.size();
+    }
+
+    public void clear(){
+        cells.clear();
+        entries.clear();
+    }
+
+    /**
+     * Find all elements within the radius (inclusive) of a point.
+     * @param result List the keys of the found elements are added to, in no particular order.
+     */
+    public void query(double x, double y, double radius, List<K> result){
+        int minX = cellCoordinate(x - radius);
+        int maxX = cellCoordinate(x + radius);
+        int minY = cellCoordinate(y - radius);
+        int maxY = cellCoordinate(y + radius);
+        double radiusSquared = radius * radius;
+        for(int cellX = minX; cellX <= maxX; cellX++){
+            for(int cellY = minY; cellY <= maxY; cellY++){
+                ArrayList<Entry<K>> cell = cells.get(cellKey(cellX, cellY));
+                if(cell == null)
+                    continue;
+                for(int i = 0; i < cell.size(); i++){
+                    Entry<K> entry = cell.get(i);
+                    double dx = entry.x - x;
+                    double dy = entry.y - y;
+                    if(dx * dx + dy * dy <= radiusSquared)
+                        result.add(entry.key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Find all other elements within the radius of an element in the grid.
+     * @param result List the keys of the found elements are added to, without the element itself.
+     */
+    public void queryNeighbours(K key, double radius, List<K> result){
+        Entry<K> entry = entries.get(key);
+        if(entry == null)
+            return;
+        int start = result.size();
+        query(entry.x, entry.y, radius, result);
+        for(int i = start; i < result.size(); i++){
+            if(result.get(i).equals(key)){
+                result.remove(i);
+                break;
+            }
+        }
+    }
+
+    private void addToCell(long cell, Entry<K> entry){
+        ArrayList<Entry<K>> list = cells.get(cell);
+        if(list == null){
+            list = new ArrayList<>(4);
+            cells.put(cell, list);
+        }
+        list.add(entry);
+    }
+
+    private void removeFromCell(long cell, Entry<K> entry){
+        ArrayList<Entry<K>> list = cells.get(cell);
+        list.remove(entry);
+        if(list.isEmpty())
+            cells.remove(cell);
+    }
+
+    private int cellCoordinate(double coordinate){
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    private long cellOf(double x, double y){
+        return cellKey(cellCoordinate(x), cellCoordinate(y));
+    }
+
+    private static long cellKey(int cellX, int cellY){
+        return ((long) cellX << 32) | (cellY & 0xffffffffL);
+    }
+}
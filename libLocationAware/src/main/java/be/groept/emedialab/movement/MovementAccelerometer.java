@@ -22,8 +22,14 @@ public class MovementAccelerometer implements SensorEventListener {
     private float lastAcceleration;
     private boolean isMoving = false;
 
+    //Weight of the previous gravity estimate in the low-pass filter
+    private static final float GRAVITY_ALPHA = 0.8f;
+    private final float[] gravity = new float[]{0, 0, SensorManager.GRAVITY_EARTH};
+
+    private SensorManager sensorManager;
+
     public MovementAccelerometer(Context mContext) {
-        SensorManager sensorManager = (SensorManager) mContext.getSystemService(Context.SENSOR_SERVICE);
+        sensorManager = (SensorManager) mContext.getSystemService(Context.SENSOR_SERVICE);
         Sensor accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
 
         acceleration = 0.00f;
@@ -33,6 +39,16 @@ public class MovementAccelerometer implements SensorEventListener {
         sensorManager.registerListener(this, accelerometer, SensorManager.SENSOR_DELAY_GAME);
     }
 
+    /**
+     * Stop listening to the accelerometer.
+     */
+    public void release(){
+        if(sensorManager != null){
+            sensorManager.unregisterListener(this);
+            sensorManager = null;
+        }
+    }
+
     @Override
     public void onSensorChanged(SensorEvent event) {
         if(event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
@@ -62,11 +78,14 @@ public class MovementAccelerometer implements SensorEventListener {
         }
     }
 
+    /**
+     * Low-pass filter the accelerometer to isolate gravity and publish the attitude of the device.
+     * Lying flat with the screen up gravity is measured along the positive z-axis only.
+     */
     private void calculateTilt(float[] g){
-        if(g[0] < -1 && g[0] > 1 && g[1] < -1 && g[1] > 1 && g[2] > 8.5 && g[2] < 10.5){
-            GlobalResources.getInstance().setTilted(true);
-        }else{
-            GlobalResources.getInstance().setTilted(false);
+        for(int i = 0; i < 3; i++){
+            gravity[i] = GRAVITY_ALPHA * gravity[i] + (1 - GRAVITY_ALPHA) * g[i];
         }
+        GlobalResources.getInstance().setTilt(Math.atan2(gravity[0], gravity[2]), Math.atan2(gravity[1], gravity[2]));
     }
 }
@@ -0,0 +1,222 @@
+package be.groept.emedialab.movement;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.util.Log;
+
+import be.groept.emedialab.math.AngleStatistics;
+import be.groept.emedialab.server.data.Position;
+import be.groept.emedialab.util.GlobalResources;
+
+/**
+ * Predicts the position of this device between two camera detections.
+ *
+ * The gyroscope is integrated to follow the rotation and the accelerometer (without gravity) is integrated
+ * twice to follow small translations. Every camera detection pulls the prediction back towards the measurement
+ * (complementary filter for the rotation, alpha-beta filter for the translation), so the drift of the
+ * integration never builds up. The prediction is published to the local listeners at most every
+ * {@link #PUBLISH_INTERVAL_NS}, the sensors themselves run a lot faster.
+ *
+ * Assumes the device lies (almost) flat with its x and y axes along the x and y axes of the pattern at rotation 0.
+ */
+public class SensorFusion implements SensorEventListener {
+
+    private static final String TAG = "SensorFusion";
+
+    /**
+     * Weight of the previous gravity estimate in the low-pass filter.
+     */
+    private static final float GRAVITY_ALPHA = 0.8f;
+
+    /**
+     * How much of the difference between prediction and camera measurement is corrected.
+     */
+    private static final double ROTATION_GAIN = 0.6;
+    private static final double POSITION_GAIN = 0.6;
+    private static final double VELOCITY_GAIN = 0.2;
+
+    /**
+     * Time constant in seconds with which the integrated velocity decays, bounds the drift of the accelerometer.
+     */
+    private static final double VELOCITY_TIME_CONSTANT = 0.5;
+
+    /**
+     * No prediction is made when the last camera detection is older than this (in nanoseconds).
+     */
+    private static final long MAX_PREDICTION_NS = 1000000000L;
+
+    /**
+     * Minimum time in nanoseconds between two published predictions, enough for a smooth 25 fps view.
+     */
+    public static final long PUBLISH_INTERVAL_NS = 40000000L;
+
+    private static final double NS_TO_S = 1e-9;
+
+    private SensorManager sensorManager = null;
+
+    private final float[] gravity = new float[]{0, 0, SensorManager.GRAVITY_EARTH};
+
+    //Fused state, in the units of Position (cm and degrees)
+    private double x, y, z, rotation;
+    private double velocityX, velocityY;
+    private boolean anchored = false;
+
+    private long lastSensorTimestamp = 0;
+    private long lastGyroscopeTimestamp = 0;
+    private long lastAccelerometerTimestamp = 0;
+    private long lastCorrectionTimestamp = 0;
+    private long lastPublishTimestamp = 0;
+
+    /**
+     * Creates the filter without listening to the sensors, events have to be passed in manually.
+     */
+    public SensorFusion(){
+    }
+
+    /**
+     * Creates the filter and starts listening to the accelerometer and the gyroscope.
+     */
+    public SensorFusion(Context mContext){
+        sensorManager = (SensorManager) mContext.getSystemService(Context.SENSOR_SERVICE);
+        Sensor accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        Sensor gyroscope = sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
+        if(gyroscope == null){
+            Log.d(TAG, "No gyroscope available, rotation is only updated by the camera.");
+        }
+
+        sensorManager.registerListener(this, accelerometer, SensorManager.SENSOR_DELAY_GAME);
+        if(gyroscope != null)
+            sensorManager.registerListener(this, gyroscope, SensorManager.SENSOR_DELAY_GAME);
+    }
+
+    /**
+     * Stop listening to the sensors.
+     */
+    public void release(){
+        if(sensorManager != null){
+            sensorManager.unregisterListener(this);
+            sensorManager = null;
+        }
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        switch(event.sensor.getType()){
+            case Sensor.TYPE_ACCELEROMETER:
+                onAccelerometer(event.values[0], event.values[1], event.values[2], event.timestamp);
+                break;
+            case Sensor.TYPE_GYROSCOPE:
+                onGyroscope(event.values[2], event.timestamp);
+                break;
+            default:
+                return;
+        }
+
+        //The samples in between are integrated but not published
+        if(event.timestamp - lastPublishTimestamp < PUBLISH_INTERVAL_NS)
+            return;
+        lastPublishTimestamp = event.timestamp;
+        Position prediction = getPrediction();
+        if(prediction != null)
+            GlobalResources.getInstance().updatePredictedPosition(prediction);
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        Log.d(TAG, "Accuracy of sensor " + sensor.getType() + " changed to " + accuracy);
+    }
+
+    /**
+     * Integrate the rotation around the z-axis of the device.
+     * @param angularSpeed Angular speed in rad/s, counter clockwise when looking at the screen.
+     * @param timestamp Timestamp of the event in nanoseconds.
+     */
+    public synchronized void onGyroscope(float angularSpeed, long timestamp){
+        if(lastGyroscopeTimestamp != 0 && anchored){
+            double dt = (timestamp - lastGyroscopeTimestamp) * NS_TO_S;
+            //The device turning counter clockwise makes the pattern turn clockwise in the image
+            rotation = AngleStatistics.normalize(rotation - Math.toDegrees(angularSpeed * dt));
+        }
+        lastGyroscopeTimestamp = timestamp;
+        lastSensorTimestamp = Math.max(lastSensorTimestamp, timestamp);
+    }
+
+    /**
+     * Integrate the linear acceleration in the plane of the pattern.
+     * @param ax Acceleration along the device x-axis in m/s^2, including gravity.
+     * @param ay Acceleration along the device y-axis in m/s^2, including gravity.
+     * @param az Acceleration along the device z-axis in m/s^2, including gravity.
+     * @param timestamp Timestamp of the event in nanoseconds.
+     */
+    public synchronized void onAccelerometer(float ax, float ay, float az, long timestamp){
+        gravity[0] = GRAVITY_ALPHA * gravity[0] + (1 - GRAVITY_ALPHA) * ax;
+        gravity[1] = GRAVITY_ALPHA * gravity[1] + (1 - GRAVITY_ALPHA) * ay;
+        gravity[2] = GRAVITY_ALPHA * gravity[2] + (1 - GRAVITY_ALPHA) * az;
+
+        if(lastAccelerometerTimestamp != 0 && anchored){
+            double dt = (timestamp - lastAccelerometerTimestamp) * NS_TO_S;
+
+            //Linear acceleration in cm/s^2, rotated from the device axes to the pattern axes
+            double linearX = (ax - gravity[0]) * 100;
+            double linearY = (ay - gravity[1]) * 100;
+            double cos = Math.cos(Math.toRadians(rotation));
+            double sin = Math.sin(Math.toRadians(rotation));
+            double accelerationX = linearX * cos - linearY * sin;
+            double accelerationY = linearX * sin + linearY * cos;
+
+            double decay = Math.exp(-dt / VELOCITY_TIME_CONSTANT);
+            velocityX = (velocityX + accelerationX * dt) * decay;
+            velocityY = (velocityY + accelerationY * dt) * decay;
+            x += velocityX * dt;
+            y += velocityY * dt;
+        }
+        lastAccelerometerTimestamp = timestamp;
+        lastSensorTimestamp = Math.max(lastSensorTimestamp, timestamp);
+    }
+
+    /**
+     * Correct the prediction with a camera detection.
+     * @param measured Position calculated from the camera frame. Ignored if the pattern was not found.
+     */
+    public synchronized void correct(Position measured){
+        if(!measured.getFoundPattern()){
+            anchored = false;
+            return;
+        }
+
+        if(!anchored){
+            x = measured.getX();
+            y = measured.getY();
+            rotation = measured.getRotation();
+            velocityX = 0;
+            velocityY = 0;
+            anchored = true;
+        }else{
+            double errorX = measured.getX() - x;
+            double errorY = measured.getY() - y;
+            double dt = (lastSensorTimestamp - lastCorrectionTimestamp) * NS_TO_S;
+
+            x += POSITION_GAIN * errorX;
+            y += POSITION_GAIN * errorY;
+            if(dt > 0){
+                velocityX += VELOCITY_GAIN * errorX / dt;
+                velocityY += VELOCITY_GAIN * errorY / dt;
+            }
+            rotation = AngleStatistics.normalize(rotation + ROTATION_GAIN * AngleStatistics.difference(measured.getRotation(), rotation));
+        }
+        z = measured.getZ();
+        lastCorrectionTimestamp = lastSensorTimestamp;
+    }
+
+    /**
+     * @return The current fused position, or null when there is no recent camera detection to predict from.
+     */
+    public synchronized Position getPrediction(){
+        if(!anchored || lastSensorTimestamp - lastCorrectionTimestamp > MAX_PREDICTION_NS)
+            return null;
+        return new Position(x, y, z, rotation, true);
+    }
+}
@@ -0,0 +1,180 @@
+package be.groept.emedialab.movement;
+
+import java.util.HashMap;
+
+/**
+ * Finds out which devices lie still, based on the positions found by the camera.
+ *
+ * Every device keeps an exponential moving average of its position and of the squared deviation from that average.
+ * A device becomes still once the deviation stayed below the threshold for the dwell time, it starts moving as soon
+ * as the deviation rises above it or its pattern is lost. Updates take constant time and the listener only hears
+ * about changes.
+ */
+public class StillnessTracker {
+
+    public interface Listener {
+        /**
+         * Called on the thread that updated the position.
+         */
+        void onStillnessChanged(Event event);
+    }
+
+    /**
+     * A device that became still or started moving.
+     */
+    public static class Event {
+        private final String key;
+        private final boolean still;
+
+        Event(String key, boolean still){
+            this.key = key;
+            this.still = still;
+        }
+
+        public String getKey(){
+            return key;
+        }
+
+        public boolean isStill(){
+            return still;
+        }
+
+        @Override
+        public String toString(){
+            return "Event(" + key + ", still " + still + ")";
+        }
+    }
+
+    /**
+     * Deviation in cm below which a device counts as lying still.
+     */
+    public static final double DEFAULT_THRESHOLD = 0.75;
+    /**
+     * Time in ms a device has to lie still before it is reported.
+     */
+    public static final long DEFAULT_DWELL_TIME = 5000;
+    /**
+     * Time constant in ms of the moving averages.
+     */
+    private static final double TIME_CONSTANT = 500;
+
+    private static class Track {
+        double meanX, meanY;
+        //Moving average of the squared distance to the mean
+        double variance;
+        long timestamp;
+        //Time since which the deviation is below the threshold, -1 if it is not
+        long calmSince = -1;
+        boolean still = false;
+    }
+
+    private final HashMap<String, Track> tracks = new HashMap<>();
+    private double threshold;
+    private long dwellTime;
+    private int stillCount = 0;
+    private Listener listener = null;
+
+    public StillnessTracker(){
+        this(DEFAULT_THRESHOLD, DEFAULT_DWELL_TIME);
+    }
+
+    /**
+     * @param threshold Deviation in cm below which a device counts as lying still.
+     * @param dwellTime Time in ms a device has to lie still before it is reported.
+     */
+    public StillnessTracker(double threshold, long dwellTime){
+        this.threshold = threshold;
+        this.dwellTime = dwellTime;
+    }
+
+    public synchronized void setListener(Listener listener){
+        this.listener = listener;
+    }
+
+    public synchronized void setThreshold(double threshold){
+        this.threshold = threshold;
+    }
+
+    public synchronized void setDwellTime(long dwellTime){
+        this.dwellTime = dwellTime;
+    }
+
+    /**
+     * Add a position of a device, adding the device if it is unknown.
+     * @param timestamp Time of the position in ms.
+     */
+    public void update(String key, double x, double y, boolean foundPattern, long timestamp){
+        Event event = null;
+        Listener current;
+        synchronized(this){
+            Track track = tracks.get(key);
+            if(track == null){
+                track = new Track();
+                track.meanX = x;
+                track.meanY = y;
+                track.timestamp = timestamp;
+                tracks.put(key, track);
+            }
+
+            boolean calm = false;
+            if(foundPattern){
+                //The weight of the new position depends on the time since the previous one
+                double alpha = 1 - Math.exp(-Math.max(0, timestamp - track.timestamp) / TIME_CONSTANT);
+                track.meanX += alpha * (x - track.meanX);
+                track.meanY += alpha * (y - track.meanY);
+                double dx = x - track.meanX;
+                double dy = y - track.meanY;
+                track.variance += alpha * (dx * dx + dy * dy - track.variance);
+                calm = track.variance < threshold * threshold;
+            }else{
+                track.variance = 0;
+            }
+            track.timestamp = timestamp;
+
+            if(calm){
+                if(track.calmSince < 0)
+                    track.calmSince = timestamp;
+                if(!track.still && timestamp - track.calmSince >= dwellTime)
+                    event = setStill(key, track, true);
+            }else{
+                track.calmSince = -1;
+                if(track.still)
+                    event = setStill(key, track, false);
+            }
+            current = listener;
+        }
+        if(event != null && current != null)
+            current.onStillnessChanged(event);
+    }
+
+    public synchronized void remove(String key){
+        Track track = tracks.remove(key);
+        if(track != null && track.still)
+            stillCount--;
+    }
+
+    /**
+     * @return True if the device is known and lies still.
+     */
+    public synchronized boolean isStill(String key){
+        Track track = tracks.get(key);
+        return track != null && track.still;
+    }
+
+    /**
+     * @return True if there are devices and all of them lie still.
+     */
+    public synchronized boolean isAllStill(){
+        return !tracks.isEmpty() && stillCount == tracks.size();
+    }
+
+    public synchronized int getStillCount(){
+        return stillCount;
+    }
+
+    private Event setStill(String key, Track track, boolean still){
+        track.still = still;
+        stillCount += still ? 1 : -1;
+        return new Event(key, still);
+    }
+}
@@ -2,38 +2,31 @@ package be.groept.emedialab.server;
 
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothServerSocket;
-import android.bluetooth.BluetoothSocket;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.os.Handler;
-import android.os.Message;
 import android.util.Log;
 
 import java.io.IOException;
-import java.util.UUID;
 
-import be.groept.emedialab.communications.InputThread;
-import be.groept.emedialab.communications.OutputThread;
+import be.groept.emedialab.communications.RfcommTransport;
 import be.groept.emedialab.util.GlobalResources;
 
-public class BluetoothServer extends Thread {
+/**
+ * Server that accepts the phones over Bluetooth RFCOMM.
+ */
+public class BluetoothServer extends ConnectionServer {
 
     private static final String TAG = "BluetoothServer";
-    private static final String NAME = "BluetoothApp";
-
-    private BluetoothServerSocket mmServerSocket;
-    volatile boolean isStarted = true;
 
     /**
      * Creates the BluetoothServer. This method assumes Bluetooth is available and enabled.
      */
     public BluetoothServer(Context context) {
+        super(new RfcommTransport(BluetoothAdapter.getDefaultAdapter()));
         try {
-            BluetoothAdapter mBluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-            mmServerSocket = mBluetoothAdapter.listenUsingRfcommWithServiceRecord(NAME, UUID.fromString("fa87c0d0-afac-11de-8a39-0800200c9a66"));
+            ((RfcommTransport) transport).listen();
 
             // Register for device disconnection
             IntentFilter bluetoothDisconnectedFilter = new IntentFilter(BluetoothDevice.ACTION_ACL_DISCONNECTED);
@@ -55,63 +48,4 @@ public class BluetoothServer extends Thread {
             e.printStackTrace();
         }
     }
-
-    @Override
-    public void run(){
-        try {
-            while(isStarted){
-                Log.i(TAG, "Listening...");
-                BluetoothSocket socket = mmServerSocket.accept();
-                Log.i(TAG, "New Connection accepted");
-
-                if (socket != null) {
-                    manageConnectedSocket(socket);
-                }
-            }
-        }catch(Exception e){
-            e.printStackTrace();
-        }finally{
-            Log.d(TAG, "STOP LISTENING IS CALLED AND isSTARTED IS FALSE1111");
-        }
-    }
-
-    private void manageConnectedSocket(BluetoothSocket socket){
-        try{
-            String deviceAddress = socket.getRemoteDevice().getAddress();
-
-            InputThread inputThread = new InputThread(socket.getInputStream(), deviceAddress);
-            inputThread.start();
-
-            OutputThread serverOutputThread = new ServerOutputThread(socket.getOutputStream(), deviceAddress);
-            serverOutputThread.start();
-
-            GlobalResources.getInstance().addConnectedDevice(socket.getRemoteDevice(), new SocketInputOutputTrio(socket, inputThread, serverOutputThread));
-
-            Log.d(TAG, "Storing connection with device " + deviceAddress);
-        }catch(Exception e){
-            e.printStackTrace();
-        }
-    }
-
-    public void stopListening(){
-        Log.i(TAG, "STOP LISTENING");
-        isStarted = false;
-        try {
-            mmServerSocket.close();
-        }catch(Exception e){
-            e.printStackTrace();
-        }
-        Log.i(TAG, "STOP LISTENING HAPPENED! " + isStarted);
-    }
-
-    public void quit(){
-        try{
-            stopListening();
-            Log.d(TAG, "[STOP] BluetoothServer is quitting.");
-            GlobalResources.getInstance().removeConnectedDevices();
-        }catch(Exception e){
-            e.printStackTrace();
-        }
-    }
-
-}
\ No newline at end of file
+}
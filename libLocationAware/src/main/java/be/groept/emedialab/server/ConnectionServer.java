@@ -0,0 +1,97 @@
+package be.groept.emedialab.server;
+
+import android.util.Log;
+
+import java.io.IOException;
+
+import be.groept.emedialab.communications.Connection;
+import be.groept.emedialab.communications.InputThread;
+import be.groept.emedialab.communications.OutputThread;
+import be.groept.emedialab.communications.Protocol;
+import be.groept.emedialab.communications.Transport;
+import be.groept.emedialab.util.GlobalResources;
+
+/**
+ * Accepts the devices that connect over a {@link Transport} and gives each of them an input and output thread.
+ */
+public class ConnectionServer extends Thread {
+
+    private static final String TAG = "ConnectionServer";
+
+    protected final Transport transport;
+    volatile boolean isStarted = true;
+
+    public ConnectionServer(Transport transport){
+        this.transport = transport;
+    }
+
+    public Transport getTransport(){
+        return transport;
+    }
+
+    @Override
+    public void run(){
+        try {
+            while(isStarted){
+                Log.i(TAG, "Listening...");
+                Connection connection = transport.accept();
+                Log.i(TAG, "New Connection accepted");
+
+                if (connection != null) {
+                    manageConnection(connection);
+                }
+            }
+        }catch(Exception e){
+            if(isStarted)
+                e.printStackTrace();
+        }finally{
+            Log.d(TAG, "Stopped listening");
+        }
+    }
+
+    private void manageConnection(Connection connection){
+        try{
+            String deviceAddress = connection.getRemoteAddress();
+
+            Protocol protocol = new Protocol();
+
+            InputThread inputThread = new InputThread(connection.getInputStream(), deviceAddress, protocol);
+            OutputThread serverOutputThread = new ServerOutputThread(connection.getOutputStream(), deviceAddress, protocol);
+
+            //Known before the first coordinates of the device arrive
+            GlobalResources.getInstance().addConnectedDevice(connection, new SocketInputOutputTrio(connection, inputThread, serverOutputThread));
+
+            inputThread.start();
+            serverOutputThread.start();
+
+            Log.d(TAG, "Storing connection with device " + deviceAddress);
+        }catch(IOException e){
+            e.printStackTrace();
+            try{
+                connection.close();
+            }catch(IOException closeException){
+                closeException.printStackTrace();
+            }
+        }
+    }
+
+    public void stopListening(){
+        Log.i(TAG, "STOP LISTENING");
+        isStarted = false;
+        try {
+            transport.close();
+        }catch(Exception e){
+            e.printStackTrace();
+        }
+    }
+
+    public void quit(){
+        try{
+            stopListening();
+            Log.d(TAG, "[STOP] Server is quitting.");
+            GlobalResources.getInstance().removeConnectedDevices();
+        }catch(Exception e){
+            e.printStackTrace();
+        }
+    }
+}
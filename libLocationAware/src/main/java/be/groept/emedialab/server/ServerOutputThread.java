@@ -1,14 +1,14 @@
 package be.groept.emedialab.server;
 
-import android.os.Handler;
 import android.util.Log;
 
-import java.io.DataOutputStream;
 import java.io.OutputStream;
 
 import be.groept.emedialab.communications.DataHandler;
 import be.groept.emedialab.communications.DataPacket;
+import be.groept.emedialab.communications.FrameWriter;
 import be.groept.emedialab.communications.OutputThread;
+import be.groept.emedialab.communications.Protocol;
 import be.groept.emedialab.util.GlobalResources;
 
 /**
@@ -18,41 +18,45 @@ public class ServerOutputThread extends OutputThread {
 
     private static final String TAG = "ServerOutputThread";
     private String deviceAddress;
-    private Handler handler = null;
 
     public ServerOutputThread(OutputStream outputStream, String deviceAddress){
         super(outputStream);
         this.deviceAddress = deviceAddress;
     }
 
+    public ServerOutputThread(OutputStream outputStream, String deviceAddress, Protocol protocol){
+        super(outputStream, protocol);
+        this.deviceAddress = deviceAddress;
+    }
+
     @Override
     public void run(){
         try{
-            DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+            FrameWriter frameWriter = new FrameWriter(outputStream);
+            protocol.sendHello(frameWriter);
+            frameWriter.flush();
 
-            synchronized (this) {
-                wait();
-            }
+            waitForData();
 
             while(keepRunning){
                 DataPacket data;
                 while((data = GlobalResources.getInstance().getDataForClient(deviceAddress)) != null){
                     Log.d("ServerOutputThread", "Sending data to client!");
-                    DataHandler.sendData(dataOutputStream, data);
+                    DataHandler.sendData(frameWriter, data, protocol);
                 }
-                dataOutputStream.flush();
+                // All frames of this round in one write
+                frameWriter.flush();
 
-                synchronized (this) {
-                    wait();
-                }
+                waitForData();
             }
 
-            dataOutputStream.close();
+            frameWriter.close();
 
         }catch(Exception e){
             e.printStackTrace();
         }finally{
-            handler.sendEmptyMessage(SocketInputOutputTrio.SERVER_OUTPUT_THREAD_CLOSED);
+            if(handler != null)
+                handler.sendEmptyMessage(SocketInputOutputTrio.SERVER_OUTPUT_THREAD_CLOSED);
         }
     }
 
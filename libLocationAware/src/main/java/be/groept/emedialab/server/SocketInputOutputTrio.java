@@ -6,16 +6,18 @@ import android.os.Looper;
 import android.os.Message;
 import android.util.Log;
 
+import be.groept.emedialab.communications.Connection;
 import be.groept.emedialab.communications.InputThread;
 import be.groept.emedialab.communications.OutputThread;
+import be.groept.emedialab.communications.RfcommConnection;
 
 /**
- * Class that holds the input and output thread of the server.
+ * Class that holds the input and output thread of a connection.
  * Both threads must already be running.
  */
 public class SocketInputOutputTrio {
 
-    public BluetoothSocket bluetoothSocket;
+    public Connection connection;
     public InputThread inputThread;
     public OutputThread outputThread;
 
@@ -26,13 +28,17 @@ public class SocketInputOutputTrio {
     private boolean outputThreadOpen = true;
 
     public SocketInputOutputTrio(BluetoothSocket bluetoothSocket, InputThread inputThread, OutputThread outputThread){
-        this.bluetoothSocket = bluetoothSocket;
+        this(new RfcommConnection(bluetoothSocket), inputThread, outputThread);
+    }
+
+    public SocketInputOutputTrio(Connection connection, InputThread inputThread, OutputThread outputThread){
+        this.connection = connection;
         this.inputThread = inputThread;
         this.outputThread = outputThread;
     }
 
     public void close(){
-        Log.d("SocketInputOutputTrio", "[STOP] closing connection of " + bluetoothSocket.getRemoteDevice().getAddress() + " [" + bluetoothSocket.getRemoteDevice().getName() + "]");
+        Log.d("SocketInputOutputTrio", "[STOP] closing connection of " + connection.getRemoteAddress() + " [" + connection.getRemoteName() + "]");
         inputThread.stopRunning(handler);
         outputThread.stopRunning(handler);
     }
@@ -40,7 +46,7 @@ public class SocketInputOutputTrio {
     private void closeSocket(){
         if(!inputThreadOpen && !outputThreadOpen){
             try {
-                bluetoothSocket.close();
+                connection.close();
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -18,6 +18,43 @@ public class Position implements Serializable {
      */
     private double z;
 
+    /**
+     * Time in ms of the camera frame the position was detected in, in the clock of the server. 0 when unknown.
+     * Not part of {@link #equals(Object)}, which compares the place.
+     */
+    private long timestamp = 0;
+
+    /**
+     * Values derived from the rotation, calculated on first use after every change of x, y or rotation.
+     * Not sent over the network.
+     */
+    private transient volatile Derived derived = null;
+
+    /**
+     * Derived values together with the x, y and rotation they were calculated from. Never changed, so a reader
+     * always gets values that belong together, even while another thread calls a setter.
+     */
+    private static final class Derived {
+        final double x;
+        final double y;
+        final double rotation;
+        final double cosRotation;
+        final double sinRotation;
+        final double phoneX;
+        final double phoneY;
+
+        Derived(double x, double y, double rotation){
+            this.x = x;
+            this.y = y;
+            this.rotation = rotation;
+            double radians = Math.toRadians(rotation);
+            cosRotation = Math.cos(radians);
+            sinRotation = Math.sin(radians);
+            phoneX = x * cosRotation - y * sinRotation;
+            phoneY = x * sinRotation + y * cosRotation;
+        }
+    }
+
     public Position(){}
 
     public Position(double x, double y, double z, double rotation) {
@@ -53,6 +90,10 @@ public class Position implements Serializable {
         return foundPattern;
     }
 
+    public long getTimestamp(){
+        return timestamp;
+    }
+
 
     public void setX(double x) {
         this.x = x;
@@ -74,8 +115,56 @@ public class Position implements Serializable {
         this.foundPattern = foundPattern;
     }
 
+    public void setTimestamp(long timestamp){
+        this.timestamp = timestamp;
+    }
+
     //</editor-fold>
 
+    /**
+     * @return Cosine of the rotation.
+     */
+    public double getCosRotation(){
+        return derived().cosRotation;
+    }
+
+    /**
+     * @return Sine of the rotation.
+     */
+    public double getSinRotation(){
+        return derived().sinRotation;
+    }
+
+    /**
+     * @return X coordinate rotated back to the coordinate system of the phone.
+     */
+    public double getPhoneX(){
+        return derived().phoneX;
+    }
+
+    /**
+     * @return Y coordinate rotated back to the coordinate system of the phone.
+     */
+    public double getPhoneY(){
+        return derived().phoneY;
+    }
+
+    /**
+     * @return The derived values of the current x, y and rotation, calculated again if the cached ones belong to other
+     * values. A Position changed by another thread at the same time may give the values of either side of the change.
+     */
+    private Derived derived(){
+        double currentX = x;
+        double currentY = y;
+        double currentRotation = rotation;
+        Derived current = derived;
+        if(current == null || current.x != currentX || current.y != currentY || current.rotation != currentRotation){
+            current = new Derived(currentX, currentY, currentRotation);
+            derived = current;
+        }
+        return current;
+    }
+
     @Override
     public int hashCode() {
         int hash = 7;
@@ -0,0 +1,202 @@
+package be.groept.emedialab.server.data;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Positions of the connected devices, stored in parallel primitive arrays.
+ * Every device gets a slot when it connects. Updates overwrite the values of the slot, so no objects are created
+ * for incoming coordinates. Readers take a {@link Snapshot}, which is only copied again when something changed.
+ */
+public class PositionStore {
+
+    private final HashMap<String, Integer> slots = new HashMap<>();
+    private int capacity = 8;
+    //Highest slot in use + 1, free slots below it have a null address
+    private int size = 0;
+
+    private String[] addresses = new String[capacity];
+    private double[] xs = new double[capacity];
+    private double[] ys = new double[capacity];
+    private double[] zs = new double[capacity];
+    private double[] rotations = new double[capacity];
+    private boolean[] found = new boolean[capacity];
+    private long[] timestamps = new long[capacity];
+
+    //Version of the store, increased by every change
+    private long version = 0;
+
+    /**
+     * Give the device a slot. Does nothing if it already has one.
+     * @return The slot of the device.
+     */
+    public synchronized int add(String address){
+        Integer slot = slots.get(address);
+        if(slot != null)
+            return slot;
+
+        int free = 0;
+        while(free < size && addresses[free] != null)
+            free++;
+        if(free == capacity)
+            grow();
+        if(free == size)
+            size++;
+
+        addresses[free] = address;
+        xs[free] = ys[free] = zs[free] = rotations[free] = 0;
+        found[free] = false;
+        timestamps[free] = 0;
+        version++;
+        slots.put(address, free);
+        return free;
+    }
+
+    public synchronized void remove(String address){
+        Integer slot = slots.remove(address);
+        if(slot == null)
+            return;
+        addresses[slot] = null;
+        found[slot] = false;
+        version++;
+        while(size > 0 && addresses[size - 1] == null)
+            size--;
+    }
+
+    /**
+     * Overwrite the position of a device.
+     * @param timestamp Time of the update in ms.
+     * @return False if the device has no slot.
+     */
+    public synchronized boolean update(String address, double x, double y, double z, double rotation, boolean foundPattern, long timestamp){
+        Integer slot = slots.get(address);
+        if(slot == null)
+            return false;
+        xs[slot] = x;
+        ys[slot] = y;
+        zs[slot] = z;
+        rotations[slot] = rotation;
+        found[slot] = foundPattern;
+        timestamps[slot] = timestamp;
+        version++;
+        return true;
+    }
+
+    public synchronized boolean contains(String address){
+        return slots.containsKey(address);
+    }
+
+    /**
+     * @return The slot of the device, -1 if it has none.
+     */
+    public synchronized int getSlot(String address){
+        Integer slot = slots.get(address);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Copy the position of a device into the given Position.
+     * @return False if the device has no slot, the Position is left untouched.
+     */
+    public synchronized boolean getPosition(String address, Position position){
+        Integer slot = slots.get(address);
+        if(slot == null)
+            return false;
+        position.setX(xs[slot]);
+        position.setY(ys[slot]);
+        position.setZ(zs[slot]);
+        position.setRotation(rotations[slot]);
+        position.setFoundPattern(found[slot]);
+        position.setTimestamp(timestamps[slot]);
+        return true;
+    }
+
+    /**
+     * @return Time in ms of the last update of the device, 0 if it was never updated or has no slot.
+     */
+    public synchronized long getTimestamp(String address){
+        Integer slot = slots.get(address);
+        return slot == null ? 0 : timestamps[slot];
+    }
+
+    public synchronized long getVersion(){
+        return version;
+    }
+
+    /**
+     * Take a consistent copy of all positions.
+     * @param reuse Snapshot of an earlier call to fill in, or null to create a new one.
+     *              It is not copied again when nothing changed since it was taken.
+     * @return The filled in snapshot.
+     */
+    public synchronized Snapshot snapshot(Snapshot reuse){
+        Snapshot snapshot = reuse == null ? new Snapshot() : reuse;
+        if(reuse != null && snapshot.version == version)
+            return snapshot;
+
+        snapshot.ensureCapacity(size);
+        snapshot.size = size;
+        System.arraycopy(addresses, 0, snapshot.addresses, 0, size);
+        System.arraycopy(xs, 0, snapshot.x, 0, size);
+        System.arraycopy(ys, 0, snapshot.y, 0, size);
+        System.arraycopy(zs, 0, snapshot.z, 0, size);
+        System.arraycopy(rotations, 0, snapshot.rotation, 0, size);
+        System.arraycopy(found, 0, snapshot.found, 0, size);
+        System.arraycopy(timestamps, 0, snapshot.timestamp, 0, size);
+        snapshot.version = version;
+        return snapshot;
+    }
+
+    private void grow(){
+        capacity *= 2;
+        addresses = Arrays.copyOf(addresses, capacity);
+        xs = Arrays.copyOf(xs, capacity);
+        ys = Arrays.copyOf(ys, capacity);
+        zs = Arrays.copyOf(zs, capacity);
+        rotations = Arrays.copyOf(rotations, capacity);
+        found = Arrays.copyOf(found, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+    }
+
+    /**
+     * Copy of the store at one moment. Index i of every array belongs to the same slot,
+     * slots with a null address are free and should be skipped.
+     */
+    public static class Snapshot {
+        private int size = 0;
+        private long version = -1;
+        public String[] addresses = new String[0];
+        public double[] x = new double[0];
+        public double[] y = new double[0];
+        public double[] z = new double[0];
+        public double[] rotation = new double[0];
+        public boolean[] found = new boolean[0];
+        public long[] timestamp = new long[0];
+
+        /**
+         * @return Number of slots in the arrays that are valid.
+         */
+        public int size(){
+            return size;
+        }
+
+        /**
+         * @return Version of the store this snapshot was taken from.
+         */
+        public long getVersion(){
+            return version;
+        }
+
+        private void ensureCapacity(int capacity){
+            if(x.length < capacity){
+                addresses = new String[capacity];
+                x = new double[capacity];
+                y = new double[capacity];
+                z = new double[capacity];
+                rotation = new double[capacity];
+                found = new boolean[capacity];
+                timestamp = new long[capacity];
+            }
+        }
+    }
+}
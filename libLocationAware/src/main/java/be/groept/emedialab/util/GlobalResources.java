@@ -10,19 +10,32 @@ import org.opencv.core.Mat;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import be.groept.emedialab.communications.ClientBluetoothConnection;
+import be.groept.emedialab.communications.ClockSync;
+import be.groept.emedialab.communications.Connection;
 import be.groept.emedialab.communications.DataHandler;
 import be.groept.emedialab.communications.DataPacket;
+import be.groept.emedialab.communications.OutgoingQueue;
+import be.groept.emedialab.communications.RfcommConnection;
 import be.groept.emedialab.image_manipulation.ImageSettings;
 import be.groept.emedialab.image_manipulation.PatternDetector;
+import be.groept.emedialab.math.ArrangementEngine;
+import be.groept.emedialab.math.DistanceCalculation;
+import be.groept.emedialab.math.RelationMatrix;
+import be.groept.emedialab.math.SpatialHash;
+import be.groept.emedialab.movement.StillnessTracker;
 import be.groept.emedialab.server.BluetoothServer;
 import be.groept.emedialab.server.SocketInputOutputTrio;
 import be.groept.emedialab.server.data.Device;
 import be.groept.emedialab.server.data.Position;
+import be.groept.emedialab.server.data.PositionStore;
 
 /**
  * Contains objects that need to be available to all Activities. This class is a Singleton meaning
@@ -46,30 +59,100 @@ public class GlobalResources {
      */
     private Handler handler = null;
 
+    /**
+     * Receives the same events as the handler, on the thread that caused them.
+     */
+    public interface Listener {
+        /**
+         * Called before the message is sent to the handler, keep it short: it holds up the thread that caused the
+         * event, such as the input thread of a connection.
+         */
+        void onEvent(int dataType, Object obj);
+    }
+
+    private volatile Listener listener = null;
+
+    /**
+     * Positions built from one version of the positionStore, replaced as a whole.
+     */
+    private static class DeviceMap {
+        final long version;
+        final Map<String, Position> positions;
+
+        DeviceMap(long version, Map<String, Position> positions){
+            this.version = version;
+            this.positions = positions;
+        }
+    }
+
+    /**
+     * Clock of the server as seen by this client.
+     */
+    private final ClockSync clockSync = new ClockSync();
+
     /**
      * Information about THIS device.
      */
     private Device device = new Device();
     private boolean moving = false;
-    private boolean tilted = false;
+    /**
+     * Latest attitude of the device in radians, derived from the gravity vector.
+     * Written by the sensor thread and read by the pattern detection thread.
+     */
+    private volatile double tiltX = 0;
+    private volatile double tiltY = 0;
+    /**
+     * Frames taken with a total tilt above this angle in degrees are rejected, smaller tilts are compensated.
+     */
+    private volatile double maxTilt = 25;
     private boolean isClient = true;
 
     /**
-     * Only Positions of other Devices.
+     * Positions of the other devices, written in place for every coordinate update.
+     */
+    private final PositionStore positionStore = new PositionStore();
+
+    /**
+     * Positions of the other devices as Position objects, for code that works with a map. Only built when it is asked
+     * for and the positionStore changed since the last time, so the coordinate updates do not create objects.
+     */
+    private volatile DeviceMap deviceMap = new DeviceMap(-1, Collections.<String, Position>emptyMap());
+    private final Object deviceMapLock = new Object();
+    private PositionStore.Snapshot deviceMapSnapshot = null;
+
+    /**
+     * Spatial index of the other devices and this device whose pattern is found, kept up to date with every position
+     * update. Holds the coordinates rotated back to the coordinate system of each phone, where the line checks are done.
+     */
+    private final SpatialHash<String> deviceIndex = new SpatialHash<>(DistanceCalculation.MAX_NEIGHBOUR_DISTANCE);
+
+    /**
+     * Arrangements the current game watches for, over the other devices and this device.
+     * Changes are sent to the handler as {@link DataHandler#DATA_TYPE_ARRANGEMENT_CHANGED}.
+     */
+    private final ArrangementEngine arrangements = new ArrangementEngine();
+
+    /**
+     * Which of the other devices and this device lie still.
+     * Changes are sent to the handler as {@link DataHandler#DATA_TYPE_STILLNESS_CHANGED}.
      */
-    private Map<String, Position> deviceList = new HashMap<>();
+    private final StillnessTracker stillness = new StillnessTracker();
 
     /**
      * HashMap with the data that needs to be sent. The key is the id of the device, primarily
      * needed for the bluetoothServer. This is the outputBuffer.
      * In case of a client, the string of the server should be empty ("").
+     * Coordinates replace the ones that were not sent yet, see {@link OutgoingQueue}.
+     * Changed by the game threads, the detector thread and the connection threads, so it is a concurrent map.
      */
-    private HashMap<String, ArrayList<DataPacket>> ouputBuffer = new HashMap<>();
+    private ConcurrentHashMap<String, OutgoingQueue> ouputBuffer = new ConcurrentHashMap<>();
+    private int outgoingCapacity = OutgoingQueue.DEFAULT_CAPACITY;
+    private int overflowPolicy = OutgoingQueue.DEFAULT_OVERFLOW_POLICY;
 
     /**
      * Contains all the active connections
      */
-    private HashMap<String, SocketInputOutputTrio> connectedSockets = new HashMap<>();
+    private ConcurrentHashMap<String, SocketInputOutputTrio> connectedSockets = new ConcurrentHashMap<>();
 
     private ArrayList<Serializable> inputBuffer = new ArrayList<>();
     private PatternDetector patternDetector = null;
@@ -80,7 +163,20 @@ public class GlobalResources {
     /**
      * Private constructor to prevent it from being called by external functions.
      */
-    private GlobalResources(){}
+    private GlobalResources(){
+        arrangements.setListener(new ArrangementEngine.Listener() {
+            @Override
+            public void onArrangementChanged(ArrangementEngine.Event event) {
+                alertify(DataHandler.DATA_TYPE_ARRANGEMENT_CHANGED, event);
+            }
+        });
+        stillness.setListener(new StillnessTracker.Listener() {
+            @Override
+            public void onStillnessChanged(StillnessTracker.Event event) {
+                alertify(DataHandler.DATA_TYPE_STILLNESS_CHANGED, event);
+            }
+        });
+    }
 
     /**
      * This method should be called to get this singleton.
@@ -111,31 +207,166 @@ public class GlobalResources {
         this.bluetoothServer = bluetoothServer;
     }
 
+    /**
+     * @return Read-only copy of the positions of the other devices by address, safe to read from any thread. The copy
+     * does not change, call this again for newer positions. Use a snapshot of {@link #getPositionStore()} for bulk or
+     * frequent reads.
+     */
     public Map<String, Position> getDevices() {
-        return deviceList;
+        DeviceMap current = deviceMap;
+        if(current.version == positionStore.getVersion())
+            return current.positions;
+
+        synchronized(deviceMapLock){
+            deviceMapSnapshot = positionStore.snapshot(deviceMapSnapshot);
+            current = deviceMap;
+            if(current.version != deviceMapSnapshot.getVersion()){
+                HashMap<String, Position> positions = new HashMap<>();
+                for(int i = 0; i < deviceMapSnapshot.size(); i++){
+                    if(deviceMapSnapshot.addresses[i] == null)
+                        continue;
+                    Position position = new Position(deviceMapSnapshot.x[i], deviceMapSnapshot.y[i], deviceMapSnapshot.z[i], deviceMapSnapshot.rotation[i], deviceMapSnapshot.found[i]);
+                    position.setTimestamp(deviceMapSnapshot.timestamp[i]);
+                    positions.put(deviceMapSnapshot.addresses[i], position);
+                }
+                current = new DeviceMap(deviceMapSnapshot.getVersion(), Collections.unmodifiableMap(positions));
+                deviceMap = current;
+            }
+            return current.positions;
+        }
+    }
+
+    public PositionStore getPositionStore(){
+        return positionStore;
     }
 
     /**
      * Only called by the Server. This is because only the server knows coordinates of other devices
      */
     public void updateDevicePosition(String deviceAddress, Position position){
-        if(deviceList.containsKey(deviceAddress)){
-            deviceList.put(deviceAddress, position);
-            alertify(DataHandler.DATA_TYPE_COORDINATES, position);
+        long timestamp = position.getTimestamp() != 0 ? position.getTimestamp() : ClockSync.currentTimeMillis();
+        updateDevicePosition(deviceAddress, position.getX(), position.getY(), position.getZ(), position.getRotation(), position.getFoundPattern(), timestamp);
+    }
+
+    /**
+     * Same as {@link #updateDevicePosition(String, Position)} without creating a Position, stamped with the current
+     * time. The listeners receive the address of the device.
+     */
+    public void updateDevicePosition(String deviceAddress, double x, double y, double z, double rotation, boolean foundPattern){
+        updateDevicePosition(deviceAddress, x, y, z, rotation, foundPattern, ClockSync.currentTimeMillis());
+    }
+
+    /**
+     * @param timestamp Time in ms of the camera frame the position was detected in, in the clock of {@link ClockSync}.
+     */
+    public void updateDevicePosition(String deviceAddress, double x, double y, double z, double rotation, boolean foundPattern, long timestamp){
+        if(positionStore.update(deviceAddress, x, y, z, rotation, foundPattern, timestamp)){
+            index(deviceAddress, x, y, rotation, foundPattern);
+            arrangements.update(deviceAddress, x, y, z, rotation, foundPattern);
+            stillness.update(deviceAddress, x, y, foundPattern, timestamp);
+            alertify(DataHandler.DATA_TYPE_COORDINATES, deviceAddress);
         }else{
             Log.e(TAG, "Attempted to update device position, but device " + deviceAddress + " doesn't exist!");
         }
     }
 
+    private void index(String deviceAddress, double x, double y, double rotation, boolean foundPattern){
+        synchronized(deviceIndex){
+            if(foundPattern){
+                //Same as getPhoneX and getPhoneY of Position
+                double radians = Math.toRadians(rotation);
+                double cos = Math.cos(radians);
+                double sin = Math.sin(radians);
+                deviceIndex.put(deviceAddress, x * cos - y * sin, x * sin + y * cos);
+            }else{
+                deviceIndex.remove(deviceAddress);
+            }
+        }
+    }
+
+    /**
+     * Find the devices close to a device, without checking all the devices.
+     * Only devices whose pattern is found are taken into account. The distance is measured in the coordinate system
+     * of the phones, see {@link Position#getPhoneX()}.
+     * @param deviceAddress Address of the device, as used in {@link #getDevices()}, or the address of this device.
+     * @param radius Distance in cm, queries up to {@link DistanceCalculation#MAX_NEIGHBOUR_DISTANCE} are the fastest.
+     * @return Addresses of the devices within the radius, this device included, in no particular order.
+     */
+    public List<String> getNeighbours(String deviceAddress, double radius){
+        List<String> neighbours = new ArrayList<>();
+        getNeighbours(deviceAddress, radius, neighbours);
+        return neighbours;
+    }
+
+    /**
+     * Same as {@link #getNeighbours(String, double)}, adding the addresses to the given list.
+     */
+    public void getNeighbours(String deviceAddress, double radius, List<String> neighbours){
+        synchronized(deviceIndex){
+            deviceIndex.queryNeighbours(deviceAddress, radius, neighbours);
+        }
+    }
+
+    /**
+     * @return Cached relations between the other devices and this device, keyed by their address. The matrix of
+     * {@link #getArrangements()}, so it is only updated once.
+     */
+    public RelationMatrix getRelations(){
+        return arrangements.getRelations();
+    }
+
+    /**
+     * @return Engine to watch for arrangements of the other devices and this device, keyed by their address.
+     */
+    public ArrangementEngine getArrangements(){
+        return arrangements;
+    }
+
+    /**
+     * @return Tracker of the other devices and this device lying still, keyed by their address.
+     */
+    public StillnessTracker getStillness(){
+        return stillness;
+    }
+
     /**
      * Update position of current device.
      * @param position The position of the current device.
      */
     public void updateOwnPosition(Position position){
         device.setPosition(position);
+        if(device.getMac() != null){
+            index(device.getMac(), position.getX(), position.getY(), position.getRotation(), position.getFoundPattern());
+            arrangements.update(device.getMac(), position);
+            stillness.update(device.getMac(), position.getX(), position.getY(), position.getFoundPattern(), ClockSync.currentTimeMillis());
+        }
         alertify(DataHandler.DATA_TYPE_OWN_POS_UPDATED, position);
         if(isClient) // Client needs to send coordinates to server
-            sendData(DataHandler.DATA_TYPE_COORDINATES, null);
+            sendData(DataHandler.DATA_TYPE_COORDINATES, position);
+    }
+
+    /**
+     * Stamp the position with the time of its camera frame in the clock of the server and update it.
+     * A client that did not synchronise its clock yet leaves the timestamp at 0, the server then uses the time the
+     * position arrived.
+     * @param captureTime Time in us of {@link ClockSync#localTime()} the camera frame was taken.
+     */
+    public void updateOwnPosition(Position position, long captureTime){
+        if(!isClient)
+            position.setTimestamp(captureTime / 1000);
+        else if(clockSync.isSynchronized())
+            position.setTimestamp(clockSync.toServerTime(captureTime) / 1000);
+        updateOwnPosition(position);
+    }
+
+    /**
+     * Publish a prediction of the position of the current device made between two camera frames.
+     * Only the local listeners are notified with {@link DataHandler#DATA_TYPE_OWN_POS_PREDICTED}, the position of the
+     * device and the other devices keep the camera positions.
+     * @param position The predicted position of the current device.
+     */
+    public void updatePredictedPosition(Position position){
+        alertify(DataHandler.DATA_TYPE_OWN_POS_PREDICTED, position);
     }
 
     public Device getDevice() {
@@ -162,12 +393,46 @@ public class GlobalResources {
         return moving;
     }
 
-    public void setTilted(boolean tilted){
-        this.tilted = tilted;
+    /**
+     * @param tiltX Rotation in radians around the device y-axis, positive when the positive x-axis points upwards.
+     * @param tiltY Rotation in radians around the device x-axis, positive when the positive y-axis points upwards.
+     */
+    public void setTilt(double tiltX, double tiltY){
+        this.tiltX = tiltX;
+        this.tiltY = tiltY;
+    }
+
+    public double getTiltX(){
+        return tiltX;
+    }
+
+    public double getTiltY(){
+        return tiltY;
+    }
+
+    /**
+     * @return Angle in degrees between the camera axis and the vertical.
+     */
+    public double getTotalTilt(){
+        double tanX = Math.tan(tiltX);
+        double tanY = Math.tan(tiltY);
+        return Math.toDegrees(Math.atan(Math.sqrt(tanX * tanX + tanY * tanY)));
+    }
+
+    public void setMaxTilt(double maxTilt){
+        this.maxTilt = maxTilt;
+    }
+
+    public double getMaxTilt(){
+        return maxTilt;
     }
 
+    /**
+     * @return True if the device is tilted too much for the tilt to be compensated.
+     */
     public boolean getTilted(){
-        return tilted;
+        //A camera facing the ground (|tilt| > 90 degrees) can never see the pattern
+        return Math.abs(tiltX) >= Math.PI / 2 || Math.abs(tiltY) >= Math.PI / 2 || getTotalTilt() > maxTilt;
     }
 
     public void setClient(boolean client){
@@ -187,43 +452,92 @@ public class GlobalResources {
         return handler;
     }
 
+    /**
+     * Follow the events without waiting for the main thread, for example to measure when coordinates arrive.
+     * @param listener Null to remove the listener.
+     */
+    public void setListener(Listener listener){
+        this.listener = listener;
+    }
+
+    public ClockSync getClockSync(){
+        return clockSync;
+    }
+
     /**
      * Send data to one or more connected devices
      * @param uuid null when sending to all devices, otherwise the UUID of the device the data
      *             is sent to
      * @param data data that is sent
-     * @return if the data is stored successfully. Is false if device UUID was not found
+     * @return if the data is stored successfully. Is false if device UUID was not found or its queue was full
      */
     public boolean sendData(String uuid, int dataType, Serializable data){
         if(uuid == null){ // send to all the connections
             Log.d(TAG, "Sending data packet to all clients.");
-            for(Map.Entry<String, ArrayList<DataPacket>> entry : ouputBuffer.entrySet()){
+            boolean stored = true;
+            for(Map.Entry<String, OutgoingQueue> entry : ouputBuffer.entrySet()){
                 Log.d(TAG, "Sending to " + entry.getKey());
 
                 // Store data
-                entry.getValue().add(new DataPacket(dataType, data));
+                stored &= entry.getValue().add(createPacket(dataType, data));
 
                 // Notify OutputThread that data is available (initialises the real sending)
-                connectedSockets.get(entry.getKey()).outputThread.sendData();
+                notifyOutputThread(entry.getKey());
             }
-            return true;
+            return stored;
         }else{
             Log.d(TAG, "Adding data for uuid[" + uuid + "] data[" + data + "]");
-            ArrayList<DataPacket> arrayList = ouputBuffer.get(uuid);
-            if(arrayList != null){
+            OutgoingQueue queue = ouputBuffer.get(uuid);
+            if(queue != null){
                 // Store data
-                arrayList.add(new DataPacket(dataType, data));
-                ouputBuffer.put(uuid, arrayList);
+                boolean stored = queue.add(createPacket(dataType, data));
 
                 // Notify OutputThread that data is available
-                connectedSockets.get(uuid).outputThread.sendData();
-                return true;
+                notifyOutputThread(uuid);
+                return stored;
             }else{
                 return false;
             }
         }
     }
 
+    /**
+     * A game packet keeps its priority when it is wrapped, see {@link DataPacket#PRIORITY_BULK}.
+     */
+    private static DataPacket createPacket(int dataType, Serializable data){
+        if(data instanceof DataPacket)
+            return new DataPacket(dataType, data, ((DataPacket) data).getPriority());
+        return new DataPacket(dataType, data);
+    }
+
+    private void notifyOutputThread(String deviceAddress){
+        // The socket is stored after the device was added, the thread takes the data when it starts
+        SocketInputOutputTrio socketInputOutputTrio = connectedSockets.get(deviceAddress);
+        if(socketInputOutputTrio != null)
+            socketInputOutputTrio.outputThread.sendData();
+    }
+
+    /**
+     * Set the size of the queue of every connection made from now on and what happens when it is full.
+     * @param capacity Number of packets that can wait besides the coordinates.
+     * @param overflowPolicy One of the OVERFLOW_ policies of {@link OutgoingQueue}.
+     */
+    public void setOutgoingQueue(int capacity, int overflowPolicy){
+        if(capacity < 1)
+            throw new IllegalArgumentException("Invalid value: " + capacity);
+        if(overflowPolicy < OutgoingQueue.OVERFLOW_DROP_OLDEST || overflowPolicy > OutgoingQueue.OVERFLOW_REJECT)
+            throw new IllegalArgumentException("Invalid value: " + overflowPolicy);
+        this.outgoingCapacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * @return The queue of the given device, to look at its depth and overflows. Null if it is not connected.
+     */
+    public OutgoingQueue getOutgoingQueue(String deviceAddress){
+        return ouputBuffer.get(deviceAddress);
+    }
+
     /**
      * Send data to all connected devices
      * @param dataType the type of data
@@ -262,12 +576,12 @@ public class GlobalResources {
      * @return the data that needs to be sent
      */
     public DataPacket getDataForClient(String uuid){
-        ArrayList<DataPacket> arrayList = ouputBuffer.get(uuid);
-        if(arrayList != null){
-            if(arrayList.size() > 0) {
-                Log.d(TAG, "Getting data for client " + uuid + " with size " + arrayList.size());
-                return arrayList.remove(0);
-            }
+        OutgoingQueue queue = ouputBuffer.get(uuid);
+        if(queue != null){
+            DataPacket dataPacket = queue.poll();
+            if(dataPacket != null)
+                Log.d(TAG, "Getting data for client " + uuid + " with " + queue.size() + " left");
+            return dataPacket;
         }
         return null;
     }
@@ -278,8 +592,8 @@ public class GlobalResources {
      */
     public void addDevice(String deviceAddress){
         Log.d(TAG, "Adding device " + deviceAddress);
-        deviceList.put(deviceAddress, new Position());
-        ouputBuffer.put(deviceAddress, new ArrayList<DataPacket>());
+        positionStore.add(deviceAddress);
+        ouputBuffer.put(deviceAddress, new OutgoingQueue(outgoingCapacity, overflowPolicy));
     }
 
     /**
@@ -288,11 +602,16 @@ public class GlobalResources {
      */
     public void removeDevice(String uuid){
         Log.d(TAG, "Removing device " + uuid);
-        deviceList.remove(uuid);
+        positionStore.remove(uuid);
+        synchronized(deviceIndex){
+            deviceIndex.remove(uuid);
+        }
+        arrangements.remove(uuid);
+        stillness.remove(uuid);
         ouputBuffer.remove(uuid);
     }
 
-    public HashMap<String, ArrayList<DataPacket>> getConnectedDevices(){
+    public Map<String, OutgoingQueue> getConnectedDevices(){
         return ouputBuffer;
     }
 
@@ -306,7 +625,7 @@ public class GlobalResources {
         addDevice(bluetoothDevice.getAddress());
         alertify(DataHandler.DATA_TYPE_DEVICE_CONNECTED, bluetoothDevice);
 
-        Log.d(TAG, "Amount of connected devices: " + deviceList.size());
+        Log.d(TAG, "Amount of connected devices: " + getDevices().size());
     }
 
     public void addConnectedDevice(BluetoothDevice bluetoothDevice, SocketInputOutputTrio socketInputOutputTrio){
@@ -318,6 +637,19 @@ public class GlobalResources {
         connectedSockets.put(deviceAddress, socketInputOutputTrio);
     }
 
+    /**
+     * Adds a device that connected to the server over any transport. Only devices connected over Bluetooth are
+     * passed to the handler, which expects a BluetoothDevice.
+     */
+    public void addConnectedDevice(Connection connection, SocketInputOutputTrio socketInputOutputTrio){
+        if(connection instanceof RfcommConnection){
+            addConnectedDevice(((RfcommConnection) connection).getBluetoothDevice(), socketInputOutputTrio);
+        }else{
+            addDevice(connection.getRemoteAddress());
+            connectedSockets.put(connection.getRemoteAddress(), socketInputOutputTrio);
+        }
+    }
+
     /**
      * Remove a connected BluetoothDevice.
      * @param bluetoothDevice The device that needs to be removed. This is given as a
@@ -359,12 +691,15 @@ public class GlobalResources {
      * @param obj an optional object
      */
     public void alertify(int dataType, Object obj){
+        Listener current = listener;
+        if(current != null)
+            current.onEvent(dataType, obj);
         if(handler != null) {
             Message msg = handler.obtainMessage();
             msg.what = dataType;
             msg.obj = obj;
             handler.sendMessage(msg);
-        }else{
+        }else if(current == null){
             Log.e(TAG, "Handler is null!");
         }
     }
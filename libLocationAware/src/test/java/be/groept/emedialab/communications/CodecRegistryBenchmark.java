@@ -0,0 +1,134 @@
+package be.groept.emedialab.communications;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+import be.groept.emedialab.server.data.Position;
+
+/**
+ * Encode and decode throughput of the {@link CodecRegistry} against the legacy Java serialization and Base64 of
+ * {@link DataHandler#serializableToString}, for the payloads the games send.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CodecRegistryBenchmark {
+
+    /**
+     * Same fields as the packets of animal_farm.
+     */
+    public static class GamePacket implements Serializable {
+        final int soundId;
+        final int imageId;
+
+        GamePacket(int soundId, int imageId){
+            this.soundId = soundId;
+            this.imageId = imageId;
+        }
+    }
+
+    @Param({"int", "position", "game"})
+    public String payload;
+
+    private CodecRegistry registry;
+    private DataPacket packet;
+    private ByteArrayOutputStream bytes;
+    private DataOutputStream output;
+    private byte[] encoded;
+    private String legacyEncoded;
+
+    @Setup
+    public void setup() throws IOException {
+        registry = new CodecRegistry();
+        registry.register(CodecRegistry.FIRST_GAME_ID, GamePacket.class, new CodecRegistry.Codec<GamePacket>() {
+            @Override
+            public void write(DataOutput output, GamePacket value) throws IOException {
+                output.writeInt(value.soundId);
+                output.writeInt(value.imageId);
+            }
+
+            @Override
+            public GamePacket read(DataInput input) throws IOException {
+                int soundId = input.readInt();
+                return new GamePacket(soundId, input.readInt());
+            }
+        });
+
+        Serializable data;
+        switch(payload){
+            case "int":
+                data = 17;
+                break;
+            case "position":
+                data = new Position(12.5, 30.25, 41, 270, true);
+                break;
+            default:
+                data = new GamePacket(3, 2);
+                break;
+        }
+        //Wrapped twice, like GlobalResources.sendData does
+        packet = new DataPacket(DataHandler.DATA_TYPE_DATA_PACKET, new DataPacket(5, data));
+
+        bytes = new ByteArrayOutputStream();
+        output = new DataOutputStream(bytes);
+        registry.write(output, packet);
+        encoded = bytes.toByteArray();
+        legacyEncoded = DataHandler.serializableToString(packet);
+        System.out.println("\n" + payload + ": " + encoded.length + " bytes with codecs, " + (legacyEncoded.length() + 2) + " bytes legacy");
+    }
+
+    @Benchmark
+    public byte[] encodeRegistry() throws IOException {
+        bytes.reset();
+        registry.write(output, packet);
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public String encodeLegacy() throws IOException {
+        return DataHandler.serializableToString(packet);
+    }
+
+    @Benchmark
+    public Serializable decodeRegistry() throws IOException {
+        return registry.read(new DataInputStream(new ByteArrayInputStream(encoded)));
+    }
+
+    @Benchmark
+    public Serializable decodeLegacy() throws IOException, ClassNotFoundException {
+        return DataHandler.serializableFromString(legacyEncoded);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(CodecRegistryBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
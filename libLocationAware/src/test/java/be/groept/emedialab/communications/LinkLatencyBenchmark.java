@@ -0,0 +1,191 @@
+package be.groept.emedialab.communications;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import be.groept.emedialab.server.ConnectionServer;
+import be.groept.emedialab.server.data.Position;
+import be.groept.emedialab.util.GlobalResources;
+
+/**
+ * Latency of coordinates from their detection on a client up to the {@link GlobalResources#alertify} of the server,
+ * over loopback TCP with the conditions of a {@link SimulatedTransport}.
+ *
+ * The server is the real {@link ConnectionServer} with its input threads and GlobalResources. Every benchmark thread is
+ * a client with its own connection, which encodes the coordinates the way the client output thread does; the client
+ * threads themselves can not be used because they share the GlobalResources of this process. A client sends its next
+ * coordinates once the previous ones arrived, so the sample times are the latencies (run with -t for the number of
+ * clients).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Threads(4)
+@Fork(1)
+public class LinkLatencyBenchmark {
+
+    private static final long TIMEOUT = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * "loopback" without conditions, "bluetooth" like {@link LinkConditions#bluetooth()} and "congested" with a
+     * bandwidth that barely fits the coordinates of all clients.
+     */
+    @Param({"loopback", "bluetooth", "congested"})
+    public String link;
+
+    private SimulatedTransport transport;
+    private TcpTransport tcpTransport;
+    private ConnectionServer server;
+    private final AtomicInteger clientCount = new AtomicInteger();
+    private final ConcurrentHashMap<Integer, Client> clients = new ConcurrentHashMap<>();
+
+    @State(Scope.Thread)
+    public static class Client {
+        int id;
+        int sequence = 0;
+        volatile int arrived = 0;
+        volatile Thread waiter;
+        Connection connection;
+        FrameWriter frameWriter;
+        Protocol protocol;
+
+        @Setup
+        public void setup(LinkLatencyBenchmark benchmark) throws IOException, InterruptedException {
+            id = benchmark.clientCount.incrementAndGet();
+            benchmark.clients.put(id, this);
+            waiter = Thread.currentThread();
+            connection = benchmark.transport.connect(benchmark.tcpTransport.getAddress());
+            protocol = new Protocol();
+            frameWriter = new FrameWriter(connection.getOutputStream());
+            protocol.sendHello(frameWriter);
+            frameWriter.flush();
+
+            //Reads the hello of the server and whatever else it sends
+            final FrameReader frameReader = new FrameReader(connection.getInputStream());
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try{
+                        while(frameReader.next())
+                            DataHandler.readFrame(frameReader, "", protocol);
+                    }catch(IOException e){
+                        //Connection closed
+                    }
+                }
+            });
+            reader.setDaemon(true);
+            reader.start();
+
+            long deadline = System.nanoTime() + TIMEOUT;
+            while(protocol.getVersion() != Protocol.VERSION){
+                if(System.nanoTime() > deadline)
+                    throw new IllegalStateException("No hello from the server");
+                Thread.sleep(1);
+            }
+        }
+
+        void arrived(int number){
+            arrived = number;
+            LockSupport.unpark(waiter);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            connection.close();
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        LinkConditions conditions;
+        switch(link){
+            case "bluetooth":
+                conditions = LinkConditions.bluetooth();
+                break;
+            case "congested":
+                conditions = LinkConditions.bluetooth();
+                //About 30 bytes of coordinates per round-trip of every client
+                conditions.setBandwidth(2 * 1024);
+                conditions.setBufferSize(512);
+                break;
+            default:
+                conditions = new LinkConditions();
+                break;
+        }
+        conditions.setSeed(42);
+
+        GlobalResources globalResources = GlobalResources.getInstance();
+        globalResources.setClient(false);
+        //The client of the coordinates is in y, their number in x
+        globalResources.setListener(new GlobalResources.Listener() {
+            @Override
+            public void onEvent(int dataType, Object obj) {
+                if(dataType != DataHandler.DATA_TYPE_COORDINATES)
+                    return;
+                Position position = new Position();
+                if(GlobalResources.getInstance().getPositionStore().getPosition((String) obj, position)){
+                    Client client = clients.get((int) position.getY());
+                    if(client != null)
+                        client.arrived((int) position.getX());
+                }
+            }
+        });
+
+        tcpTransport = new TcpTransport(0);
+        transport = new SimulatedTransport(tcpTransport, conditions);
+        server = new ConnectionServer(transport);
+        server.start();
+    }
+
+    @TearDown
+    public void tearDown(){
+        server.quit();
+        GlobalResources.getInstance().setListener(null);
+    }
+
+    @Benchmark
+    public int coordinates(Client client) throws IOException {
+        int number = ++client.sequence;
+        Position position = new Position(number, client.id, 30, 90, true);
+        DataHandler.sendData(client.frameWriter, new DataPacket(DataHandler.DATA_TYPE_COORDINATES, position), client.protocol);
+        client.frameWriter.flush();
+
+        long deadline = System.nanoTime() + TIMEOUT;
+        while(client.arrived < number){
+            if(System.nanoTime() > deadline)
+                throw new IllegalStateException("Coordinates " + number + " of client " + client.id + " did not arrive");
+            LockSupport.parkNanos(client, TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return number;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(LinkLatencyBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,93 @@
+package be.groept.emedialab.math;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scaling of the {@link BulkGeometry} kernels with the number of threads, for load tests with hundreds of devices.
+ * The devices lie in columns of phones next to each other, like in {@link ClusteringBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BulkGeometryBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"200", "1000"})
+    public int devices;
+
+    private BulkGeometry geometry;
+    private double[] x;
+    private double[] y;
+    private boolean[] found;
+    private double[] matrix;
+    private BulkGeometry.Neighbours neighbours;
+    private int[] labels;
+
+    @Setup
+    public void setup(){
+        geometry = new BulkGeometry(threads);
+        Random random = new Random(42);
+        x = new double[devices];
+        y = new double[devices];
+        found = new boolean[devices];
+        for(int i = 0; i < devices; i++){
+            //Columns of 5 phones, 8 cm apart, columns 30 cm apart
+            x[i] = (i / 5) * 30 + random.nextDouble() * 2;
+            y[i] = (i % 5) * 8 + random.nextDouble() * 2;
+            found[i] = random.nextInt(10) != 0;
+        }
+    }
+
+    @TearDown
+    public void tearDown(){
+        geometry.shutdown();
+    }
+
+    @Benchmark
+    public double[] distanceMatrix(){
+        matrix = geometry.distanceMatrix(x, y, found, devices, matrix);
+        return matrix;
+    }
+
+    @Benchmark
+    public BulkGeometry.Neighbours neighbours(){
+        neighbours = geometry.neighbours(x, y, found, devices, DistanceCalculation.MAX_NEIGHBOUR_DISTANCE, neighbours);
+        return neighbours;
+    }
+
+    @Benchmark
+    public int[] groupLabels(){
+        labels = geometry.groupLabels(x, y, found, devices, DistanceCalculation.MAX_NEIGHBOUR_DISTANCE, labels);
+        return labels;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(BulkGeometryBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,68 @@
+package be.groept.emedialab.math;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import be.groept.emedialab.server.data.Position;
+
+/**
+ * Scales {@link DistanceCalculation#getGroups(Map)} from a single table to a classroom full of simulated devices.
+ * The devices lie in columns of phones next to each other, with some of them not seeing the pattern.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ClusteringBenchmark {
+
+    @Param({"5", "50", "200", "1000"})
+    public int devices;
+
+    private Map<String, Position> positions;
+
+    @Setup
+    public void setup(){
+        Random random = new Random(42);
+        positions = new LinkedHashMap<>();
+        for(int i = 0; i < devices; i++){
+            //Columns of 5 phones, 8 cm apart, columns 30 cm apart
+            double x = (i / 5) * 30 + random.nextDouble() * 2;
+            double y = (i % 5) * 8 + random.nextDouble() * 2;
+            positions.put("device" + i, new Position(x, y, 30, random.nextDouble() * 4, random.nextInt(10) != 0));
+        }
+    }
+
+    @Benchmark
+    public ArrayList<HashMap<String, Position>> getGroups(){
+        return DistanceCalculation.getGroups(positions);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ClusteringBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,218 @@
+package be.groept.emedialab.math;
+
+import org.opencv.core.Point;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import be.groept.emedialab.image_manipulation.PatternCoordinates;
+import be.groept.emedialab.server.data.Position;
+import be.groept.emedialab.util.Point3D;
+import be.groept.emedialab.util.Vector;
+
+/**
+ * Compares the original object based position calculation, kept below as {@link BaselineCalculation}, with the
+ * primitive {@link PositionCalculation#patternToReal(double, double, double, double, double, double, double, double, Position)}
+ * that writes into a reused {@link Position}.
+ * Every call takes the next pattern of a set of random patterns, so the JIT can not fold the corners.
+ * Run with the main method, or with -prof gc to see the allocation rate of both versions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PositionCalculationBenchmark {
+
+    //Power of two, the index wraps with a mask
+    private static final int PATTERNS = 64;
+
+    private BaselineCalculation baseline;
+    private PositionCalculation calc;
+    private PatternCoordinates[] patterns;
+    //x and y of the four corners of every pattern
+    private double[][] corners;
+    private int index = 0;
+    private Position position;
+
+    @Setup
+    public void setup(){
+        CameraConstants.getInstance().initPhone("867545010631055");
+        baseline = new BaselineCalculation(18, 54);
+        calc = new PositionCalculation(18, 640, 480, 54);
+        position = new Position();
+
+        //Squares of different sizes, turned and moved around the frame
+        Random random = new Random(42);
+        patterns = new PatternCoordinates[PATTERNS];
+        corners = new double[PATTERNS][];
+        double[] offsetX = {-1, -1, 1, 1};
+        double[] offsetY = {-1, 1, 1, -1};
+        for(int i = 0; i < PATTERNS; i++){
+            double centreX = 150 + random.nextDouble() * 340;
+            double centreY = 110 + random.nextDouble() * 260;
+            double halfSide = 30 + random.nextDouble() * 40;
+            double angle = random.nextDouble() * 2 * Math.PI;
+            double cos = Math.cos(angle);
+            double sin = Math.sin(angle);
+            corners[i] = new double[8];
+            Point[] points = new Point[4];
+            for(int j = 0; j < 4; j++){
+                double x = centreX + halfSide * (offsetX[j] * cos - offsetY[j] * sin);
+                double y = centreY + halfSide * (offsetX[j] * sin + offsetY[j] * cos);
+                corners[i][2 * j] = x;
+                corners[i][2 * j + 1] = y;
+                points[j] = new Point(x, y);
+            }
+            patterns[i] = new PatternCoordinates(points[0], points[1], points[2], points[3], 0.0);
+        }
+    }
+
+    /**
+     * The calculation of PatternDetector before the primitive version.
+     */
+    @Benchmark
+    public Position baseline(){
+        PatternCoordinates pattern = patterns[index];
+        index = (index + 1) & (PATTERNS - 1);
+        Point3D coordinates = baseline.patternToReal(pattern);
+        return new Position(coordinates.getX(), coordinates.getY(), coordinates.getZ(), baseline.calculateRotation(pattern));
+    }
+
+    @Benchmark
+    public Position primitives(){
+        double[] c = corners[index];
+        index = (index + 1) & (PATTERNS - 1);
+        calc.patternToReal(c[0], c[1], c[2], c[3], c[4], c[5], c[6], c[7], position);
+        return position;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(PositionCalculationBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+
+    /**
+     * Copy of the allocating PositionCalculation before the primitive version, for a 640x480 frame.
+     * Only its debug logging is left out, so both versions do the same work apart from the allocations.
+     */
+    static class BaselineCalculation {
+        private double xap, xbp, xcp, xdp;
+        private double yap, ybp, ycp, ydp;
+        private double phiX;
+        private double patternSide;
+        private double canvasXSize = 640;
+        private double fieldOfViewX;
+        private double scaleFactor;
+
+        BaselineCalculation(double patternSide, double phiX){
+            this.patternSide = patternSide;
+            this.phiX = phiX;
+        }
+
+        Point3D patternToReal(PatternCoordinates pattern){
+            initPixelValues(pattern);
+            calculateFieldOfView();
+
+            double zCoordinate = fieldOfViewX / (2 * Math.tan(Math.toRadians(phiX / 2)));
+
+            Point centerPattern = calculateCenterPattern();
+            centerPattern.x -= 320;
+            centerPattern.y -= 240;
+            centerPattern.y *= -1;
+            centerPattern.x -= (5.35 / scaleFactor);
+            centerPattern.y -= (2 / scaleFactor);
+
+            double ex = (CameraConstants.getInstance().getEx() / CameraConstants.getInstance().getHeight()) * zCoordinate;
+            double ey = (CameraConstants.getInstance().getEy() / CameraConstants.getInstance().getHeight()) * zCoordinate;
+            Point translated = new Point(
+                    centerPattern.x + ex,
+                    centerPattern.y + ey
+            );
+
+            double rotation = calculateRotation(pattern);
+            Point rotated = new Point(
+                    translated.x * Math.cos(Math.toRadians(rotation)) + translated.y * Math.sin(Math.toRadians(rotation)),
+                    -translated.x * Math.sin(Math.toRadians(rotation)) + translated.y * Math.cos(Math.toRadians(rotation))
+            );
+
+            double xCoordinate = rotated.x * scaleFactor;
+            double yCoordinate = rotated.y * scaleFactor;
+            return new Point3D(-xCoordinate, -yCoordinate, zCoordinate);
+        }
+
+        private void initPixelValues(PatternCoordinates patternCoordinates){
+            xap = patternCoordinates.getNum(1).x;
+            yap = patternCoordinates.getNum(1).y;
+            xbp = patternCoordinates.getNum(2).x;
+            ybp = patternCoordinates.getNum(2).y;
+            xcp = patternCoordinates.getNum(3).x;
+            ycp = patternCoordinates.getNum(3).y;
+            xdp = patternCoordinates.getNum(4).x;
+            ydp = patternCoordinates.getNum(4).y;
+        }
+
+        private Point calculateCenterPattern(){
+            return new Point(
+                    (xap + xbp + xcp + xdp)/4,
+                    (yap + ybp + ycp + ydp)/4
+            );
+        }
+
+        private void calculateFieldOfView(){
+            double patternSideAB = Math.sqrt(Math.pow(xap - xbp, 2) + Math.pow(yap - ybp, 2));
+            double patternSideBC = Math.sqrt(Math.pow(xbp - xcp, 2) + Math.pow(ybp - ycp, 2));
+            double patternSideCD = Math.sqrt(Math.pow(xcp - xdp, 2) + Math.pow(ycp - ydp, 2));
+            double patternSideDA = Math.sqrt(Math.pow(xdp - xap, 2) + Math.pow(ydp - yap, 2));
+            double patternSidePx = (patternSideAB + patternSideBC + patternSideCD + patternSideDA) / 4.0;
+
+            scaleFactor = patternSide/patternSidePx;
+            fieldOfViewX = (patternSide / patternSidePx) * canvasXSize;
+        }
+
+        double calculateRotation(PatternCoordinates pixelPatternCoordinates){
+            Point corner1 = pixelPatternCoordinates.getNum(1);
+            Point corner2 = pixelPatternCoordinates.getNum(2);
+            Point corner3 = pixelPatternCoordinates.getNum(3);
+            Point corner4 = pixelPatternCoordinates.getNum(4);
+
+            Vector xAxis = new Vector(640, 0);
+            Vector side14 = new Vector(corner4.x - corner1.x, corner4.y - corner1.y);
+            Vector side23 = new Vector(corner3.x - corner2.x, corner3.y - corner2.y);
+
+            double cos14 = side14.dotProduct(xAxis)/(side14.getLength() * xAxis.getLength());
+            double cos23 = side23.dotProduct(xAxis)/(side23.getLength() * xAxis.getLength());
+
+            Vector yAxis = new Vector(0, -480);
+            Vector side12 = new Vector(corner2.x - corner1.x, corner2.y - corner1.y);
+            Vector side43 = new Vector(corner3.x - corner4.x, corner3.y - corner4.y);
+
+            double cos12 = side12.dotProduct(yAxis)/(side12.getLength() * yAxis.getLength());
+            double cos43 = side43.dotProduct(yAxis)/(side43.getLength() * yAxis.getLength());
+
+            double cos = (cos14 + cos23 + cos12 + cos43)/4;
+
+            if(corner4.y > corner1.y)
+                return 360 - Math.toDegrees(Math.acos(cos));
+            else
+                return Math.toDegrees(Math.acos(cos));
+        }
+    }
+}
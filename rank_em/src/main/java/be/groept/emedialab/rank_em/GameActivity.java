@@ -28,8 +28,6 @@ import android.widget.ImageView;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
 
-import org.opencv.core.Point;
-
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -42,15 +40,17 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
-import java.util.TreeMap;
 
 import be.groept.emedialab.animations.confetti.ConfettiFallView;
 import be.groept.emedialab.communications.DataHandler;
 import be.groept.emedialab.communications.DataPacket;
+import be.groept.emedialab.communications.OutgoingQueue;
 import be.groept.emedialab.image_manipulation.PatternDetector;
 import be.groept.emedialab.image_manipulation.RunPatternDetector;
-import be.groept.emedialab.math.DistanceCalculation;
-import be.groept.emedialab.server.data.Position;
+import be.groept.emedialab.math.LineArrangement;
+import be.groept.emedialab.math.RelationMatrix;
+import be.groept.emedialab.movement.StillnessTracker;
+import be.groept.emedialab.server.data.PositionStore;
 import be.groept.emedialab.util.GlobalResources;
 
 /**
@@ -95,6 +95,11 @@ public class GameActivity extends AppCompatActivity {
 
     public final static int TOTAL_LEVELS = 10;
 
+    /**
+     * Let the devices in the wrong place shake once all devices lie still. Off, as in the original game.
+     */
+    private final static boolean SHAKE_HINT = false;
+
     private MediaPlayer mediaPlayer = new MediaPlayer();
 
     /**
@@ -114,10 +119,15 @@ public class GameActivity extends AppCompatActivity {
                 if(!levelingUp && !won) {
                     checkDistance();
                 }
+            }else if(msg.what == DataHandler.DATA_TYPE_STILLNESS_CHANGED){
+                if(SHAKE_HINT && !levelingUp && !won && !GlobalResources.getInstance().getClient()){
+                    checkMovement((StillnessTracker.Event) msg.obj);
+                }
             }else if(msg.what == DataHandler.DATA_TYPE_DEVICE_DISCONNECTED){
                 BluetoothDevice bluetoothDevice = (BluetoothDevice) msg.obj;
                 Log.e(TAG, "Device " + bluetoothDevice.getAddress() + " disconnected!");
                 sortedValues.remove(bluetoothDevice.getAddress());
+                lineArrangement.remove(bluetoothDevice.getAddress());
                 if(sortedValues.size() <= SecondActivity.minNumberOfDevices){
                     leaveGame(mContentView);
                 }
@@ -192,6 +202,8 @@ public class GameActivity extends AppCompatActivity {
 
         level = 1;
         GlobalResources.getInstance().setHandler(handler);
+        GlobalResources.getInstance().getStillness().setThreshold(distanceForLackOfMovement / 2);
+        GlobalResources.getInstance().getStillness().setDwellTime(secondsBeforeLackOfMovement * 1000);
 
         setContentView(R.layout.activity_game);
         mContentView = findViewById(R.id.fullscreen_content);
@@ -468,7 +480,13 @@ public class GameActivity extends AppCompatActivity {
 
     private void serverSetup(boolean levelUp){
         numbersToPhone.clear();
-        HashMap<String, Position> connectedDevices = (HashMap) GlobalResources.getInstance().getDevices();
+        //Only the addresses are needed
+        List<String> connectedDevices = new ArrayList<>();
+        devicePositions = GlobalResources.getInstance().getPositionStore().snapshot(devicePositions);
+        for(int slot = 0; slot < devicePositions.size(); slot++){
+            if(devicePositions.addresses[slot] != null)
+                connectedDevices.add(devicePositions.addresses[slot]);
+        }
         ArrayList<Integer> newNumbers = populateList(connectedDevices.size());
 
         while(newNumbers.equals(oldNumbers))
@@ -476,7 +494,7 @@ public class GameActivity extends AppCompatActivity {
         oldNumbers = newNumbers;
 
         int i = 0;
-        for(String key: connectedDevices.keySet()){
+        for(String key: connectedDevices){
             if(!levelUp) {
                 GlobalResources.getInstance().sendData(key, new DataPacket(TYPE_DISPLAY, newNumbers.get(i)));
             }else{
@@ -530,7 +548,7 @@ public class GameActivity extends AppCompatActivity {
                         @Override
                         public void run() {
                             startSwipeOut();
-                            HashMap<String, ArrayList<DataPacket>> connectedDevices = GlobalResources.getInstance().getConnectedDevices();
+                            Map<String, OutgoingQueue> connectedDevices = GlobalResources.getInstance().getConnectedDevices();
                             for (String key : connectedDevices.keySet())
                                 GlobalResources.getInstance().sendData(key, new DataPacket(TYPE_NEW_LEVEL));
                         }
@@ -616,16 +634,27 @@ public class GameActivity extends AppCompatActivity {
         return newNumbers;
     }
 
+    /**
+     * Devices in line, kept between position updates.
+     */
+    private final LineArrangement lineArrangement = new LineArrangement(LineArrangement.FIT_ORDINARY);
+
+    /**
+     * Positions of the other devices, only copied again when one of them moved.
+     */
+    private PositionStore.Snapshot devicePositions = null;
+
     private void checkDistance(){
-        //detectLackOfMovement();
         Log.d(TAG, "Checking distance because position of device was updated");
-        Map<String, Position> map = GlobalResources.getInstance().getDevices();
-        Map<String, Position> realMap = new TreeMap<>();
-        realMap.putAll(map);
-        realMap.put("ownpos", GlobalResources.getInstance().getDevice().getPosition());
+        //Devices that did not move don't change the fit
+        devicePositions = GlobalResources.getInstance().getPositionStore().snapshot(devicePositions);
+        for(int i = 0; i < devicePositions.size(); i++){
+            if(devicePositions.addresses[i] != null)
+                lineArrangement.update(devicePositions.addresses[i], devicePositions.x[i], devicePositions.y[i], devicePositions.rotation[i], devicePositions.found[i]);
+        }
+        lineArrangement.update("ownpos", GlobalResources.getInstance().getDevice().getPosition());
 
-        LinkedHashMap<String, Point> line = DistanceCalculation.getLine(realMap);
-        Log.d(TAG, "Line: " + line.toString());
+        LineArrangement.Arrangement line = lineArrangement.arrange();
 
         ArrayList<String> wrongDevices = new ArrayList<>();
 
@@ -634,7 +663,10 @@ public class GameActivity extends AppCompatActivity {
         if(line.size() == sortedValues.size()){
             //int i = 0;
             ArrayList<String> realArray = new ArrayList(sortedValues.keySet());
-            ArrayList<String> array = new ArrayList(line.keySet());
+            ArrayList<String> array = new ArrayList<>(line.size());
+            for(int i = 0; i < line.size(); i++){
+                array.add(line.getKey(i));
+            }
             Log.d(TAG, "EXPECTED expected values: " + realArray.toString());
             Log.d(TAG, "EXPECTED received values: " + array.toString());
 
@@ -656,62 +688,63 @@ public class GameActivity extends AppCompatActivity {
 
     private static final int secondsBeforeLackOfMovement = 5;
     private static final double distanceForLackOfMovement = 1.5;
-    private long lackOfMovementTime = System.currentTimeMillis();
-    Map<String, Position> oldPositions = new HashMap<>();
+    private boolean shaking = false;
 
-    private void detectLackOfMovement(){
-        Map<String, Position> deviceList = GlobalResources.getInstance().getDevices();
-        deviceList.put("ownpos", GlobalResources.getInstance().getDevice().getPosition());
-
-        if(oldPositions.size() == 0){
-            oldPositions.putAll(deviceList);
-            lackOfMovementTime = System.currentTimeMillis();
-        }
-
-        for(Map.Entry<String, Position> entry : deviceList.entrySet()){
-            Log.d(TAG, "MovementDetection: Device[" + entry.getKey() + "] at " + entry.getValue());
-        }
-
-        for(Map.Entry<String, Position> entry : deviceList.entrySet()){
-            Log.d(TAG, "MovementDetection: coordinate[" + entry.getValue() + "]");
-            double distance = DistanceCalculation.getDistance(oldPositions.get(entry.getKey()), entry.getValue());
-            if(distance > distanceForLackOfMovement / 2 || Double.isNaN(distance)){
-                lackOfMovementTime = System.currentTimeMillis();
-                oldPositions.put(entry.getKey(), entry.getValue());
-            }
-        }
-
-        if((System.currentTimeMillis() - lackOfMovementTime) / 1000 >= secondsBeforeLackOfMovement){
+    /**
+     * Let the devices in the wrong place shake once all devices lie still, stop as soon as one of them moves.
+     */
+    private void checkMovement(StillnessTracker.Event event){
+        if(GlobalResources.getInstance().getStillness().isAllStill()){
             Log.d(TAG, "MovementDetection: Lack of movement!");
+            String ownAddress = GlobalResources.getInstance().getDevice().getMac();
             ArrayList<String> wrongDevices = getWrongDevices();
             for(String deviceAddress : wrongDevices){
-                GlobalResources.getInstance().sendData(deviceAddress, new DataPacket(TYPE_START_SHAKE));
+                if(deviceAddress.equals(ownAddress))
+                    handleData(new DataPacket(TYPE_START_SHAKE));
+                else
+                    GlobalResources.getInstance().sendData(deviceAddress, new DataPacket(TYPE_START_SHAKE));
             }
-        }else{
-            Log.d(TAG, "Devices have moved " + (System.currentTimeMillis() - lackOfMovementTime) / 1000 + " seconds ago.");
+            shaking = true;
+        }else if(!event.isStill() && shaking){
+            Log.d(TAG, "MovementDetection: Device " + event.getKey() + " started moving.");
             GlobalResources.getInstance().sendData(new DataPacket(TYPE_STOP_SHAKE));
+            handleData(new DataPacket(TYPE_STOP_SHAKE));
+            shaking = false;
         }
     }
 
     private ArrayList<String> getWrongDevices(){
         ArrayList<String> wrongDevices = new ArrayList<>();
 
-        Map<String, Position> allDevices = GlobalResources.getInstance().getDevices();
-        allDevices.put("ownpos", GlobalResources.getInstance().getDevice().getPosition());
-
-        for(Map.Entry<String, Position> entry : allDevices.entrySet()){
+        //The other devices and this device, under its own address like in the index and the relations
+        List<String> allDevices = new ArrayList<>();
+        devicePositions = GlobalResources.getInstance().getPositionStore().snapshot(devicePositions);
+        for(int slot = 0; slot < devicePositions.size(); slot++){
+            if(devicePositions.addresses[slot] != null)
+                allDevices.add(devicePositions.addresses[slot]);
+        }
+        allDevices.add(GlobalResources.getInstance().getDevice().getMac());
+
+        //A device next in line is at most 1 cm aside and 10 cm along the line, the margin of the cached relations.
+        //The index of GlobalResources is in the coordinate system of the phones, that is where the line check is done.
+        double range = Math.sqrt(1 + 10 * 10);
+        RelationMatrix relations = GlobalResources.getInstance().getRelations();
+        List<String> candidates = new ArrayList<>();
+        for(String device : allDevices){
             boolean nextToSomeone = false;
-            for(Map.Entry<String, Position> secondEntry : allDevices.entrySet()){
-                if(!secondEntry.getKey().equals(entry.getKey())){
-                    if(DistanceCalculation.isNextInLineHorizontal(entry.getValue(), secondEntry.getValue(), 1))
-                        nextToSomeone = true;
+            candidates.clear();
+            GlobalResources.getInstance().getNeighbours(device, range, candidates);
+            for(String candidate : candidates){
+                if(relations.is(device, candidate, RelationMatrix.IN_LINE_HORIZONTAL)){
+                    nextToSomeone = true;
+                    break;
                 }
             }
             if(!nextToSomeone){
-                Log.d(TAG, "Device " + entry.getKey() + " is alone!");
-                wrongDevices.add(entry.getKey());
+                Log.d(TAG, "Device " + device + " is alone!");
+                wrongDevices.add(device);
             }else{
-                Log.d(TAG, "Device " + entry.getKey() + " is next to someone.");
+                Log.d(TAG, "Device " + device + " is next to someone.");
             }
         }
 